@@ -1,8 +1,8 @@
 package com.ob1tech.AsyncCsvFileSorter;
 
-import com.ob1tech.AsyncCsvFileSorter.controllers.AsyncController;
 import com.ob1tech.AsyncCsvFileSorter.controllers.AsyncControllerBuilder;
 import com.ob1tech.CsvFileSorter.CSVFileSorter;
+import com.ob1tech.CsvFileSorter.controllers.Controller;
 
 /**
  * Async CsvFileSorter version
@@ -23,8 +23,6 @@ public class AsyncCSVFileSorter extends CSVFileSorter {
 
 	@Override
 	protected void run(byte skipHead, String filePath, int keyIndex, int bufferSize, String keyType) {
-		System.out.println( "Start indexing file..." );
-        
 		AsyncControllerBuilder builder = new AsyncControllerBuilder(filePath);
     	
     	builder.withSkipHeader(skipHead>0);
@@ -32,8 +30,15 @@ public class AsyncCSVFileSorter extends CSVFileSorter {
 		builder.withKeyIndex(keyIndex );
 		builder.withBatchSize( bufferSize );
 		builder.withKeyType( keyType );
+		configure(builder);
+		
+		if(isStandardStreams(filePath)) {
+			runStreamed(builder);
+			return;
+		}
+		System.out.println( "Start indexing file..." );
     	
-		AsyncController<?> controller = builder.build();
+		Controller<?> controller = builder.build();
     	controller.execute();
 	}
 
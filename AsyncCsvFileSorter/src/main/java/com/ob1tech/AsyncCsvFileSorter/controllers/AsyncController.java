@@ -1,8 +1,7 @@
 package com.ob1tech.AsyncCsvFileSorter.controllers;
 
-
-import static com.ob1tech.CsvFileSorter.controllers.BatchController.BATCH_SUFFIX;
-
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.LinkedList;
 import java.util.List;
@@ -16,11 +15,13 @@ import java.util.concurrent.atomic.AtomicLong;
 import com.ob1tech.CsvFileSorter.controllers.BatchController;
 import com.ob1tech.CsvFileSorter.controllers.Controller;
 import com.ob1tech.CsvFileSorter.dateModel.RecordBatchNode;
+import com.ob1tech.CsvFileSorter.storage.SegmentedContainer;
 import com.ob1tech.CsvFileSorter.utils.Utilities;
 
 /**
  * Asyncronius extention of {@link Controller}
  * Implements a task queue to handle batches. {@link RecordBatchQueue}
+ * Queued batches wait in a {@link SegmentedContainer} instead of a file per batch
  * Implements an Asyncronius {@link BatchController}
  * @author Madmon Tomer
  *
@@ -41,6 +42,7 @@ public class AsyncController<T extends Comparable<T>> extends Controller<T> impl
 	private boolean endReadingTheFile;
 	boolean finished;
 	private RecordBatchQueue recordBatchQueue = null;
+	private SegmentedContainer queueContainer;
 	private Utilities threadPoolUtilities;
 
 
@@ -68,6 +70,13 @@ public class AsyncController<T extends Comparable<T>> extends Controller<T> impl
 	@Override
 	public void execute() {
 		threadPoolUtilities = new Utilities(COREPOOLSIZE, "BatchControllerUpdateor");
+		try {
+			queueContainer = new SegmentedContainer(getFilePath().getParent(),
+					getFilePath().getFileName().toString().concat(QUEUE_SUFFIX));
+		} catch (IOException e) {
+			logger.error("Error opening queue container of "+getFilePath().getFileName(), e);
+			throw new UncheckedIOException(e);
+		}
 		super.execute();
 		endReadingTheFile = true;
 		
@@ -85,11 +94,25 @@ public class AsyncController<T extends Comparable<T>> extends Controller<T> impl
 				queueIsEmpty = recordBatchQueue.waitingBatches.size()==0;
 			}
 		}
+		try {
+			//Queue is drained, nothing to keep
+			queueContainer.delete();
+		} catch (IOException e) {
+			logger.error("Error deleting queue container of "+getFilePath().getFileName(), e);
+		}
 		super.finalizeBatchController();
 		super.writeSortedFile();
 		
 	}
 	
+	/**
+	 * Batches are sorted by many threads, out of the read order, so runs are not followed
+	 */
+	@Override
+	protected boolean isSortedInput() {
+		return false;
+	}
+	
 	@Override
 	public void finalizeBatchController() {
 		// Wait for queue
@@ -153,8 +176,7 @@ public class AsyncController<T extends Comparable<T>> extends Controller<T> impl
 	 */
 	private void putToQueue(RecordBatchNode<T> recordBatchNode) {
 		long batchId = tasksCount.getAndIncrement();
-		Path filePath = Utilities.constractFilePath(getFilePath(), batchId, QUEUE_SUFFIX);
-		Utilities.save(recordBatchNode, filePath , getBatchController().getObjectMapper());
+		Utilities.save(recordBatchNode, queueContainer, batchId, getBatchController().getBatchWriter());
 		recordBatchQueue.waitingBatches.add(batchId);
 	}
 	
@@ -225,12 +247,15 @@ public class AsyncController<T extends Comparable<T>> extends Controller<T> impl
 						
 						long batchId = waitingBatches.remove(0);
 						logger.info("QUEUE: Handle queued task " + batchId);
-						Path queueFilePath = Utilities.constractFilePath(getFilePath(), batchId, QUEUE_SUFFIX);
-						Path batchFilePath = Utilities.constractFilePath(getFilePath(), batchId, BATCH_SUFFIX);
-						Utilities.moveFile(queueFilePath, batchFilePath, true);
 						@SuppressWarnings("unchecked")
-						RecordBatchNode<T> recordBatchNode = (RecordBatchNode<T>) Utilities.getValueOf(batchFilePath,
-								batchController.getObjectMapper(), RecordBatchNode.class);
+						RecordBatchNode<T> recordBatchNode = (RecordBatchNode<T>) Utilities.getValueOf(queueContainer, batchId,
+								batchController.getBatchReader());
+						//The batch controller saves it to the batch container
+						try {
+							queueContainer.remove(batchId);
+						} catch (IOException e) {
+							logger.error("Error removing queued batch "+batchId, e);
+						}
 						
 						Runnable BatchControllerUpdateor = new BatchControllerUpdateor(recordBatchNode);
 						((Observable)BatchControllerUpdateor).addObserver(this);
@@ -1,9 +1,8 @@
 package com.ob1tech.AsyncCsvFileSorter.controllers;
 
-import java.nio.file.Path;
-import java.nio.file.Paths;
-
+import com.ob1tech.CsvFileSorter.controllers.Controller;
 import com.ob1tech.CsvFileSorter.controllers.ControllerBuilder;
+import com.ob1tech.CsvFileSorter.keys.ByteKey;
 
 public class AsyncControllerBuilder extends ControllerBuilder{
 	
@@ -12,19 +11,30 @@ public class AsyncControllerBuilder extends ControllerBuilder{
 		// TODO Auto-generated constructor stub
 	}
 
-	public AsyncController<?> build() {		
+	public AsyncControllerBuilder() {
+		super();
+	}
+
+	/**
+	 * Single pass modes read their inputs once, there is nothing to run async.
+	 * An append continues a sequential sort, its new records are sorted sequentially
+	 */
+	public Controller<?> build() {		
+		Controller<?> singlePass = buildSinglePass();
+		if(singlePass!=null) {
+			return singlePass;
+		}
+		if(getAppendFile()!=null) {
+			return super.build();
+		}
 		AsyncController<?> controller;
-		switch(getKeyType()) {
+		switch(getKeyKind()) {
 		case "string": controller = new AsyncController<String>(); break;
+		case "collated": controller = new AsyncController<ByteKey>(); break;
 		case "double": controller = new AsyncController<Double>(); break;
 		default: controller = new AsyncController<Long>(); break;
 		}
-		Path path = Paths.get(getFilePath());
-		controller.setFilePath(path);
-		controller.setBatchSize(getBatchSize());
-		controller.setKeyIndex(getKeyIndex());
-		controller.setSkipHeader(isSkipHeader());
-		controller.setKeyType(getKeyType());
+		configure(controller);
 		return controller;
 	}
 	
@@ -1,11 +1,6 @@
 package com.ob1tech.AsyncCsvFileSorter.controllers;
 
 import java.nio.file.Path;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 
 import com.ob1tech.CsvFileSorter.controllers.BatchController;
 import com.ob1tech.CsvFileSorter.controllers.IndexRecordController;
@@ -14,9 +9,11 @@ import com.ob1tech.CsvFileSorter.dateModel.IndexNode;
 /**
  * Async Index record controller extends the origional {@link IndexRecordController}
  * and adds it asyncronus capabilities.
- * The tree is synchronized by its nodes, allowing paralel indexing.
- * When a node is reached it is locked and after passing to adiferent one it is releases.
- * The gratest advantage is in large files where many nodes needs to be passed by.
+ * Batches are read and sorted by many threads, each adds its batch node to the tree when done.
+ * A tree node id is the id of its batch, and a node insertion saves its parent and its threaded
+ * neighbours, a node copy held by another insertion would overwrite them.
+ * So insertions pass the tree one at a time, by the batch order.
+ * Batches are dispatched by their order, so the next batch is always sorted or being sorted.
  * @author Madmon Tomer
  *
  * @param <T>
@@ -25,72 +22,33 @@ import com.ob1tech.CsvFileSorter.dateModel.IndexNode;
  */
 public class AsyncIndexRecordController<T extends Comparable<T>> extends IndexRecordController<T> {
 
-	private Object lock,lock2;
-	/**
-	 * Node lock tacker
-	 */
-	private Map<Long, Boolean> treeLockList;
-	
-	private Logger logger = LogManager.getLogger(AsyncIndexRecordController.class);
-	
+	private Object lock;
 
 	public AsyncIndexRecordController(BatchController<T> batchController, Path dataFile, String keyType,
 			int maxInMemoryNodes) {
 		super(batchController, dataFile, keyType, maxInMemoryNodes);
 		lock = new Object();
-		lock2 = new Object();
-		treeLockList = new ConcurrentHashMap<Long, Boolean>();
+		//Batches are sorted out of the read order, runs are not followed
+		setEdgeAppend(false);
 	}
-	
+
 	/**
-	 * Adding nodes to the tree.
-	 * Lock and release nodes as it goes
+	 * Adding a batch node to the tree, after all the batches before it
 	 */
-	protected void add(IndexNode<T> pointer, IndexNode<T> value, long nodeIndex, IndexNode<T> parentNode) {
-		if(pointer.getId()==0l) {
-			synchronized (lock) {
-				while(treeLockList.getOrDefault(0l, false)) {
-					try {
-						lock.wait(100);
-					} catch (InterruptedException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				}
-				treeLockList.put(0l, true);
-			}
-		}
-		Long preSubTreeHead = pointer.getId();
-		Long subTreeHead = pointer.getId();
-		while(pointer!=null) {
-			subTreeHead = pointer.getId();
-			synchronized (lock2) {
-				while(preSubTreeHead != subTreeHead && treeLockList.getOrDefault(subTreeHead, false)) {
-					try {
-						lock2.wait(100);
-					} catch (InterruptedException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
+	@Override
+	public void add(IndexNode<T> value) {
+		synchronized (lock) {
+			while(size()<value.getId()) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting to index batch "+value.getId(), e);
 				}
-				treeLockList.put(subTreeHead, true);
-			}
-			logger.debug("pointer"+pointer.getKey()+",node"+value.getKey());
-			if(value.getKey().compareTo(pointer.getKey())<0) {
-				pointer = goLeft(pointer, value, nodeIndex, parentNode);
-			}else if(value.getKey().compareTo(pointer.getKey())>0) {
-				pointer = goRight(pointer, value, nodeIndex, parentNode);
-			}else{
-				pointer = handleMixedValues(pointer, value, nodeIndex, parentNode);		
 			}
-			if(preSubTreeHead != subTreeHead) {				
-				treeLockList.put(preSubTreeHead, false);
-			}
-			preSubTreeHead = subTreeHead;
+			super.add(value);
+			lock.notifyAll();
 		}
-		treeLockList.remove(subTreeHead);
-		treeLockList.remove(0l);
-
 	}
 
 }
@@ -1,13 +1,24 @@
 package com.ob1tech.CsvFileSorter;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 
 import com.ob1tech.CsvFileSorter.CSVFileSorter.ARGS;
+import com.ob1tech.CsvFileSorter.aggregate.AggregateFunction;
 import com.ob1tech.CsvFileSorter.controllers.Controller;
 import com.ob1tech.CsvFileSorter.controllers.ControllerBuilder;
+import com.ob1tech.CsvFileSorter.controllers.DistinctPolicy;
+import com.ob1tech.CsvFileSorter.controllers.SampleSortController;
+import com.ob1tech.CsvFileSorter.keys.EpochParser;
+import com.ob1tech.CsvFileSorter.progress.ConsoleProgressReporter;
 
 /**
  * This is the gateway to csv file sorting tool.
@@ -28,6 +39,8 @@ public class CSVFileSorter {
 	 */
 	public static enum ARGS{
 		HELP("--help","Optional, See this help"),
+		STANDARD_STREAMS("-","Use in place of <File-path> to read the records from the standard input"
+				+ " and write the sorted records to the standard output. Header defaults to -nohead"),
 		HAS_HEADER("-head","Indicate file has header record at first row"),
 		HAS_NO_HEADER("-nohead","Indicate file has no header record at first row"),
 		BUFFER_SIZE("-b<Size>","Optional, Indicate the max number of records to read at the same time."
@@ -39,7 +52,44 @@ public class CSVFileSorter {
 		KEY_TYPE("-t<type>","Inform of key value type for correct sorting. Mainly string or long."
 				+ "Defualt is Long. Suports:"
 				+ "string|double|long"
-				+ "Example: -tstring");
+				+ " and collated strings, string:ci case insensitive, string:natural numbers by value"
+				+ " or string:<locale> by the locale collation,"
+				+ " date:<pattern> dates by a date time pattern and timestamp ISO-8601 date times. "
+				+ "Example: -tstring, -tstring:de-DE or -tdate:dd/MM/yyyy HH:mm"),
+		MEMORY_BUDGET("-mem<MB>","Optional, Indicate a memory budget in MB. Batches are sized by the measured"
+				+ " records size instead of -b<Size> and the index tree gets a share of the budget."
+				+ " Only the batches, the index node cache, the write behind queue and the read ahead are bounded,"
+				+ " the record positions are still kept for every record, so memory grows with the record count."
+				+ " Example: -mem512 will sort within 512MB"),
+		TOP_K("-top<N>","Optional, Write only the N smallest records, ascending. The file is read once"
+				+ " through a bounded heap, without batch or index files. Example: -top10"),
+		TOP_K_LARGEST("-topmax<N>","Optional, Write only the N largest records, descending."
+				+ " Example: -topmax10"),
+		DISTINCT("-distinct[:first|last|row]","Optional, Write one record per key. first(default) keeps the"
+				+ " record that comes first in the file, last the one that comes last and row writes"
+				+ " every different record of the key once. Example: -distinct:last"),
+		AGGREGATE("-agg<count|sum|min|max>[:index]","Optional, Write a per key aggregate of the value column"
+				+ " at index to aggregated_<File-name> instead of the sorted records. Example: -aggsum:3"),
+		PRE_AGGREGATE("-preagg","Optional, With -agg, reduce the records of a key while the batches are"
+				+ " created. Shrinks the spills of low cardinality keys"),
+		MERGE("-merge","Optional, Merge the files that follow, already sorted on the key, with <File-path> into"
+				+ " sorted_<File-name>, reading each once. Example: a.csv -merge b.csv c.csv"),
+		APPEND("-append","Optional, Merge the records of the file that follows into the previous sort of"
+				+ " <File-path>, only the new records are sorted. Example: a.csv -append new.csv"),
+		QUERY("-query<from>[:<to>]","Optional, Write the records of the keys from-to, inclusive, of the sorted"
+				+ " <File-path> to the standard output, using its sparse index. An empty side is open."
+				+ " Example: -query100:200 or -query100 for a single key"),
+		SAMPLE_SORT("-samplesort","Optional, Sort by key range partitions of a sampled key distribution instead"
+				+ " of the index tree. The partitions are sorted in memory, in parallel, and concatenated."
+				+ " Not used with -distinct, -agg or -append"),
+		PARTS("-parts<N>","Optional, With -samplesort, the number of key range partitions. A partition should"
+				+ " fit in memory. Defualt is "+SampleSortController.DEFAULT_PARTS_PER_CORE+" per core. Example: -parts64"),
+		WORKERS("-workers<N|host:port,...>","Optional, Sort a key range partition per worker process. N starts"
+				+ " N local workers for the sort, host:port uses running workers, see SortWorker."
+				+ " With -samplesort the workers sample sort their partitions. Example: -workers4"),
+		PROGRESS("-progress[:<seconds>]","Optional, Print the sort phase, rows, bytes, rows/s and the phase ETA"
+				+ " to the standard error every few seconds. Defualt is every "+ConsoleProgressReporter.DEFAULT_PERIOD
+				+ " seconds. Example: -progress:30");
 
 		public static Map<String, ARGS> mapByValue = new HashMap<String, ARGS>(){
 			private static final long serialVersionUID = -1037764536489571257L;
@@ -79,6 +129,25 @@ public class CSVFileSorter {
 	protected static int keyIndex = 0;
 	protected static int bufferSize = 0;
 	protected static String keyType = null;
+	protected static long memoryBudget = 0;
+	protected static int topK = 0;
+	protected static boolean topLargest = false;
+	protected static DistinctPolicy distinct = null;
+	protected static AggregateFunction aggregateFunction = null;
+	protected static int aggregateIndex = 0;
+	protected static boolean preAggregate = false;
+	protected static boolean merge = false;
+	protected static List<String> mergeFiles = new ArrayList<String>();
+	protected static boolean append = false;
+	protected static String appendFile = null;
+	protected static boolean query = false;
+	protected static String queryFrom = null;
+	protected static String queryTo = null;
+	protected static boolean sampleSort = false;
+	protected static int parts = 0;
+	protected static int localWorkers = 0;
+	protected static List<String> workerAddresses = null;
+	protected static int progressPeriod = 0;
 			
     	
     public static void main( String[] args )
@@ -105,6 +174,10 @@ public class CSVFileSorter {
 				if(argIndex == 0) {
 					argError = false;
 					filePath = arg;
+					if(isStandardStreams(filePath)) {
+						argIndex++;
+						continue;
+					}
 					File file = new File( filePath );
 				    if (file.exists() && file.isFile()) {
 				      //OK!
@@ -117,15 +190,69 @@ public class CSVFileSorter {
 					continue;
 				}
 
+				//Sorted inputs to merge
+				if(!arg.startsWith("-")) {
+					if(!new File( arg ).isFile()) {
+						filePath = arg;
+						fileError = true;
+						break;
+					}
+					if(append && appendFile==null) {
+						appendFile = arg;
+					}else {
+						mergeFiles.add(arg);
+					}
+					argIndex++;
+					continue;
+				}
+
 				ARGS value = ARGS.getByValue(arg);
 				if(value!=null) {
 					switch(value) {
 					case HELP: argHelp = true; break;
 					case HAS_HEADER: skipHead = 1; break;
 					case HAS_NO_HEADER: skipHead = -1; break;
+					case PRE_AGGREGATE: preAggregate = true; break;
+					case MERGE: merge = true; break;
+					case APPEND: append = true; break;
+					case SAMPLE_SORT: sampleSort = true; break;
 					default:
 						break;
 					}
+				}else if(arg.startsWith(ARGS.TOP_K_LARGEST.getValue().substring(0, 7))){
+					//Checked before -t<type> which shares the prefix
+					topK = Integer.valueOf(arg.substring(7));
+					topLargest = true;
+				}else if(arg.startsWith(ARGS.TOP_K.getValue().substring(0, 4))){
+					topK = Integer.valueOf(arg.substring(4));
+				}else if(arg.startsWith(ARGS.QUERY.getValue().substring(0, 6))){
+					String range = arg.substring(6);
+					int separator = range.indexOf(':');
+					query = true;
+					queryFrom = separator<0?range:range.substring(0, separator);
+					queryTo = separator<0?range:range.substring(separator+1);
+					queryFrom = queryFrom.isEmpty()?null:queryFrom;
+					queryTo = queryTo.isEmpty()?null:queryTo;
+				}else if(arg.startsWith(ARGS.WORKERS.getValue().substring(0, 8))){
+					String workers = arg.substring(8);
+					if(workers.indexOf(':')<0) {
+						localWorkers = Integer.valueOf(workers);
+					}else {
+						workerAddresses = Arrays.asList(workers.split(","));
+					}
+				}else if(arg.startsWith(ARGS.PROGRESS.getValue().substring(0, 9))){
+					String period = arg.substring(9).replace(":", "");
+					progressPeriod = period.isEmpty()?ConsoleProgressReporter.DEFAULT_PERIOD:Integer.valueOf(period);
+				}else if(arg.startsWith(ARGS.PARTS.getValue().substring(0, 6))){
+					parts = Integer.valueOf(arg.substring(6));
+				}else if(arg.startsWith(ARGS.AGGREGATE.getValue().substring(0, 4))){
+					String[] aggregate = arg.substring(4).split(":");
+					aggregateFunction = AggregateFunction.getByName(aggregate[0]);
+					if(aggregate.length>1) {
+						aggregateIndex = Integer.valueOf(aggregate[1]);
+					}
+				}else if(arg.startsWith(ARGS.DISTINCT.getValue().substring(0, 9))){
+					distinct = DistinctPolicy.getByName(arg.substring(9).replace(":", ""));
 				}else {
 					if(arg.startsWith(ARGS.KEY_INDEX.getValue().substring(0, 3))){
 						keyIndex = Integer.valueOf(arg.substring(3));
@@ -135,6 +262,13 @@ public class CSVFileSorter {
 					}; 
 					if(arg.startsWith(ARGS.KEY_TYPE.getValue().substring(0, 2))){
 						keyType = arg.substring(2).toLowerCase();
+						if(keyType.startsWith(EpochParser.DATE_PREFIX)) {
+							//Date patterns are case sensitive
+							keyType = EpochParser.DATE_PREFIX+arg.substring(2+EpochParser.DATE_PREFIX.length());
+						}
+					}; 
+					if(arg.startsWith(ARGS.MEMORY_BUDGET.getValue().substring(0, 4))){
+						memoryBudget = Long.valueOf(arg.substring(4));
 					}; 
 					
 				}
@@ -145,6 +279,12 @@ public class CSVFileSorter {
 			illegalArg = true;
 			e.printStackTrace();
 		}
+		if(!merge && !mergeFiles.isEmpty()) {
+			argError = true;
+		}
+		if(append && appendFile==null) {
+			argError = true;
+		}
 		if(fileError) {
 			System.out.println("Error: No file found at path "+filePath);
     		System.exit(0);
@@ -164,6 +304,14 @@ public class CSVFileSorter {
     		System.exit(0);
     	}
     	
+    	//Standard input carries the records, can't ask
+    	if(skipHead==0 && isStandardStreams(filePath)) {
+    		skipHead = -1;
+    	}
+    	//The sparse index keeps the sorted file header
+    	if(skipHead==0 && query) {
+    		skipHead = -1;
+    	}
     	//Head option was not specified
     	if(skipHead==0) {
     		boolean anwered;
@@ -213,6 +361,12 @@ public class CSVFileSorter {
 		builder.withKeyIndex(keyIndex );
 		builder.withBatchSize( bufferSize );
 		builder.withKeyType( keyType );
+		configure(builder);
+		
+		if(isStandardStreams(filePath)) {
+			runStreamed(builder);
+			return;
+		}
     	
 		Controller<?> controller = builder.build();
 		
@@ -223,6 +377,62 @@ public class CSVFileSorter {
     	
 	}
 
+	/**
+	 * Sort the standard input to the standard output with a {@link SortJob}.
+	 * Anything else printed to the standard output is sent to the standard error.
+	 * @param builder controller builder
+	 * @throws UncheckedIOException when the sort fails, so the process exits non zero
+	 */
+	protected void runStreamed(ControllerBuilder builder) {
+		PrintStream sortedOutput = System.out;
+		System.setOut(System.err);
+		try {
+			new SortJob(builder).sort(System.in, sortedOutput);
+		} catch (IOException e) {
+			Controller.logger.error("Error sorting the standard input", e);
+			throw new UncheckedIOException(e);
+		} finally {
+			sortedOutput.flush();
+		}
+		if(sortedOutput.checkError()) {
+			//The print stream does not throw, a closed pipe is only flagged
+			throw new UncheckedIOException(new IOException("Error writing the sorted records to the standard output"));
+		}
+	}
+
+	/**
+	 * @param filePath the file path option
+	 * @return true if the records are read from the standard input
+	 */
+	protected static boolean isStandardStreams(String filePath) {
+		return ARGS.STANDARD_STREAMS.getValue().equals(filePath);
+	}
+
+	/**
+	 * Apply the rest of the running options to the builder
+	 * @param builder controller builder
+	 */
+	protected void configure(ControllerBuilder builder) {
+		builder.withMemoryBudget(memoryBudget);
+		builder.withTopK(topK, topLargest);
+		builder.withDistinct(distinct);
+		builder.withAggregation(aggregateFunction, aggregateIndex, preAggregate);
+		if(merge) {
+			builder.withMergeFiles(mergeFiles);
+		}
+		builder.withAppendFile(appendFile);
+		if(query) {
+			builder.withQuery(queryFrom, queryTo);
+		}
+		if(sampleSort) {
+			builder.withSampleSort(parts);
+		}
+		builder.withWorkers(localWorkers, workerAddresses);
+		if(progressPeriod>0) {
+			builder.withProgressListener(new ConsoleProgressReporter(System.err, progressPeriod));
+		}
+	}
+
 	/**
 	 * Help info output helper
 	 * @return the help guide
@@ -0,0 +1,132 @@
+package com.ob1tech.CsvFileSorter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.ob1tech.CsvFileSorter.controllers.Controller;
+import com.ob1tech.CsvFileSorter.controllers.ControllerBuilder;
+
+/**
+ * SortJob is the library gateway for sorting streamed records, from pipes, sockets or any other stream.
+ * The sorting is configured by a {@link ControllerBuilder}, its file path is ignored.
+ * <p>
+ * The controllers read the records twice, once for sorting the keys and once for placing
+ * the rows in their batches, so the input is first spilled to a private work directory
+ * under the temp area. All batch and index spills are kept there as well and the work
+ * directory is deleted when the job is done.
+ * <p>
+ * Example:
+ * <pre>
+ * new SortJob(new ControllerBuilder().withSkipHeader(true).withKeyIndex(2))
+ * 	.withTempDirectory(Paths.get("/data/tmp"))
+ * 	.sort(inputStream, outputStream);
+ * </pre>
+ */
+public class SortJob {
+
+	private static final String WORK_DIRECTORY_PREFIX = "csvFileSort";
+	private static final String INPUT_FILE_NAME = "input.csv";
+
+	private static Logger logger = LogManager.getLogger(SortJob.class);
+
+	private final ControllerBuilder builder;
+
+	/**
+	 * Spill area, null for the system temp directory
+	 */
+	private Path tempDirectory;
+
+	/**
+	 * Constructor:
+	 * @param builder sorting specifications
+	 */
+	public SortJob(ControllerBuilder builder) {
+		this.builder = builder;
+	}
+
+	/**
+	 * Set the spill area
+	 * @param tempDirectory directory for the job work directory
+	 * @return this job
+	 */
+	public SortJob withTempDirectory(Path tempDirectory) {
+		this.tempDirectory = tempDirectory;
+		return this;
+	}
+
+	/**
+	 * Sort the records of the channel into the output. Returns when done.
+	 * @param input records source, read to its end but not closed
+	 * @param output sorted records destination, flushed but not closed
+	 * @throws IOException
+	 */
+	public void sort(ReadableByteChannel input, OutputStream output) throws IOException {
+		sort(Channels.newInputStream(input), output);
+	}
+
+	/**
+	 * Sort the records of the input stream into the output. Returns when done.
+	 * @param input records source, read to its end but not closed
+	 * @param output sorted records destination, flushed but not closed
+	 * @throws IOException when the input can not be spilled or the sort fails
+	 */
+	public void sort(InputStream input, OutputStream output) throws IOException {
+		Path workDirectory = tempDirectory==null
+				?Files.createTempDirectory(WORK_DIRECTORY_PREFIX)
+				:Files.createTempDirectory(tempDirectory, WORK_DIRECTORY_PREFIX);
+		try {
+			Path inputFile = workDirectory.resolve(INPUT_FILE_NAME);
+			long time = System.currentTimeMillis();
+			long size = Files.copy(input, inputFile, StandardCopyOption.REPLACE_EXISTING);
+			logger.info("Spilled "+size+" bytes of input "+(System.currentTimeMillis()-time)+" msc");
+
+			builder.setFilePath(inputFile.toString());
+			builder.withOutput(output);
+			Controller<?> controller = builder.build();
+			controller.execute();
+			output.flush();
+		} catch (UncheckedIOException e) {
+			//Controllers fail by unchecked exceptions
+			throw e.getCause();
+		} finally {
+			deleteDirectory(workDirectory);
+		}
+	}
+
+	/**
+	 * Delete the work directory and all of its spills
+	 */
+	private void deleteDirectory(Path directory) {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+				try {
+					Files.deleteIfExists(path);
+				} catch (IOException e) {
+					logger.error("Error deleting "+path, e);
+				}
+			});
+		} catch (IOException e) {
+			logger.error("Error deleting "+directory, e);
+		}
+	}
+
+	public ControllerBuilder getBuilder() {
+		return builder;
+	}
+
+	public Path getTempDirectory() {
+		return tempDirectory;
+	}
+}
@@ -0,0 +1,151 @@
+package com.ob1tech.CsvFileSorter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.ob1tech.CsvFileSorter.controllers.ControllerBuilder;
+import com.ob1tech.CsvFileSorter.dateModel.SortTask;
+import com.ob1tech.CsvFileSorter.utils.Utilities;
+
+/**
+ * SortWorker sorts the partitions a distributed sort coordinator sends it, in its own JVM.
+ * <p>
+ * Protocol, one partition per connection:
+ * <pre>
+ * coordinator	| the {@link SortTask} as a UTF string, then the partition records until its output is shut down
+ * worker		| the sorted records, then closes the connection
+ * </pre>
+ * Every partition is sorted by a {@link SortJob}, so its spills are kept in a private work directory.
+ * Connections are served one at a time.
+ * <p>
+ * Example:
+ * <pre>
+ * java -cp csvFileSort.jar com.ob1tech.CsvFileSorter.SortWorker 7070 /data/tmp
+ * </pre>
+ * @see com.ob1tech.CsvFileSorter.controllers.DistributedSortController
+ */
+public class SortWorker {
+
+	/**
+	 * Printed to the standard output once the worker accepts connections, followed by the port
+	 */
+	public static final String READY_MESSAGE = "SortWorker listening on port ";
+
+	private static Logger logger = LogManager.getLogger(SortWorker.class);
+
+	private final ServerSocket serverSocket;
+
+	/**
+	 * Spill area, null for the system temp directory
+	 */
+	private Path tempDirectory;
+
+	/**
+	 * Constructor:
+	 * @param port port to listen on, 0 for any free port
+	 * @throws IOException
+	 */
+	public SortWorker(int port) throws IOException {
+		this.serverSocket = new ServerSocket(port);
+	}
+
+	/**
+	 * Run a worker until its process is stopped
+	 * @param args port, 0 for any free port. Optional spill directory
+	 */
+	public static void main(String[] args) {
+		try {
+			SortWorker worker = new SortWorker(args.length>0?Integer.valueOf(args[0]):0);
+			if(args.length>1) {
+				worker.withTempDirectory(Paths.get(args[1]));
+			}
+			System.out.println(READY_MESSAGE+worker.getPort());
+			System.out.flush();
+			worker.serve();
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Set the spill area
+	 * @param tempDirectory directory for the partitions work directories
+	 * @return this worker
+	 */
+	public SortWorker withTempDirectory(Path tempDirectory) {
+		this.tempDirectory = tempDirectory;
+		return this;
+	}
+
+	/**
+	 * Accept and sort partitions until the worker is closed
+	 * @throws IOException
+	 */
+	public void serve() throws IOException {
+		while(!serverSocket.isClosed()) {
+			try (Socket socket = serverSocket.accept()) {
+				sortPartition(socket);
+			} catch (IOException e) {
+				if(serverSocket.isClosed()) {
+					break;
+				}
+				logger.error("Error sorting a partition", e);
+			}
+		}
+	}
+
+	/**
+	 * Read the task and the records of a partition and send them back sorted
+	 * @param socket coordinator connection
+	 * @throws IOException
+	 */
+	private void sortPartition(Socket socket) throws IOException {
+		long time = System.currentTimeMillis();
+		DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		SortTask task = Utilities.readerFor(SortTask.class).readValue(input.readUTF());
+
+		ControllerBuilder builder = new ControllerBuilder()
+				.withKeyType(task.getKeyType())
+				.withKeyIndex(task.getKeyIndex())
+				.withBatchSize(task.getBatchSize())
+				.withMemoryBudget(task.getMemoryBudget());
+		if(task.isSampleSort()) {
+			builder.withSampleSort(task.getParts());
+		}
+		OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+		new SortJob(builder).withTempDirectory(tempDirectory).sort(input, output);
+		output.flush();
+		logger.info("Sorted partition of "+socket.getRemoteSocketAddress()+" "+(System.currentTimeMillis()-time)+" msc");
+	}
+
+	/**
+	 * Stop accepting partitions
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	/**
+	 * @return the port the worker listens on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public Path getTempDirectory() {
+		return tempDirectory;
+	}
+}
@@ -0,0 +1,31 @@
+package com.ob1tech.CsvFileSorter.aggregate;
+
+/**
+ * <pre>
+ * Enum of the per key aggregate functions
+ * COUNT	| number of records of the key
+ * SUM	| sum of the value column
+ * MIN	| min of the value column
+ * MAX	| max of the value column
+ * </pre>
+ * @see Aggregation
+ */
+public enum AggregateFunction {
+	COUNT, SUM, MIN, MAX;
+
+	/**
+	 * @param name function name, case insensitive
+	 * @return the aggregate function
+	 * @exception IllegalArgumentException for an unknown name
+	 */
+	public static AggregateFunction getByName(String name) {
+		return valueOf(name.toUpperCase());
+	}
+
+	/**
+	 * @return true if the function reads the value column
+	 */
+	public boolean hasValue() {
+		return this!=COUNT;
+	}
+}
@@ -0,0 +1,260 @@
+package com.ob1tech.CsvFileSorter.aggregate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+
+/**
+ * <pre>
+ * Aggregation computes a per key aggregate over the sorted records in one streaming pass.
+ * Records of an equal key are contiguous in the sorted order, so only the current key
+ * state is kept and a result row is written when the key changes.
+ *
+ * Result file:
+ * key,function(value column)
+ *
+ * With pre aggregation the records of a key within a batch are reduced to one record
+ * while the batch is created, its text is the partial state of the key {@link Partial}.
+ * Low cardinality keys then spill a record per key and batch instead of a record per row.
+ * </pre>
+ * @see AggregateFunction
+ */
+public class Aggregation {
+
+	/**
+	 * Result file prefix
+	 */
+	public static final String AGGREGATED_PREFIX = "aggregated_";
+
+	private final AggregateFunction function;
+	private final int keyIndex;
+	private final int valueIndex;
+	private final boolean preAggregate;
+	private final CSVParser parser;
+
+	/**
+	 * Current key state
+	 */
+	private Object groupKey;
+	private Partial group;
+
+	/**
+	 * Result row key text, the key string by default
+	 */
+	private Function<Object, String> keyFormat = String::valueOf;
+
+	private OutputStream output;
+	private byte[] lineSeparator;
+
+	/**
+	 * Constructor:
+	 * @param function aggregate function
+	 * @param keyIndex key column position
+	 * @param valueIndex value column position, ignored by {@link AggregateFunction#COUNT}
+	 * @param preAggregate reduce the records of a key while the batch is created
+	 */
+	public Aggregation(AggregateFunction function, int keyIndex, int valueIndex, boolean preAggregate) {
+		this.function = function;
+		this.keyIndex = keyIndex;
+		this.valueIndex = valueIndex;
+		this.preAggregate = preAggregate;
+		this.parser = new CSVParserBuilder().build();
+	}
+
+	/**
+	 * Start writing results
+	 * @param output result destination
+	 * @param header the file header, or null
+	 * @throws IOException
+	 */
+	public void begin(OutputStream output, String header) throws IOException {
+		this.output = output;
+		this.lineSeparator = System.getProperty("line.separator").getBytes();
+		this.groupKey = null;
+		this.group = null;
+		if(header!=null) {
+			List<String> columns = Arrays.asList(parser.parseLine(header));
+			String valueName = function.name().toLowerCase();
+			if(function.hasValue()) {
+				valueName += "("+columns.get(valueIndex)+")";
+			}
+			writeRow(columns.get(keyIndex), valueName);
+		}
+	}
+
+	/**
+	 * Add a record in the sorted order
+	 * @param key the record key
+	 * @param record the record row, or its partial state when pre aggregated
+	 * @throws IOException
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void add(Comparable key, String record) throws IOException {
+		Partial partial = preAggregate
+				?Partial.parse(record)
+				:partialOf(Arrays.asList(parser.parseLine(record)));
+		if(group!=null && key.compareTo(groupKey)==0) {
+			group.merge(partial);
+			return;
+		}
+		writeGroup();
+		groupKey = key;
+		group = partial;
+	}
+
+	/**
+	 * Write the last key result
+	 * @throws IOException
+	 */
+	public void end() throws IOException {
+		writeGroup();
+		group = null;
+	}
+
+	/**
+	 * @param columns record columns
+	 * @return the partial state of a single record
+	 */
+	public Partial partialOf(List<String> columns) {
+		Partial partial = new Partial();
+		partial.count = 1;
+		if(function.hasValue()) {
+			String value = columns.get(valueIndex).trim();
+			//Empty values are counted but not summed
+			if(!value.isEmpty()) {
+				partial.add(Double.parseDouble(value));
+			}
+		}
+		return partial;
+	}
+
+	private void writeGroup() throws IOException {
+		if(group==null) {
+			return;
+		}
+		String value;
+		switch(function) {
+		case COUNT: value = String.valueOf(group.count); break;
+		case SUM: value = format(group.sum); break;
+		case MIN: value = group.hasValue?format(group.min):""; break;
+		default: value = group.hasValue?format(group.max):""; break;
+		}
+		writeRow(keyFormat.apply(groupKey), value);
+	}
+
+	private void writeRow(String key, String value) throws IOException {
+		output.write(quote(key).getBytes(StandardCharsets.UTF_8));
+		output.write(',');
+		output.write(quote(value).getBytes(StandardCharsets.UTF_8));
+		output.write(lineSeparator);
+	}
+
+	/**
+	 * Whole numbers are written without a fraction
+	 */
+	private static String format(double value) {
+		if(value==Math.rint(value) && Math.abs(value)<1e15) {
+			return String.valueOf((long) value);
+		}
+		return String.valueOf(value);
+	}
+
+	private static String quote(String value) {
+		if(value.indexOf(',')<0 && value.indexOf('"')<0) {
+			return value;
+		}
+		return '"'+value.replace("\"", "\"\"")+'"';
+	}
+
+	public AggregateFunction getFunction() {
+		return function;
+	}
+
+	public int getKeyIndex() {
+		return keyIndex;
+	}
+
+	public int getValueIndex() {
+		return valueIndex;
+	}
+
+	public boolean isPreAggregate() {
+		return preAggregate;
+	}
+
+	/**
+	 * @param keyFormat result row key text of a key
+	 */
+	public void setKeyFormat(Function<Object, String> keyFormat) {
+		this.keyFormat = keyFormat;
+	}
+
+	/**
+	 * Aggregate state of some records of a key. Kept as the record text when pre aggregated:
+	 * count;sum;min;max
+	 */
+	public static class Partial {
+
+		private static final String DELIMITER = ";";
+
+		private long count;
+		private double sum;
+		private double min;
+		private double max;
+		private boolean hasValue;
+
+		/**
+		 * Add a single value
+		 * @param value
+		 */
+		public void add(double value) {
+			sum += value;
+			min = hasValue?Math.min(min, value):value;
+			max = hasValue?Math.max(max, value):value;
+			hasValue = true;
+		}
+
+		/**
+		 * Add the state of other records of the key
+		 * @param other
+		 */
+		public void merge(Partial other) {
+			count += other.count;
+			if(other.hasValue) {
+				sum += other.sum;
+				min = hasValue?Math.min(min, other.min):other.min;
+				max = hasValue?Math.max(max, other.max):other.max;
+				hasValue = true;
+			}
+		}
+
+		/**
+		 * @param text a {@link #toString()} value
+		 * @return the partial state
+		 */
+		public static Partial parse(String text) {
+			String[] values = text.split(DELIMITER, -1);
+			Partial partial = new Partial();
+			partial.count = Long.parseLong(values[0]);
+			partial.sum = Double.parseDouble(values[1]);
+			partial.hasValue = !values[2].isEmpty();
+			if(partial.hasValue) {
+				partial.min = Double.parseDouble(values[2]);
+				partial.max = Double.parseDouble(values[3]);
+			}
+			return partial;
+		}
+
+		@Override
+		public String toString() {
+			return count + DELIMITER + sum + DELIMITER
+					+ (hasValue?min+DELIMITER+max:DELIMITER);
+		}
+	}
+}
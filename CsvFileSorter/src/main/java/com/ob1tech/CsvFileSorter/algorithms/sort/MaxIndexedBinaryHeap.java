@@ -0,0 +1,34 @@
+package com.ob1tech.CsvFileSorter.algorithms.sort;
+
+/**
+ * <pre>
+ * MaxIndexedBinaryHeap is a {@link MinIndexedBinaryHeap} with reversed priority.
+ * The "min" methods of the heap refer to the highest value:
+ * {@link #peekMinValue()}		| O(1) the highest value
+ * {@link #pollMinValue()}		| O(log(n)) the highest value
+ * {@link #update(int, Comparable)}| O(log(n)) replacing the highest value by {@link #peekMinKeyIndex()}
+ * </pre>
+ *
+ * @param <T> comparable value
+ * @see MinIndexedBinaryHeap
+ */
+public class MaxIndexedBinaryHeap<T extends Comparable<T>> extends MinIndexedBinaryHeap<T> {
+
+	/**
+	 * Contractor: Initializes a binary heap with a maximum capacity of maxSize.
+	 * @param maxSize max heap size allowed for processing
+	 * @exception IllegalArgumentException
+	 */
+	public MaxIndexedBinaryHeap(int maxSize) {
+		super(maxSize);
+	}
+
+	/**
+	 * Tests if the value of obj1 is higher then the value of obj2 Is obj1 &gt; obj2
+	 * @return true if obj1 &gt; obj2
+	 */
+	@Override
+	protected boolean less(int i, Object obj1, int j, Object obj2) {
+		return super.less(j, obj2, i, obj1);
+	}
+}
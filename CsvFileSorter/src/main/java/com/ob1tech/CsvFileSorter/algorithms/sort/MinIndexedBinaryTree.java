@@ -1,8 +1,10 @@
 package com.ob1tech.CsvFileSorter.algorithms.sort;
 
+import java.util.ArrayDeque;
 import java.util.ConcurrentModificationException;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.Stack;
+import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
@@ -10,6 +12,7 @@ import org.apache.logging.log4j.Logger;
 
 import com.ob1tech.CsvFileSorter.dateModel.IndexNode;
 import com.ob1tech.CsvFileSorter.dateModel.SortKey;
+import com.ob1tech.CsvFileSorter.events.TreeInsertEvent;
 
 
 /**
@@ -21,6 +24,10 @@ import com.ob1tech.CsvFileSorter.dateModel.SortKey;
  * left side of the tree will contain the lower values or the highest priority ones
  * and the right will contain the opposite.
  * 
+ * The tree is threaded: every node links its in order previous and next nodes.
+ * A new leaf is linked between its parent and the parent's old neighbour, swaps move
+ * records between nodes but never nodes, so the links hold. The iteration follows
+ * the next links from the lowest node, one read per node.
  * </pre>
  * 
  * @author Madmon Tomer
@@ -41,6 +48,23 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 	 * @see IndexNode
 	 */
 	private IndexNode<T> root;
+	
+	/**
+	 * Ids of the lowest and highest nodes, where runs of sorted batches are appended
+	 * @see #appendToEdge(IndexNode)
+	 */
+	private Long leftmost, rightmost;
+	
+	/**
+	 * Indicator of appending sorted runs at the tree edges
+	 */
+	private boolean edgeAppend = true;
+	
+	/**
+	 * Nodes passed and inner swaps of the running insert, nodes are added one at a time
+	 * @see TreeInsertEvent
+	 */
+	private int insertDepth, insertSwaps;
 
 	/**
 	 * logger
@@ -90,6 +114,11 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 		 * saving is an abstract method.
 		 * @see indexRecordController for implimentation
 		 */
+		TreeInsertEvent event = new TreeInsertEvent();
+		event.begin();
+		insertDepth = 0;
+		insertSwaps = 0;
+		boolean edge = false;
 		long nodeIndex = treeSize.getAndIncrement();
 		value.setId(nodeIndex);
 		save(nodeIndex, value);
@@ -97,12 +126,24 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 		//init as root
 		if(root==null) {
 			root = value;
+			leftmost = nodeIndex;
+			rightmost = nodeIndex;
+		}else if(appendToEdge(value)) {
+			edge = true;
 		}else {
 			//get the head of the tree
 			IndexNode<T> pointer = root;
 			//add element to tree
 			add(pointer, value, nodeIndex, null);
 		}
+		event.end();
+		if(event.shouldCommit()) {
+			event.nodeId = nodeIndex;
+			event.depth = insertDepth;
+			event.swaps = insertSwaps;
+			event.edge = edge;
+			event.commit();
+		}
 		
 		
 		/**
@@ -114,6 +155,149 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 		
 	}
 
+	/**
+	 * <pre>
+	 * Sorted and reverse sorted input makes runs of batches that are higher (lower) than the whole tree.
+	 * Such a batch is a right (left) leaf of the highest (lowest) node, so it is parked there
+	 * instead of passing the whole tree edge, that would grow by one node each time. O(1)
+	 * A batch that mixes with the edge node passes the tree as usual.
+	 * </pre>
+	 * @param value the new node
+	 * @return true if the node was parked at an edge
+	 */
+	protected boolean appendToEdge(IndexNode<T> value) {
+		if(!edgeAppend || rightmost==null) {
+			return false;
+		}
+		IndexNode<T> edge = getEdge(rightmost);
+		if(value.getKey().compareTo(edge.getKey())>0) {
+			edge.setRightNode(value.getId());
+			threadAfter(edge, value);
+			save(edge.getId(), edge);
+			rightmost = value.getId();
+			return true;
+		}
+		edge = getEdge(leftmost);
+		if(value.getKey().compareTo(edge.getKey())<0) {
+			edge.setLeftNode(value.getId());
+			threadBefore(edge, value);
+			save(edge.getId(), edge);
+			leftmost = value.getId();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The root is kept in memory and passed by reference, so it is not read again
+	 * @param nodeIndex edge node id
+	 * @return the edge node
+	 */
+	private IndexNode<T> getEdge(long nodeIndex) {
+		return root.getId()==nodeIndex?root:getValueOf(nodeIndex);
+	}
+
+	/**
+	 * Link a new left leaf of the parent before it, after the parent's old previous node.
+	 * The parent is saved by the caller
+	 * @param parent the leaf parent
+	 * @param value the new leaf
+	 */
+	protected void threadBefore(IndexNode<T> parent, IndexNode<T> value) {
+		Long prevNode = parent.getPrevNode();
+		value.setPrevNode(prevNode);
+		value.setNextNode(parent.getId());
+		parent.setPrevNode(value.getId());
+		if(prevNode!=null) {
+			IndexNode<T> prev = getEdge(prevNode);
+			prev.setNextNode(value.getId());
+			save(prevNode, prev);
+		}
+		save(value.getId(), value);
+	}
+
+	/**
+	 * Link a new right leaf of the parent after it, before the parent's old next node.
+	 * The parent is saved by the caller
+	 * @param parent the leaf parent
+	 * @param value the new leaf
+	 */
+	protected void threadAfter(IndexNode<T> parent, IndexNode<T> value) {
+		Long nextNode = parent.getNextNode();
+		value.setPrevNode(parent.getId());
+		value.setNextNode(nextNode);
+		parent.setNextNode(value.getId());
+		if(nextNode!=null) {
+			IndexNode<T> next = getEdge(nextNode);
+			next.setPrevNode(value.getId());
+			save(nextNode, next);
+		}
+		save(value.getId(), value);
+	}
+
+	/**
+	 * Link the nodes of a tree persisted without links, by one in order pass
+	 */
+	private void thread() {
+		long time = System.currentTimeMillis();
+		Deque<IndexNode<T>> path = new ArrayDeque<IndexNode<T>>();
+		IndexNode<T> node = root;
+		IndexNode<T> prev = null;
+		while(node!=null || !path.isEmpty()) {
+			while(node!=null) {
+				path.push(node);
+				node = node.getLeftNode()==null?null:getEdge(node.getLeftNode());
+			}
+			node = path.pop();
+			node.setPrevNode(prev==null?null:prev.getId());
+			if(prev!=null) {
+				prev.setNextNode(node.getId());
+				save(prev.getId(), prev);
+			}
+			prev = node;
+			node = node.getRightNode()==null?null:getEdge(node.getRightNode());
+		}
+		if(prev!=null) {
+			prev.setNextNode(null);
+			save(prev.getId(), prev);
+		}
+		logger.info("Threaded "+size()+" index nodes "+(System.currentTimeMillis()-time)+" msc");
+	}
+
+	/**
+	 * Continue a persisted tree, new nodes get the ids that follow
+	 * @param root the persisted root node
+	 * @param size number of persisted nodes
+	 */
+	protected void restore(IndexNode<T> root, long size) {
+		this.root = root;
+		treeSize.set(size);
+		//Find the edges
+		IndexNode<T> edge = root;
+		while(edge.getLeftNode()!=null) {
+			edge = getValueOf(edge.getLeftNode());
+		}
+		leftmost = edge.getId();
+		edge = root;
+		while(edge.getRightNode()!=null) {
+			edge = getValueOf(edge.getRightNode());
+		}
+		rightmost = edge.getId();
+		if(size>1 && root.getPrevNode()==null && root.getNextNode()==null) {
+			//Persisted before the tree was threaded
+			thread();
+		}
+	}
+
+	/**
+	 * Turn appending sorted runs at the tree edges on or off.
+	 * Edges are followed by a single adding thread only
+	 * @param edgeAppend false passes every node through the tree
+	 */
+	public void setEdgeAppend(boolean edgeAppend) {
+		this.edgeAppend = edgeAppend;
+	}
+
 	/**
 	 * @return root
 	 */
@@ -153,7 +337,11 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 		}else {
 			if(parentNode==null){
 				pointer.setLeftNode(nodeIndex);			
+				threadBefore(pointer, value);
 				save(pointer.getId(), pointer);
+				if(pointer.getId().equals(leftmost)) {
+					leftmost = nodeIndex;
+				}
 			}
 			return null;
 		}
@@ -176,7 +364,11 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 		}else {
 			if(parentNode==null){
 				pointer.setRightNode(nodeIndex);			
+				threadAfter(pointer, value);
 				save(pointer.getId(), pointer);
+				if(pointer.getId().equals(rightmost)) {
+					rightmost = nodeIndex;
+				}
 			}
 			return null;
 		}
@@ -199,8 +391,12 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 		while(pointer!=null) {
 			
 			logger.debug("pointer"+pointer.getKey()+",node"+value.getKey());
+			if(parentNode==null) {
+				//The new node way down, sub tree re sorts are not counted
+				insertDepth++;
+			}
 			
-			if(value.getKey().compareTo(pointer.getKey())<0) {
+			if(goesLeft(pointer, value, parentNode)) {
 				//Go left
 				pointer = goLeft(pointer, value, nodeIndex, parentNode);
 			}else if(value.getKey().compareTo(pointer.getKey())>0) {
@@ -215,6 +411,20 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 
 	}
 
+	/**
+	 * A lower value goes left. But while re sorting a sub tree (parentNode is set) the value is
+	 * the sub tree head and must stay higher then all of its left nodes, so a lower node
+	 * is handled as mixed values, its values are swapped as well.
+	 * @param pointer node currently passing by
+	 * @param value the node that is meant to enter or update the tree
+	 * @param parentNode carry on parameter to indicate where where the last place we checked
+	 * @return true if the value should go left
+	 * @see #sendPointerToLeft(IndexNode, IndexNode, IndexNode)
+	 */
+	protected boolean goesLeft(IndexNode<T> pointer, IndexNode<T> value, IndexNode<T> parentNode) {
+		return parentNode==null && value.getKey().compareTo(pointer.getKey())<0;
+	}
+
 	/**
 	 * Since we do not support duplicates in records keys.
 	 * We need to fix a comparison point. the values of our pointer node
@@ -229,6 +439,7 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 	 * @return return a right leaf
 	 */
 	protected IndexNode<T> handleMixedValues(IndexNode<T> pointer, IndexNode<T> value, long nodeIndex, IndexNode<T> parentNode) {
+		insertSwaps++;
 		doInnerSwap(value, pointer);
 		//Split lows to right, heigh's to left
 		if(pointer.getLeftNode()!=null) {
@@ -280,7 +491,7 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 
 	/**
 	 * Tree value polling in order iterator.
-	 * It uses a stack to save passed nodes for O(n) complexity
+	 * It follows the next links from the lowest node, every node is read once. O(n)
 	 * @author Madmon Tomer
 	 * @see Iterator
 	 */
@@ -291,22 +502,18 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 		 */
 		private long startAtHeapSize;
 		/**
-		 * by passing in the tree we need to carry on to the lowest point and then double back.
-		 * In the stack we save id'e we have parsed for later printing
+		 * Id of the next node to show, null at the end
 		 */
-		private Stack<Long> nextIndexStack;
-		private IndexNode<T> pointer;
+		private Long nextIndex;
 
 		/**
 		 * Contractor: of this iterator.
-		 * Initiates the stack, start point and root element
+		 * Initiates the start point and the lowest node
 		 * @param startAtHeapSize
 		 */
 		public MinIndexedBinaryTreeIterator(long startAtHeapSize) {
 			this.startAtHeapSize = startAtHeapSize;
-			nextIndexStack = new Stack<Long>();
-			nextIndexStack.add(0l);
-			pointer = root;
+			nextIndex = root==null?null:leftmost;
 		}
 		
 		/*
@@ -326,7 +533,7 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 		 */
 		public boolean hasNext() {
 			noConcurencyUpdateOrThrow();
-			return root!=null && !nextIndexStack.isEmpty();
+			return nextIndex!=null;
 		}
 
 		/**
@@ -335,24 +542,12 @@ public abstract class MinIndexedBinaryTree<T> implements Iterable<T>{
 		 */
 		public IndexNode<T> next() {
 			noConcurencyUpdateOrThrow();
-			
-			//Go deep left
-			while(pointer!=null && pointer.getLeftNode()!=null) {
-				//Collect id's on the way
-				nextIndexStack.push(pointer.getLeftNode());
-				//Get actual value node
-				pointer = getValueOf(pointer.getLeftNode());
+			if(nextIndex==null) {
+				throw new NoSuchElementException();
 			}
-			
 			//Get actual value to show
-			IndexNode<T> node = getValueOf(nextIndexStack.pop());
-			
-			//go right once. for next round
-			if(node.getRightNode()!=null) {
-				nextIndexStack.push(node.getRightNode());
-				pointer = getValueOf(node.getRightNode());
-			}
-			
+			IndexNode<T> node = getEdge(nextIndex);
+			nextIndex = node.getNextNode();
 			return node;
 		}
 
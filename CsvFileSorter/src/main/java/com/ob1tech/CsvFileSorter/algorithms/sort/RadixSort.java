@@ -0,0 +1,91 @@
+package com.ob1tech.CsvFileSorter.algorithms.sort;
+
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * RadixSort is a least significant digit radix sort of primitive long keys.
+ * It returns the sorted order as a permutation of the key positions, so the values
+ * the keys belong to are moved once, after the sort.
+ * Keys and positions are scattered together, a pass reads both arrays sequentially.
+ *
+ * Complexity O(n x 8), a byte per pass. A byte that is the same for all the keys is skipped,
+ * so keys of a small range take a few passes only.
+ * The sort is stable, equal keys keep their order.
+ *
+ * Double keys are mapped to longs of the same order by {@link #sortableBits(double)}.
+ * </pre>
+ */
+public class RadixSort {
+
+	/**
+	 * Default minimal number of keys to sort by radix, less are cheaper to compare
+	 */
+	public static final int DEFAULT_THRESHOLD = 256;
+
+	private static final int RADIX = 256;
+	private static final int PASSES = 8;
+
+	private RadixSort() {
+	}
+
+	/**
+	 * Sort the keys
+	 * @param keys the keys, used as work space
+	 * @return the positions of the keys in sorted order
+	 */
+	public static int[] sort(long[] keys) {
+		int n = keys.length;
+		int[] order = new int[n];
+		for(int i=0; i<n; i++) {
+			order[i] = i;
+			//Signed order, the sign bit is flipped
+			keys[i] ^= Long.MIN_VALUE;
+		}
+		if(n<2) {
+			return order;
+		}
+		long[] keysBuffer = new long[n];
+		int[] orderBuffer = new int[n];
+		int[] counts = new int[RADIX];
+		for(int pass=0; pass<PASSES; pass++) {
+			int shift = pass*8;
+			Arrays.fill(counts, 0);
+			for(int i=0; i<n; i++) {
+				counts[(int) (keys[i]>>>shift) & 0xFF]++;
+			}
+			if(counts[(int) (keys[0]>>>shift) & 0xFF]==n) {
+				//Same byte for all
+				continue;
+			}
+			int offset = 0;
+			for(int digit=0; digit<RADIX; digit++) {
+				int count = counts[digit];
+				counts[digit] = offset;
+				offset += count;
+			}
+			for(int i=0; i<n; i++) {
+				int position = counts[(int) (keys[i]>>>shift) & 0xFF]++;
+				keysBuffer[position] = keys[i];
+				orderBuffer[position] = order[i];
+			}
+			long[] keysSwap = keys;
+			keys = keysBuffer;
+			keysBuffer = keysSwap;
+			int[] orderSwap = order;
+			order = orderBuffer;
+			orderBuffer = orderSwap;
+		}
+		return order;
+	}
+
+	/**
+	 * @param value double key
+	 * @return long key of the same order as {@link Double#compareTo(Double)}
+	 */
+	public static long sortableBits(double value) {
+		long bits = Double.doubleToLongBits(value);
+		//Negatives grow with their magnitude, reversed
+		return bits<0?bits^Long.MAX_VALUE:bits;
+	}
+}
@@ -1,24 +1,55 @@
 package com.ob1tech.CsvFileSorter.controllers;
 
-import java.io.BufferedReader;
-import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.ob1tech.CsvFileSorter.aggregate.Aggregation;
 import com.ob1tech.CsvFileSorter.dateModel.IndexNode;
 import com.ob1tech.CsvFileSorter.dateModel.RecordBatchNode;
 import com.ob1tech.CsvFileSorter.dateModel.RecordIndex;
+import com.ob1tech.CsvFileSorter.dateModel.SortManifest;
+import com.ob1tech.CsvFileSorter.dateModel.SparseIndex;
 import com.ob1tech.CsvFileSorter.deserializer.RecordsNodeCustomDeserializer;
+import com.ob1tech.CsvFileSorter.events.BatchLoadEvent;
+import com.ob1tech.CsvFileSorter.events.BatchSaveEvent;
+import com.ob1tech.CsvFileSorter.events.OutputWriteEvent;
+import com.ob1tech.CsvFileSorter.progress.ProgressTracker;
+import com.ob1tech.CsvFileSorter.progress.SortProgress.Phase;
+import com.ob1tech.CsvFileSorter.storage.SegmentedContainer;
+import com.ob1tech.CsvFileSorter.storage.WriteBehindStore;
+import com.ob1tech.CsvFileSorter.utils.CountingOutputStream;
+import com.ob1tech.CsvFileSorter.utils.MemoryBudget;
+import com.ob1tech.CsvFileSorter.utils.Utf8LineReader;
 import com.ob1tech.CsvFileSorter.utils.Utilities;
 
 /**
@@ -37,7 +68,7 @@ public class BatchController<T extends Comparable<T>> {
 	private IndexRecordController<T> indexRecordController;
 
 	/**
-	 * Batch file saffix
+	 * Batch container name saffix
 	 */
 	public static final String BATCH_SUFFIX = ".bch";
 
@@ -46,21 +77,89 @@ public class BatchController<T extends Comparable<T>> {
 	 */
 	private static final String SORTED_PREFIX = "sorted_";
 	
+	/**
+	 * Default max bytes of lines waiting for their batch while finalizing. 16MB
+	 */
+	public static final long DEFAULT_PLACEMENT_BYTES = 1l<<24;
+	
 	/**
 	 * The actual file path we work on
 	 */
 	private Path dataFile;
+	
+	/**
+	 * All batches are packed in one segmented container instead of a file per batch
+	 * @see SegmentedContainer
+	 */
+	private SegmentedContainer batchContainer;
+	/**
+	 * Batches are written to the container behind the reading and indexing threads
+	 * @see WriteBehindStore
+	 */
+	private WriteBehindStore batchStore;
 	/**
 	 * This Map stores row to batch mappping, for a fast rereading of the file at the end
 	 * of sorting. 
 	 * @see finalizeBatchController
 	 */
 	private Map<Long, Long> recordToBatchMap;
+	/**
+	 * Client given destination of the sorted records, null for the sorted file
+	 */
+	private OutputStream output;
+	/**
+	 * Optional distinct mode, null writes all the records
+	 */
+	private DistinctPolicy distinct;
+	/**
+	 * Optional per key aggregation, written instead of the sorted records
+	 */
+	private Aggregation aggregation;
+	/**
+	 * Optional sparse index of the sorted file, sampled while it is written
+	 */
+	private SparseIndex sparseIndex;
+	/**
+	 * Progress of placing the records and writing the sorted file
+	 */
+	private ProgressTracker progressTracker = new ProgressTracker();
 	/**
 	 * Header place holder, if head is present at the given file
 	 */
 	private String header;
 	
+	/**
+	 * Number of batches read ahead while the sorted file is written
+	 * @see BatchPrefetcher
+	 */
+	private int prefetchDepth = BatchPrefetcher.DEFAULT_DEPTH;
+	/**
+	 * Max bytes of read lines waiting for their batch while finalizing
+	 * @see #finalizeBatchController(Path, long, boolean)
+	 */
+	private long placementBytes = DEFAULT_PLACEMENT_BYTES;
+	
+	/**
+	 * [offset, length] of the batches in the sorted file, by batch id
+	 */
+	private Map<Long, long[]> outputRanges = new LinkedHashMap<Long, long[]>();
+	
+	/**
+	 * Batch ranges of the previous sorted file, set when appending
+	 * @see #reopen(SortManifest)
+	 */
+	private Map<Long, long[]> previousRanges;
+	
+	/**
+	 * Batches saved since reopened, their previous range is out of date
+	 */
+	private Set<Long> dirtyBatches;
+	
+	/**
+	 * The previous sorted file while it is copied from
+	 */
+	private FileChannel previousOutput;
+	
 	/**
 	 * Count the incomming batches
 	 */
@@ -71,6 +170,12 @@ public class BatchController<T extends Comparable<T>> {
 	 */
 	private ObjectMapper objectMapper = null;
 	
+	/**
+	 * Cached json reader and writer of {@link RecordBatchNode}
+	 */
+	private ObjectReader batchReader = null;
+	private ObjectWriter batchWriter = null;
+	
 	/**
 	 * Json Deserializer - configures how is the text is decoded to object
 	 * @see RecordsNodeCustomDeserializer implementation
@@ -92,6 +197,20 @@ public class BatchController<T extends Comparable<T>> {
 	 */
 	public BatchController(Path dataFile, int batchSize, 
 			String keyType, Map<Long, Long> recordToBatchMap) {
+		this(dataFile, batchSize, keyType, recordToBatchMap, false);
+	}
+
+	/**
+	 * Constractor: Initialize BatchController instance.
+	 * @param dataFile working file
+	 * @param batchSize batch size
+	 * @param keyType Type of the key, String, Long or double
+	 * @param recordToBatchMap init the {@link #recordToBatchMap}
+	 * @param reuse reopen the batch container of a previous sort
+	 * @see #reopen(SortManifest)
+	 */
+	public BatchController(Path dataFile, int batchSize, 
+			String keyType, Map<Long, Long> recordToBatchMap, boolean reuse) {
 		this.dataFile = dataFile;
 		this.recordToBatchMap = recordToBatchMap;
 		
@@ -99,6 +218,25 @@ public class BatchController<T extends Comparable<T>> {
 		
 		batchCounter = new AtomicLong();
 		deserializer = new RecordsNodeCustomDeserializer<T>(RecordBatchNode.class, keyType);
+		batchContainer = initBatchContainer(dataFile, reuse);
+		batchStore = new WriteBehindStore(batchContainer, dataFile.getFileName().toString().concat(BATCH_SUFFIX));
+	}
+
+	/**
+	 * Open a batch container next to the working file
+	 * @param dataFile working file
+	 * @param reuse reopen the container of a previous sort, otherwise a fresh one
+	 * @return batch container
+	 */
+	protected SegmentedContainer initBatchContainer(Path dataFile, boolean reuse) {
+		try {
+			return new SegmentedContainer(dataFile.getParent(), 
+					dataFile.getFileName().toString().concat(BATCH_SUFFIX),
+					SegmentedContainer.DEFAULT_SEGMENT_SIZE, reuse);
+		} catch (IOException e) {
+			logger.error("Error opening batch container of "+dataFile.getFileName(), e);
+			throw new UncheckedIOException(e);
+		}
 	}
 
 	/**
@@ -129,40 +267,69 @@ public class BatchController<T extends Comparable<T>> {
 	}
 	
 	/**
-	 * Saves the object to file for persistence
-	 * @param nodeIndex batch id
-	 * @param value {@link RecordBatchNode}
-	 * @see Utilities
+	 * @return cached json reader of {@link RecordBatchNode}, streamed by the {@link RecordsNodeCustomDeserializer}
 	 */
-	protected void save(long nodeIndex, RecordBatchNode<T> value) {
-		Path filePath = getFilePath(nodeIndex);
-		ObjectMapper mapper = getObjectMapper();
-		Utilities.save(value, filePath, mapper);			
+	public ObjectReader getBatchReader() {
+		if(batchReader==null) {
+			batchReader = getObjectMapper().readerFor(RecordBatchNode.class);
+		}
+		return batchReader;
 	}
 	
 	/**
-	 * Get File path for a pacified batch id
+	 * @return cached json writer of {@link RecordBatchNode}
+	 */
+	public ObjectWriter getBatchWriter() {
+		if(batchWriter==null) {
+			batchWriter = getObjectMapper().writerFor(RecordBatchNode.class);
+		}
+		return batchWriter;
+	}
+	
+	/**
+	 * Saves the object for persistence. It is serialized by the caller and written
+	 * to the batch container by the write behind threads
 	 * @param nodeIndex batch id
-	 * @return path to relevant batch file
+	 * @param value {@link RecordBatchNode}
+	 * @see Utilities
+	 * @see WriteBehindStore
 	 */
-	private Path getFilePath(long nodeIndex) {
-		return Utilities.resolve(dataFile.getParent(), 
-				Utilities.constractFileName(dataFile, nodeIndex, BATCH_SUFFIX));
+	protected void save(long nodeIndex, RecordBatchNode<T> value) {
+		BatchSaveEvent event = new BatchSaveEvent();
+		event.begin();
+		if(dirtyBatches!=null) {
+			dirtyBatches.add(nodeIndex);
+		}
+		Utilities.save(value, batchStore, nodeIndex, getBatchWriter());			
+		event.end();
+		if(event.shouldCommit()) {
+			event.batchId = nodeIndex;
+			event.records = value.getRecords().size();
+			event.commit();
+		}
 	}
 	
 	/**
-	 * Gets the actual {@link RecordBatchNode} object from the file system.
-	 * Using the Object maoper
+	 * Gets the actual {@link RecordBatchNode} object from the batch container,
+	 * or from the write behind queue if it was not written yet.
+	 * Using the cached batch reader
 	 * @SuppressWarnings("unchecked")
 	 * @param nodeIndex
 	 * @return
-	 * @see #getObjectMapper()
+	 * @see #getBatchReader()
 	 * @see Utilities
 	 */
 	protected RecordBatchNode<T> getValueOf(long nodeIndex) {
-		Path filePath = getFilePath(nodeIndex);
-		ObjectMapper mapper = getObjectMapper();
-		return (RecordBatchNode<T>) Utilities.getValueOf(filePath, mapper , RecordBatchNode.class);
+		BatchLoadEvent event = new BatchLoadEvent();
+		event.begin();
+		RecordBatchNode<T> batch = (RecordBatchNode<T>) Utilities.getValueOf(batchStore, nodeIndex, getBatchReader());
+		event.end();
+		if(event.shouldCommit()) {
+			event.batchId = nodeIndex;
+			event.records = batch==null?0:batch.getRecords().size();
+			event.commit();
+		}
+		return batch;
 	}
 	
 	/**
@@ -190,96 +357,495 @@ public class BatchController<T extends Comparable<T>> {
 	 * @param skipHeader indicator of a header in the file
 	 */
 	public void finalizeBatchController(boolean skipHeader) {
+		finalizeBatchController(dataFile, 0, skipHeader);
+	}
+
+	/**
+	 * Finalize batches, by reading the records file again and placing the right record at the right batch.
+	 * Records are placed as their UTF-8 bytes, not decoded
+	 * @param recordsFile the file the records were read from
+	 * @param firstLineNumber line number before the first record of the file
+	 * @param skipHeader indicator of a header in the file
+	 * @throws UncheckedIOException when the records file can not be read
+	 */
+	public void finalizeBatchController(Path recordsFile, long firstLineNumber, boolean skipHeader) {
 		long time = System.currentTimeMillis();
 		logger.info("Reading file and saving lines to batches...");
-		BufferedReader reader;
+		Utf8LineReader reader;
 		try {
-			reader = Files.newBufferedReader(dataFile);
-			String record = reader.readLine();
+			progressTracker.start(Phase.FINALIZE, -1, Files.size(recordsFile));
+			reader = new Utf8LineReader(recordsFile);
+			byte[] record = reader.readLine();
 			if(record!=null && skipHeader) {
-				header = record;
+				//An appended file keeps the sorted file header
+				if(header==null) {
+					header = new String(record, StandardCharsets.UTF_8);
+				}
 				record = reader.readLine();
 			}
-			long lineNumber = 0;
+			if(aggregation!=null && aggregation.isPreAggregate()) {
+				//Batches hold the partial states, no line to place
+				reader.close();
+				logger.info("Records were pre aggregated");
+				return;
+			}
+			long lineNumber = firstLineNumber;
+			//Lines left to read of each batch
+			Map<Long, Integer> unread = new HashMap<Long, Integer>();
+			for(Map.Entry<Long, Long> entry : recordToBatchMap.entrySet()) {
+				if(entry.getKey()>firstLineNumber) {
+					unread.merge(entry.getValue(), 1, Integer::sum);
+				}
+			}
+			//Lines waiting for their batch, by batch id and line number
+			Map<Long, Map<Long, byte[]>> waiting = new HashMap<Long, Map<Long, byte[]>>();
+			long waitingBytes = 0;
 			while(record!=null) {
 				lineNumber++;
+				progressTracker.update(lineNumber-firstLineNumber, reader.getCount());
 				//get the relevant batch file id
 				Long batchId = recordToBatchMap.get(lineNumber);
-				//Get actual RecordBatchNode
-				RecordBatchNode<T> batchNode = getValueOf(batchId);
-				final long lineNum = lineNumber;
-				//Get from within the batch the right record index
-				RecordIndex<T> recordIndex = batchNode.getRecords().stream().filter(entry ->
-					entry.getRecordLine()==lineNum).findAny().get();
-				//Set the actual line
-				recordIndex.setRecord(record);
-				//Re save
-				save(batchId, batchNode);
+				if(batchId==null) {
+					//Dropped as a duplicate
+					record = reader.readLine();
+					continue;
+				}
+				waiting.computeIfAbsent(batchId, id -> new HashMap<Long, byte[]>()).put(lineNumber, record);
+				waitingBytes += MemoryBudget.estimateLineSize(record);
+				if(unread.merge(batchId, -1, Integer::sum)==0) {
+					//All the batch lines were read, it is loaded and saved once
+					waitingBytes -= placeLines(batchId, waiting.remove(batchId));
+				}else if(waitingBytes>=placementBytes) {
+					placeWaitingLines(waiting);
+					waitingBytes = 0;
+				}
 				//read next recourd
 				record = reader.readLine();
 			}
+			placeWaitingLines(waiting);
+			reader.close();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.error("Error placing the lines of "+recordsFile.getFileName()+" in their batches", e);
+			throw new UncheckedIOException(e);
 		}
 		logger.info("End reading file and saving lines to batches..."+(System.currentTimeMillis()-time)+" msc");
 		
 	}
 
+	/**
+	 * Place the waiting lines of every batch, each batch is loaded and saved once
+	 * @param waiting lines by batch id and line number, cleared
+	 */
+	private void placeWaitingLines(Map<Long, Map<Long, byte[]>> waiting) {
+		for(Map.Entry<Long, Map<Long, byte[]>> entry : waiting.entrySet()) {
+			placeLines(entry.getKey(), entry.getValue());
+		}
+		waiting.clear();
+	}
+
+	/**
+	 * Set the read lines as the records of their batch and re save it
+	 * @param batchId batch id
+	 * @param lines lines of the batch, by line number
+	 * @return estimated size of the placed lines
+	 * @see MemoryBudget#estimateLineSize(byte[])
+	 */
+	private long placeLines(long batchId, Map<Long, byte[]> lines) {
+		RecordBatchNode<T> batchNode = getValueOf(batchId);
+		long bytes = 0;
+		for(RecordIndex<T> recordIndex : batchNode.getRecords()) {
+			byte[] line = lines.get(recordIndex.getRecordLine());
+			if(line!=null) {
+				//Set the actual line
+				recordIndex.setRecordBytes(line);
+				bytes += MemoryBudget.estimateLineSize(line);
+			}
+		}
+		save(batchId, batchNode);
+		return bytes;
+	}
+
 	/**
 	 * This method will iterate throw the index records
-	 * and compose the sorted version of the file
-	 * @SuppressWarnings({ "unchecked", "rawtypes" })
+	 * and compose the sorted version of the file.
+	 * Records are written to the client given output, if set, otherwise to the sorted file
+	 * @throws UncheckedIOException when the records can not be written
+	 * @see #setOutput(OutputStream)
+	 * @see #getSortedFilePath()
 	 */
 	public void writeSortedFile() {
 		long time = System.currentTimeMillis();
 		logger.info("Start write sorted file...");
-		//Prepare sorted file name
-		String fileName = SORTED_PREFIX+dataFile.getFileName().toString();
-		Path sortedFile = Utilities.resolve(dataFile.getParent(), fileName);
-		FileOutputStream fop = null;
+		//Appended sorts copy batches without reading their records
+		progressTracker.start(Phase.WRITE, previousRanges==null && !recordToBatchMap.isEmpty()
+				?recordToBatchMap.size():-1, -1);
+		OutputStream fop = null;
 		try {
-			//Clear history
-			Files.deleteIfExists(sortedFile);
-			Files.createFile(sortedFile);
-			//write header to new file
-			fop = new FileOutputStream(sortedFile.toFile(),true);
-		    if(header!=null) {
-		    	fop.write(header.getBytes());
-		    	fop.write(System.getProperty("line.separator").getBytes());
-		    }
-		    //Iterate on index files
-			Iterator iterator = indexRecordController.iterator();
+			if(output!=null) {
+				fop = new BufferedOutputStream(output);
+			}else {
+				//Prepare sorted file name
+				Path sortedFile = aggregation!=null?getAggregatedFilePath():getSortedFilePath();
+				if(previousRanges!=null) {
+					//Ranges of the previous sorted file are copied, so it is replaced at the end
+					writeAppendedFile(sortedFile);
+					return;
+				}
+				//Clear history
+				Files.deleteIfExists(sortedFile);
+				fop = new BufferedOutputStream(Files.newOutputStream(sortedFile));
+			}
+			writeSortedRecords(fop);
+			fop.flush();
+		} catch (IOException e) {
+			logger.error("Error writing the sorted records of "+dataFile.getFileName(), e);
+			throw new UncheckedIOException(e);
+		}finally {
+			//Close file, a client given output is only flushed
+			if(fop!=null && output==null) {
+			    try {
+			    	fop.close();
+				} catch (IOException e) {
+					logger.error("Error closing the sorted file of "+dataFile.getFileName(), e);
+				}
+			}
+		}
+		logger.info("Done write sorted file! "+(System.currentTimeMillis()-time)+" msc");
+	}
+
+	/**
+	 * Write the sorted file of an append next to the previous one and replace it.
+	 * Batches that were not changed are copied from the previous sorted file.
+	 * @param sortedFile the sorted file path
+	 * @throws IOException
+	 */
+	private void writeAppendedFile(Path sortedFile) throws IOException {
+		Path appendedFile = sortedFile.resolveSibling(sortedFile.getFileName()+".tmp");
+		try (FileChannel previous = FileChannel.open(sortedFile);
+				OutputStream fop = new BufferedOutputStream(Files.newOutputStream(appendedFile))) {
+			previousOutput = previous;
+			writeSortedRecords(fop);
+		} finally {
+			previousOutput = null;
+		}
+		Files.move(appendedFile, sortedFile, StandardCopyOption.REPLACE_EXISTING);
+		logger.info("Rewrote "+dirtyBatches.size()+" batches, copied "
+				+(outputRanges.size()-dirtyBatches.size())+" batches");
+	}
+
+	/**
+	 * Copy an unchanged batch from the previous sorted file
+	 * @param batchId batch id
+	 * @param out destination
+	 * @return true if copied, false if the batch should be written
+	 * @throws IOException
+	 */
+	private boolean copyUnchangedBatch(long batchId, CountingOutputStream out) throws IOException {
+		if(!isUnchanged(batchId)) {
+			return false;
+		}
+		long[] range = previousRanges.get(batchId);
+		long start = out.getCount();
+		WritableByteChannel target = Channels.newChannel(out);
+		long position = range[0];
+		long end = range[0]+range[1];
+		while(position<end) {
+			position += previousOutput.transferTo(position, end-position, target);
+		}
+		outputRanges.put(batchId, new long[] {start, range[1]});
+		return true;
+	}
+
+	/**
+	 * Write the header and the records in the index tree order
+	 * @param fop destination
+	 * @throws IOException
+	 * @see BatchPrefetcher
+	 */
+	protected void writeSortedRecords(OutputStream fop) throws IOException {
+		if(aggregation!=null) {
+			writeAggregatedRecords(fop);
+			return;
+		}
+		byte[] lineSeparator = System.getProperty("line.separator").getBytes();
+		CountingOutputStream out = new CountingOutputStream(fop);
+		fop = out;
+		outputRanges.clear();
+		//write header to new file
+	    if(header!=null) {
+	    	fop.write(header.getBytes(StandardCharsets.UTF_8));
+	    	fop.write(lineSeparator);
+	    }
+	    boolean sampled = sparseIndex!=null && distinct==null;
+	    if(sampled) {
+	    	sparseIndex.setDataOffset(out.getCount());
+	    }
+	    //Records of an equal key may span batches
+	    DistinctWriter distinctWriter = distinct==null?null:new DistinctWriter(fop, lineSeparator);
+	    long rows = 0;
+		//Iterate on index files, the next batches are read ahead
+		try (BatchPrefetcher<T> iterator = prefetch(indexNode -> distinct!=null || !isUnchanged(indexNode.getId()))) {
 			while(iterator.hasNext()) {
 				//Get sorted index file
-				IndexNode<T> indexNode = (IndexNode<T>) iterator.next();
+				IndexNode<T> indexNode = iterator.next();
+				long start = out.getCount();
+				OutputWriteEvent event = new OutputWriteEvent();
+				event.begin();
+				if(distinct==null && copyUnchangedBatch(indexNode.getId(), out)) {
+					if(sampled) {
+						//Its records are not read, the batch min key starts it
+						sparseIndex.mark(indexNode.getKey().getMinValue(), start);
+					}
+					progressTracker.update(rows, out.getCount());
+					commit(event, indexNode.getId(), 0, out.getCount()-start, true);
+					continue;
+				}
 				//Get sorrted RecordBatchNodes
-				RecordBatchNode<T> batchNode = getValueOf(indexNode.getId());
+				RecordBatchNode<T> batchNode = iterator.getBatch();
 				//Iterate on records
 				Iterator<RecordIndex<T>> recordsNodeiterator = batchNode.getRecords().iterator();
 				//write to sorted file
 				while(recordsNodeiterator.hasNext()) {
-					fop.write(recordsNodeiterator.next().getRecord().getBytes());
-					fop.write(System.getProperty("line.separator").getBytes());
+					RecordIndex<T> record = recordsNodeiterator.next();
+					if(distinct==null) {
+						if(sampled) {
+							sparseIndex.sample(record.getKey(), out.getCount());
+						}
+						fop.write(record.getRecordBytes());
+						fop.write(lineSeparator);
+						continue;
+					}
+					distinctWriter.add(record);
+				}
+				if(distinct==null) {
+					outputRanges.put(indexNode.getId(), new long[] {start, out.getCount()-start});
 				}
+				rows += batchNode.getRecords().size();
+				progressTracker.update(rows, out.getCount());
+				commit(event, indexNode.getId(), batchNode.getRecords().size(), out.getCount()-start, false);
 			}
-	    
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}finally {
-			//Close file
-			if(fop!=null) {
-			    try {
-			    	fop.flush();
-					fop.close();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+		}
+		if(distinctWriter!=null) {
+			distinctWriter.endGroup();
+		}
+	}
+
+	/**
+	 * Commit the write of a batch, if recorded
+	 */
+	private static void commit(OutputWriteEvent event, long batchId, int records, long bytes, boolean copied) {
+		event.end();
+		if(event.shouldCommit()) {
+			event.batchId = batchId;
+			event.records = records;
+			event.bytes = bytes;
+			event.copied = copied;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Aggregate the records in the index tree order, one pass, one key at a time
+	 * @param fop destination
+	 * @throws IOException
+	 * @see Aggregation
+	 */
+	protected void writeAggregatedRecords(OutputStream fop) throws IOException {
+		CountingOutputStream out = new CountingOutputStream(fop);
+		aggregation.begin(out, header);
+		long rows = 0;
+		try (BatchPrefetcher<T> iterator = prefetch(indexNode -> true)) {
+			while(iterator.hasNext()) {
+				iterator.next();
+				List<RecordIndex<T>> records = iterator.getBatch().getRecords();
+				for(RecordIndex<T> record : records) {
+					aggregation.add(record.getKey(), record.getRecord());
 				}
+				rows += records.size();
+				progressTracker.update(rows, out.getCount());
 			}
 		}
-		logger.info("Done write sorted file! "+(System.currentTimeMillis()-time)+" msc");
+		aggregation.end();
+	}
+
+	/**
+	 * Walk the index tree in order, reading the batches ahead
+	 * @param read nodes whose batch is written, others are only walked
+	 * @return in order iterator of the index nodes
+	 * @see BatchPrefetcher
+	 */
+	@SuppressWarnings("unchecked")
+	private BatchPrefetcher<T> prefetch(Predicate<IndexNode<T>> read) {
+		return new BatchPrefetcher<T>(indexRecordController.iterator(), this::getValueOf, read, prefetchDepth);
+	}
+
+	/**
+	 * @param batchId batch id
+	 * @return true if the batch is copied from the previous sorted file
+	 * @see #copyUnchangedBatch(long, CountingOutputStream)
+	 */
+	private boolean isUnchanged(long batchId) {
+		return previousOutput!=null && !dirtyBatches.contains(batchId) && previousRanges.containsKey(batchId);
+	}
+
+	/**
+	 * @return the sorted file path, next to the working file
+	 */
+	public Path getSortedFilePath() {
+		return getSortedFilePath(dataFile);
+	}
+
+	/**
+	 * @param dataFile the working file
+	 * @return the sorted file path, next to the working file
+	 */
+	public static Path getSortedFilePath(Path dataFile) {
+		String fileName = SORTED_PREFIX+dataFile.getFileName().toString();
+		return Utilities.resolve(dataFile.getParent(), fileName);
+	}
+
+	/**
+	 * @param dataFile the working file
+	 * @return the sparse index file path, next to the sorted file
+	 */
+	public static Path getSparseIndexFilePath(Path dataFile) {
+		Path sortedFile = getSortedFilePath(dataFile);
+		return sortedFile.resolveSibling(sortedFile.getFileName()+SparseIndex.INDEX_SUFFIX);
+	}
+
+	/**
+	 * Sample the sorted file keys while it is written
+	 * @param sparseIndex the index to fill, null for none
+	 * @see SparseIndex
+	 */
+	public void setSparseIndex(SparseIndex sparseIndex) {
+		this.sparseIndex = sparseIndex;
+	}
+
+	public ProgressTracker getProgressTracker() {
+		return progressTracker;
+	}
+
+	/**
+	 * @param progressTracker publishes the progress of placing the records and writing the sorted file
+	 */
+	public void setProgressTracker(ProgressTracker progressTracker) {
+		this.progressTracker = progressTracker;
+	}
+
+	/**
+	 * @param placementBytes max bytes of read lines waiting for their batch while finalizing.
+	 * Waiting lines are placed together, so a batch is loaded once for all of them
+	 */
+	public void setPlacementBytes(long placementBytes) {
+		this.placementBytes = placementBytes;
+	}
+
+	/**
+	 * @param writeBehindBytes max bytes of the batches queued to be written, a save waits beyond it
+	 * @see WriteBehindStore#setMaxPendingBytes(long)
+	 */
+	public void setWriteBehindBytes(long writeBehindBytes) {
+		batchStore.setMaxPendingBytes(writeBehindBytes);
+	}
+
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	/**
+	 * @param prefetchDepth number of batches read ahead while the sorted file is written, 0 reads on demand
+	 */
+	public void setPrefetchDepth(int prefetchDepth) {
+		this.prefetchDepth = prefetchDepth;
+	}
+
+	/**
+	 * Write the sorted records to a client given output instead of the sorted file.
+	 * The output is flushed but not closed.
+	 * @param output destination of the sorted records
+	 */
+	public void setOutput(OutputStream output) {
+		this.output = output;
+	}
+
+	/**
+	 * @return the aggregation result file path, next to the working file
+	 */
+	public Path getAggregatedFilePath() {
+		String fileName = Aggregation.AGGREGATED_PREFIX+dataFile.getFileName().toString();
+		return Utilities.resolve(dataFile.getParent(), fileName);
+	}
+
+	/**
+	 * Write per key aggregates instead of the sorted records
+	 * @param aggregation the aggregation, null writes the sorted records
+	 */
+	public void setAggregation(Aggregation aggregation) {
+		this.aggregation = aggregation;
+	}
+
+	/**
+	 * Continue the sort persisted by a previous run: the index tree, the batch counter and the header.
+	 * The batch container should be reopened as well.
+	 * When the previous sorted file is unchanged its batch ranges are reused.
+	 * @param manifest the previous sort state
+	 * @see #BatchController(Path, int, String, Map, boolean)
+	 */
+	public void reopen(SortManifest manifest) {
+		indexRecordController.reopen(manifest.getTreeSize());
+		batchCounter.set(manifest.getTreeSize());
+		header = manifest.getHeader();
+		dirtyBatches = ConcurrentHashMap.newKeySet();
+		try {
+			Path sortedFile = getSortedFilePath();
+			if(Files.isRegularFile(sortedFile) && Files.size(sortedFile)==manifest.getSortedFileSize()) {
+				previousRanges = manifest.getOutputRanges();
+			}else {
+				logger.info("Sorted file was changed, it will be rewritten");
+			}
+		} catch (IOException e) {
+			logger.error("Error reading "+getSortedFilePath().getFileName(), e);
+		}
+	}
+
+	/**
+	 * @return [offset, length] of the batches in the last written sorted file, by batch id
+	 */
+	public Map<Long, long[]> getOutputRanges() {
+		return outputRanges;
+	}
+
+	public String getHeader() {
+		return header;
+	}
+
+	/**
+	 * Write only distinct records
+	 * @param distinct the distinct policy, null writes all the records
+	 */
+	public void setDistinct(DistinctPolicy distinct) {
+		this.distinct = distinct;
+	}
+
+	/**
+	 * Write the queued batches and index nodes and close the batch container,
+	 * its offset table is written for later reuse
+	 * @see WriteBehindStore#close()
+	 * @see SegmentedContainer#close()
+	 */
+	public void close() {
+		indexRecordController.close();
+		try {
+			batchStore.close();
+		} catch (IOException e) {
+			logger.error("Error writing batches of "+dataFile.getFileName(), e);
+		}
+		try {
+			batchContainer.close();
+		} catch (IOException e) {
+			logger.error("Error closing batch container of "+dataFile.getFileName(), e);
+		}
 	}
 
 	/**
@@ -316,4 +882,76 @@ public class BatchController<T extends Comparable<T>> {
 		this.indexRecordController = indexRecordController;
 	}
 	
+	/**
+	 * <pre>
+	 * Writes the records of each key by the distinct policy, one record at a time.
+	 * Records of an equal key come in a row, in line order.
+	 * FIRST/LAST keep one candidate record of the key.
+	 * ROW writes a record unless an identical one of the key was written. Only digests of the
+	 * written records are kept, 16 bytes however wide the record.
+	 * </pre>
+	 * @see DistinctPolicy
+	 */
+	private class DistinctWriter {
+		private final OutputStream fop;
+		private final byte[] lineSeparator;
+		private final MessageDigest digest;
+		private T key;
+		private RecordIndex<T> candidate;
+		/**
+		 * Digests of the written records of the key, wrapped bytes are equal by their content
+		 */
+		private final Set<ByteBuffer> written = new HashSet<ByteBuffer>();
+
+		private DistinctWriter(OutputStream fop, byte[] lineSeparator) {
+			this.fop = fop;
+			this.lineSeparator = lineSeparator;
+			try {
+				this.digest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				//Every java platform has MD5
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private void add(RecordIndex<T> record) throws IOException {
+			if(key==null || key.compareTo(record.getKey())!=0) {
+				endGroup();
+				key = record.getKey();
+			}
+			switch(distinct) {
+			case FIRST:
+				if(candidate==null || record.getRecordLine()<candidate.getRecordLine()) {
+					candidate = record;
+				}
+				break;
+			case LAST:
+				if(candidate==null || record.getRecordLine()>candidate.getRecordLine()) {
+					candidate = record;
+				}
+				break;
+			default:
+				if(written.add(ByteBuffer.wrap(digest.digest(record.getRecordBytes())))) {
+					write(record);
+				}
+				break;
+			}
+		}
+
+		/**
+		 * Write the candidate of the key, if any, and forget the key
+		 */
+		private void endGroup() throws IOException {
+			if(candidate!=null) {
+				write(candidate);
+				candidate = null;
+			}
+			written.clear();
+		}
+
+		private void write(RecordIndex<T> record) throws IOException {
+			fop.write(record.getRecordBytes());
+			fop.write(lineSeparator);
+		}
+	}
 }
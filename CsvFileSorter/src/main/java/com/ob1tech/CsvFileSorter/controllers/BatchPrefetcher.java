@@ -0,0 +1,162 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+
+import com.ob1tech.CsvFileSorter.dateModel.IndexNode;
+import com.ob1tech.CsvFileSorter.dateModel.RecordBatchNode;
+import com.ob1tech.CsvFileSorter.utils.Utilities;
+
+/**
+ * <pre>
+ * BatchPrefetcher walks the index nodes in order and reads the batches of the next nodes ahead,
+ * on background threads, while the batch of the current node is written.
+ * At most {@link #depth} nodes are read ahead, so memory is bounded by depth+1 batches.
+ *
+ * Nodes are walked on the calling thread only, the loaders read batches.
+ * A depth of 0 reads every batch when it is asked for.
+ * </pre>
+ * @param <T> the type of the record key
+ * @see BatchController#writeSortedRecords(java.io.OutputStream)
+ */
+public class BatchPrefetcher<T extends Comparable<T>> implements Iterator<IndexNode<T>>, Closeable {
+
+	/**
+	 * Default number of batches read ahead without a memory budget. 4
+	 * @see com.ob1tech.CsvFileSorter.utils.MemoryBudget#getPrefetchBatches()
+	 */
+	public static final int DEFAULT_DEPTH = 4;
+
+	private final Iterator<IndexNode<T>> nodes;
+	private final LongFunction<RecordBatchNode<T>> loader;
+	private final Predicate<IndexNode<T>> read;
+	private final int depth;
+
+	/**
+	 * Nodes read ahead and their batches, a null batch is not read
+	 */
+	private final Deque<Ahead<T>> ahead = new ArrayDeque<Ahead<T>>();
+
+	/**
+	 * Batch of the node last returned
+	 */
+	private Future<RecordBatchNode<T>> current;
+
+	/**
+	 * Loader threads, null until needed
+	 */
+	private Utilities loaders;
+
+	/**
+	 * Constructor:
+	 * @param nodes index nodes in order
+	 * @param loader reads the batch of a node id, safe to call from other threads
+	 * @param read nodes whose batch should be read, others are only walked
+	 * @param depth number of batches read ahead
+	 */
+	public BatchPrefetcher(Iterator<IndexNode<T>> nodes, LongFunction<RecordBatchNode<T>> loader,
+			Predicate<IndexNode<T>> read, int depth) {
+		this.nodes = nodes;
+		this.loader = loader;
+		this.read = read;
+		this.depth = Math.max(depth, 0);
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !ahead.isEmpty() || nodes.hasNext();
+	}
+
+	/**
+	 * @return the next index node, its batch is at {@link #getBatch()}
+	 */
+	@Override
+	public IndexNode<T> next() {
+		//The next node and depth nodes after it, read while the next batch is written
+		fill(depth+1);
+		if(ahead.isEmpty()) {
+			throw new NoSuchElementException();
+		}
+		Ahead<T> entry = ahead.poll();
+		current = entry.batch;
+		return entry.node;
+	}
+
+	/**
+	 * Wait for the batch of the node last returned
+	 * @return the batch, null if the node batch was not read
+	 * @throws IllegalStateException when the batch read failed
+	 */
+	public RecordBatchNode<T> getBatch() {
+		if(current==null) {
+			return null;
+		}
+		try {
+			return current.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while reading a batch", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Error reading a batch", e.getCause());
+		}
+	}
+
+	/**
+	 * Walk the nodes until the size nodes are ahead, and start reading their batches
+	 * @param size nodes to keep ahead
+	 */
+	private void fill(int size) {
+		while(ahead.size()<size && nodes.hasNext()) {
+			IndexNode<T> node = nodes.next();
+			Future<RecordBatchNode<T>> batch = null;
+			if(read.test(node)) {
+				long id = node.getId();
+				if(depth==0) {
+					batch = CompletableFuture.completedFuture(loader.apply(id));
+				}else {
+					if(loaders==null) {
+						loaders = new Utilities(Math.min(depth, Runtime.getRuntime().availableProcessors()), "batchPrefetcher");
+					}
+					batch = loaders.getThreadPool().submit(() -> loader.apply(id));
+				}
+			}
+			ahead.add(new Ahead<T>(node, batch));
+		}
+	}
+
+	/**
+	 * Stop the loaders, batches read ahead are dropped
+	 */
+	@Override
+	public void close() {
+		if(loaders!=null) {
+			loaders.getThreadPool().shutdownNow();
+			loaders = null;
+		}
+		ahead.clear();
+	}
+
+	/**
+	 * A node read ahead and its batch
+	 */
+	private static class Ahead<T extends Comparable<T>> {
+		private final IndexNode<T> node;
+		private final Future<RecordBatchNode<T>> batch;
+
+		private Ahead(IndexNode<T> node, Future<RecordBatchNode<T>> batch) {
+			this.node = node;
+			this.batch = batch;
+		}
+	}
+}
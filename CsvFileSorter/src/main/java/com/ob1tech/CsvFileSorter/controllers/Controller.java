@@ -3,29 +3,54 @@
  */
 package com.ob1tech.CsvFileSorter.controllers;
 
-import java.io.FileNotFoundException;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.Reader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.ob1tech.CsvFileSorter.aggregate.Aggregation;
+import com.ob1tech.CsvFileSorter.aggregate.Aggregation.Partial;
 import com.ob1tech.CsvFileSorter.algorithms.sort.MinIndexedBinaryHeap;
+import com.ob1tech.CsvFileSorter.algorithms.sort.RadixSort;
 import com.ob1tech.CsvFileSorter.dateModel.RecordBatchNode;
 import com.ob1tech.CsvFileSorter.dateModel.RecordIndex;
+import com.ob1tech.CsvFileSorter.dateModel.SortManifest;
+import com.ob1tech.CsvFileSorter.dateModel.SparseIndex;
+import com.ob1tech.CsvFileSorter.events.BatchReadEvent;
+import com.ob1tech.CsvFileSorter.events.BatchSortEvent;
+import com.ob1tech.CsvFileSorter.keys.EpochParser;
+import com.ob1tech.CsvFileSorter.keys.KeyParser;
+import com.ob1tech.CsvFileSorter.progress.ProgressTracker;
+import com.ob1tech.CsvFileSorter.progress.SortProgress;
+import com.ob1tech.CsvFileSorter.progress.SortProgress.Phase;
+import com.ob1tech.CsvFileSorter.progress.SortProgressListener;
+import com.ob1tech.CsvFileSorter.utils.CountingOutputStream;
+import com.ob1tech.CsvFileSorter.utils.MemoryBudget;
+import com.ob1tech.CsvFileSorter.utils.Utf8CsvParser;
+import com.ob1tech.CsvFileSorter.utils.Utf8LineReader;
+import com.ob1tech.CsvFileSorter.utils.Utilities;
 import com.opencsv.CSVParser;
 import com.opencsv.CSVParserBuilder;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
 
 /**
  * This class is the front control engine of the program. Its aim is
@@ -41,6 +66,11 @@ public class Controller<T extends Comparable<T>>{
 	 */
 	public static final int DEFAULT_BUFFER_SIZE = 5;
 	
+	/**
+	 * Default minimal batch size to sort in parallel. 65536
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1<<16;
+	
 	/**
 	 * Columns delimiter - comma
 	 */
@@ -75,11 +105,102 @@ public class Controller<T extends Comparable<T>>{
 	 * Client selected key type class name
 	 */
 	private String keyDataType;
+	
+	/**
+	 * Sort bytes of collated string keys, null for other key types
+	 * @see KeyParser
+	 */
+	private KeyParser keyParser;
+
+	/**
+	 * Epoch values of date and timestamp keys, null for other key types
+	 * @see EpochParser
+	 */
+	private EpochParser epochParser;
 
 	/**
 	 * follow line numbers
 	 */
-	private AtomicInteger nextLine;
+	private AtomicLong nextLine;
+	
+	/**
+	 * Indicator of reaching the end of the working file
+	 */
+	private boolean endOfInput;
+	
+	/**
+	 * Optional memory budget. When set batches are sized by the measured size of
+	 * their records and {@link #batchSize} is ignored
+	 * @see MemoryBudget
+	 */
+	private MemoryBudget memoryBudget;
+	
+	/**
+	 * Optional destination of the sorted records, null for the sorted file
+	 */
+	private OutputStream output;
+	
+	/**
+	 * Optional distinct mode, null keeps all the records
+	 * @see DistinctPolicy
+	 */
+	private DistinctPolicy distinct;
+	
+	/**
+	 * Optional per key aggregation
+	 * @see Aggregation
+	 */
+	private Aggregation aggregation;
+	
+	/**
+	 * Optional file of new records to merge into the previous sort of the working file
+	 * @see SortManifest
+	 */
+	private Path appendFile;
+	
+	/**
+	 * Minimal batch size to sort long and double keys by radix, smaller batches are heap sorted
+	 * @see RadixSort
+	 */
+	private int radixThreshold = RadixSort.DEFAULT_THRESHOLD;
+	
+	/**
+	 * Minimal batch size to sort in parallel, overlapped with reading the next batch
+	 * @see #submitBatch(RecordBatchNode)
+	 */
+	private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	
+	/**
+	 * Single thread sorting and indexing large batches, null until needed
+	 */
+	private Utilities batchSorter;
+	
+	/**
+	 * The batch handed to the batch sorter
+	 */
+	private Future<?> pendingBatch;
+	
+	/**
+	 * Sparse index of the sorted file, null when it is not sampled
+	 */
+	private SparseIndex sparseIndex;
+	
+	/**
+	 * Indicator of batches read as one ascending run so far, null before the first batch
+	 * @see #copySortedInput()
+	 */
+	private Boolean sortedInput;
+	
+	/**
+	 * Highest key of the batches read so far
+	 */
+	private T lastKey;
+	
+	/**
+	 * Publishes the sort progress to the listeners
+	 * @see #getProgress()
+	 */
+	private ProgressTracker progressTracker;
 	
 	/**
 	 * Batch controller instanse
@@ -99,36 +220,65 @@ public class Controller<T extends Comparable<T>>{
 	 * Will be build by the {@link ControllerBuilder}
 	 */
 	protected Controller() {
-		nextLine = new AtomicInteger();
-		recordToBatchMap = new HashMap<Long, Long>();
+		nextLine = new AtomicLong();
+		//Written by the batch sorter thread as well
+		recordToBatchMap = new ConcurrentHashMap<Long, Long>();
+		progressTracker = new ProgressTracker();
 		
 	}
 
 	/**
-	 * Start engine. reading and saving
-	 * @see CSVReader
+	 * Start engine. reading and saving.
+	 * Lines are read as UTF-8 bytes, only their key column is decoded
+	 * @throws UncheckedIOException when the file can not be read or the sorted file written
+	 * @see Utf8LineReader
 	 */
 	public void execute() {
 		time = System.currentTimeMillis();
 		logger.info( "Start reading file..." );
-        CSVReader csvReader = null;
+		Utf8LineReader reader = null;
 		try {
-			initBatchController(filePath, batchSize, keyDataType, recordToBatchMap);
+			SortManifest manifest = null;
+			if(appendFile!=null) {
+				manifest = readManifest();
+				batchController = new BatchController<T>(filePath, batchSize, keyDataType, recordToBatchMap, true);
+			}else {
+				initBatchController(filePath, batchSize, keyDataType, recordToBatchMap);
+			}
+			batchController.setOutput(output);
+			batchController.setDistinct(distinct);
+			batchController.setAggregation(aggregation);
+			batchController.setProgressTracker(progressTracker);
+			if(aggregation!=null && epochParser!=null) {
+				//Result rows show dates, not epoch values
+				aggregation.setKeyFormat(key -> epochParser.format((Long) key));
+			}
+			sparseIndex = null;
+			if(isPlainSortedFile()) {
+				sparseIndex = new SparseIndex();
+				batchController.setSparseIndex(sparseIndex);
+			}
+			applyMemoryBudget();
 			
-			Reader reader = Files.newBufferedReader(filePath);
-				    
-			CSVParser parser = new CSVParserBuilder()
-				    .withSeparator(COMMA_DELIMITER)
-				    .build();
-				 
-			csvReader = new CSVReaderBuilder(reader)
-				    .withSkipLines(skipHeader?1:0)
-				    .withCSVParser(parser)
-				    .build();
+			long batchId = 0l;
+			if(manifest!=null) {
+				//Continue the previous sort, only the new records are read
+				batchController.reopen(manifest);
+				nextLine.set(manifest.getLineCount());
+				batchId = manifest.getTreeSize();
+				logger.info("Appending "+appendFile.getFileName()+" to "+manifest.getLineCount()+" sorted records");
+			}
+			long firstLine = nextLine.get();
+			Path inputFile = appendFile!=null?appendFile:filePath;
 			
+			progressTracker.start(Phase.READ, -1, Files.size(inputFile));
+			reader = new Utf8LineReader(inputFile);
+			if(skipHeader) {
+				reader.readLine();
+			}
+			Utf8CsvParser parser = new Utf8CsvParser(createParser());
 			
 			boolean readMore = true;
-			long batchId = 0l;
 			do {
 				/*
 				 * read records
@@ -136,41 +286,100 @@ public class Controller<T extends Comparable<T>>{
 				 * update indexes heap file
 				 */
 				//Read
-				List<List<String>> records = readRecordBatch(csvReader, batchSize);
-				readMore = records.size()==batchSize;
+				BatchReadEvent readEvent = new BatchReadEvent();
+				readEvent.begin();
+				long readBytes = reader.getCount();
+				List<byte[]> records = readRecordBatch(reader, batchSize);
+				readMore = !endOfInput;
+				progressTracker.update(nextLine.get()-firstLine, reader.getCount());
+				readEvent.end();
+				if(readEvent.shouldCommit()) {
+					readEvent.batchId = batchId;
+					readEvent.records = records.size();
+					readEvent.bytes = reader.getCount()-readBytes;
+					readEvent.commit();
+				}
 				
 				if(!records.isEmpty()) {
 					//Batch and sort
-					RecordBatchNode<T> recordBatchNode = createRecordBatchNode(records, batchId++, batchSize);
+					RecordBatchNode<T> recordBatchNode = createRecordBatchNode(records, batchId++, parser);
 					
-					updateBatchController(recordBatchNode);
+					submitBatch(recordBatchNode);
 				}
 				
 			}while(readMore);
+			awaitBatch();
 			logger.info("End reading file..."+(System.currentTimeMillis()-time)+" msc");
 			
-			finalizeBatchController();
-			writeSortedFile();
+			if(isSortedInput() && appendFile==null && distinct==null && aggregation==null) {
+				copySortedInput();
+			}else if(appendFile!=null) {
+				batchController.finalizeBatchController(appendFile, firstLine, skipHeader);
+				writeSortedFile();
+			}else {
+				finalizeBatchController();
+				writeSortedFile();
+			}
 			
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.error("Error sorting "+filePath.getFileName(), e);
+			throw new UncheckedIOException(e);
 		} finally {
-			if(csvReader!=null) {
+			if(batchSorter!=null) {
+				batchSorter.getThreadPool().shutdownNow();
+				batchSorter = null;
+			}
+			if(reader!=null) {
 				try {
-					csvReader.close();
+					reader.close();
 				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					logger.error("Error closing "+filePath.getFileName(), e);
 				}
 			}
 		}
 		
 	}
 
+	/**
+	 * Sort and index a batch. A large batch is handed to the batch sorter thread,
+	 * so the next batch is read meanwhile. Batches are still indexed one at a time, in order.
+	 * @param recordBatchNode the batch read
+	 * @see #updateBatchController(RecordBatchNode)
+	 */
+	protected void submitBatch(RecordBatchNode<T> recordBatchNode) {
+		awaitBatch();
+		if(recordBatchNode.getRecords().size()<parallelThreshold) {
+			updateBatchController(recordBatchNode);
+			return;
+		}
+		if(batchSorter==null) {
+			batchSorter = new Utilities(1, "batchSorter");
+		}
+		pendingBatch = batchSorter.getThreadPool().submit(() -> updateBatchController(recordBatchNode));
+	}
+
+	/**
+	 * Wait for the batch handed to the batch sorter, if any
+	 */
+	protected void awaitBatch() {
+		if(pendingBatch==null) {
+			return;
+		}
+		try {
+			pendingBatch.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while sorting a batch", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Error sorting a batch", e.getCause());
+		} finally {
+			pendingBatch = null;
+		}
+	}
+
 	/**
 	 * Initialize a new batchController
 	 * @param filePath
@@ -182,11 +391,166 @@ public class Controller<T extends Comparable<T>>{
 		batchController = new BatchController<T>(filePath, batchSize, keyDataType, recordToBatchMap);
 	}
 
+	/**
+	 * @return the manifest file of the working file sort
+	 */
+	public Path getManifestFilePath() {
+		return Utilities.resolve(filePath.getParent(), 
+				filePath.getFileName().toString().concat(SortManifest.MANIFEST_SUFFIX));
+	}
+
+	/**
+	 * Read the state of the previous sort, it must be of the same key
+	 * @return the previous sort manifest
+	 * @throws IllegalStateException when the working file was not sorted before, or by another key
+	 */
+	private SortManifest readManifest() {
+		Path manifestFile = getManifestFilePath();
+		if(!Files.isRegularFile(manifestFile)) {
+			throw new IllegalStateException(filePath.getFileName()+" has no previous sort to append to");
+		}
+		SortManifest manifest = (SortManifest) Utilities.getValueOf(manifestFile, Utilities.readerFor(SortManifest.class));
+		if(manifest==null || !keyDataType.equals(manifest.getKeyDataType()) || keyIndex!=manifest.getKeyIndex()) {
+			throw new IllegalStateException(filePath.getFileName()+" was sorted by another key");
+		}
+		return manifest;
+	}
+
+	/**
+	 * Save the state of a plain sort of the sorted file, so new records can be appended to it.
+	 * Other sorts remove the manifest
+	 * @throws IOException
+	 */
+	private void saveManifest() throws IOException {
+		Path manifestFile = getManifestFilePath();
+		if(!isPlainSortedFile()) {
+			Files.deleteIfExists(manifestFile);
+			return;
+		}
+		SortManifest manifest = new SortManifest();
+		manifest.setKeyDataType(keyDataType);
+		manifest.setKeyIndex(keyIndex);
+		manifest.setHeader(batchController.getHeader());
+		manifest.setTreeSize(batchController.getIndexRecordController().size());
+		manifest.setLineCount(nextLine.get());
+		manifest.setSortedFileSize(Files.size(batchController.getSortedFilePath()));
+		manifest.setOutputRanges(batchController.getOutputRanges());
+		Utilities.save(manifest, manifestFile, Utilities.writerFor(SortManifest.class));
+	}
+
+	/**
+	 * Save the sparse index sampled while the sorted file was written.
+	 * Other sorts remove the sparse index
+	 * @param sparseIndex the sampled index, null when not sampled
+	 * @throws IOException
+	 * @see QueryController
+	 */
+	protected void saveSparseIndex(SparseIndex sparseIndex) throws IOException {
+		Path indexFile = BatchController.getSparseIndexFilePath(filePath);
+		if(sparseIndex==null) {
+			Files.deleteIfExists(indexFile);
+			return;
+		}
+		sparseIndex.setKeyDataType(keyDataType);
+		sparseIndex.setKeyIndex(keyIndex);
+		if(sparseIndex.getHeader()==null && batchController!=null) {
+			sparseIndex.setHeader(batchController.getHeader());
+		}
+		sparseIndex.setSortedFileSize(Files.size(BatchController.getSortedFilePath(filePath)));
+		Utilities.save(sparseIndex, indexFile, Utilities.writerFor(SparseIndex.class));
+		logger.info("Saved sparse index of "+sparseIndex.size()+" keys");
+	}
+
+	/**
+	 * @return true if all the sorted records are written to the sorted file
+	 */
+	protected boolean isPlainSortedFile() {
+		return output==null && distinct==null && aggregation==null;
+	}
+
+	/**
+	 * Hand the index tree, the finalize pass, the batch writes and the read ahead their share of the memory budget
+	 * @see MemoryBudget#getIndexCacheNodes()
+	 */
+	protected void applyMemoryBudget() {
+		if(memoryBudget!=null) {
+			logger.info("Memory budget "+memoryBudget+", batch of up to "+memoryBudget.getBatchBytes()
+				+" bytes, index cache of "+memoryBudget.getIndexCacheNodes()+" nodes");
+			batchController.getIndexRecordController().setMaxInMemoryNodes(memoryBudget.getIndexCacheNodes());
+			//No batch is read while finalizing, its share holds the lines waiting for their batch
+			batchController.setPlacementBytes(memoryBudget.getBatchBytes());
+			batchController.setWriteBehindBytes(memoryBudget.getWriteBehindBytes());
+			batchController.setPrefetchDepth(memoryBudget.getPrefetchBatches());
+		}
+	}
+
 	/**
 	 * Call batchController write the sorted file
+	 * @throws UncheckedIOException when the sorted file, its manifest or its index can not be written
 	 */
 	public void writeSortedFile() {
 		batchController.writeSortedFile();
+		batchController.close();
+		try {
+			saveManifest();
+			saveSparseIndex(sparseIndex);
+		} catch (IOException e) {
+			logger.error("Error saving the manifest of "+filePath.getFileName(), e);
+			throw new UncheckedIOException(e);
+		}
+		progressTracker.finish();
+		logger.info("Done sorting file! "+(System.currentTimeMillis()-time)+" msc");
+	}
+
+	/**
+	 * The records were read in order, so the sorted file is the input itself.
+	 * It is copied line by line, without placing the rows in their batches nor reading them back.
+	 * The copy has no manifest to append to.
+	 * @throws IOException
+	 */
+	protected void copySortedInput() throws IOException {
+		logger.info("Input is sorted, copying it...");
+		progressTracker.start(Phase.WRITE, nextLine.get(), Files.size(filePath));
+		batchController.close();
+		Files.deleteIfExists(getManifestFilePath());
+		OutputStream fop = openSortedOutput();
+		boolean complete = false;
+		try (Utf8LineReader reader = new Utf8LineReader(filePath)) {
+			CountingOutputStream out = new CountingOutputStream(fop);
+			byte[] lineSeparator = System.getProperty("line.separator").getBytes();
+			Utf8CsvParser parser = new Utf8CsvParser(createParser());
+			String header = null;
+			byte[] line = reader.readLine();
+			if(line!=null && skipHeader) {
+				header = new String(line, StandardCharsets.UTF_8);
+				out.write(line);
+				out.write(lineSeparator);
+				line = reader.readLine();
+			}
+			if(sparseIndex!=null) {
+				sparseIndex.setDataOffset(out.getCount());
+			}
+			long lineCount = 0;
+			while(line!=null) {
+				//Only kept keys are parsed
+				if(sparseIndex!=null && lineCount%sparseIndex.getInterval()==0) {
+					sparseIndex.mark(parseKey(parser, line), out.getCount());
+				}
+				lineCount++;
+				out.write(line);
+				out.write(lineSeparator);
+				progressTracker.update(lineCount, out.getCount());
+				line = reader.readLine();
+			}
+			if(sparseIndex!=null) {
+				sparseIndex.setHeader(header);
+			}
+			complete = true;
+		} finally {
+			closeSortedOutput(fop, complete);
+		}
+		saveSparseIndex(sparseIndex);
+		progressTracker.finish();
 		logger.info("Done sorting file! "+(System.currentTimeMillis()-time)+" msc");
 	}
 
@@ -204,7 +568,25 @@ public class Controller<T extends Comparable<T>>{
 	 */
 	protected void updateBatchController(RecordBatchNode<T> recordBatchNode) {
 		logger.info("Add batch "+recordBatchNode.getId()+" at "+(System.currentTimeMillis()-time)+" msc");
-		if(recordBatchNode.getRecords().size()>1) {
+		List<RecordIndex<T>> records = recordBatchNode.getRecords();
+		BatchSortEvent event = new BatchSortEvent();
+		event.begin();
+		String algorithm;
+		int order = runOrder(records);
+		if(order>0) {
+			algorithm = "run";
+		}else if(order<0) {
+			//A descending run is reversed, no heap
+			algorithm = "reversed";
+			Collections.reverse(records);
+		}else if(records.size()>=parallelThreshold) {
+			algorithm = "parallel";
+			parallelSort(records);
+		}else if(records.size()>=radixThreshold && isNumericKey()) {
+			algorithm = "radix";
+			radixSort(records);
+		}else {
+			algorithm = "heap";
 			//Read records in to the heap
 			MinIndexedBinaryHeap<RecordIndex<T>> recordBatchNodeSorter = new MinIndexedBinaryHeap<RecordIndex<T>>(recordBatchNode.getRecords().size());
 			for(RecordIndex<T> record:recordBatchNode.getRecords()) {
@@ -217,64 +599,348 @@ public class Controller<T extends Comparable<T>>{
 				recordBatchNode.insert(recordBatchNodeSorter.pollMinValue());
 			}
 		}
+		event.end();
+		if(event.shouldCommit()) {
+			event.batchId = recordBatchNode.getId();
+			event.records = records.size();
+			event.algorithm = algorithm;
+			event.commit();
+		}
+		followSortedInput(records, order>0);
 		//sending batch to the controller
 		batchController.insert(recordBatchNode);
 	}
 
+	/**
+	 * @return true if the keys are long, date, timestamp or double
+	 */
+	protected boolean isNumericKey() {
+		return Long.class.getTypeName().equals(keyDataType) || epochParser!=null
+				|| Double.class.getTypeName().equals(keyDataType);
+	}
+
+	/**
+	 * Sort the records by radix over their primitive keys, then move them once by the sorted order
+	 * @param records batch records, of long or double keys
+	 * @see RadixSort
+	 */
+	protected void radixSort(List<RecordIndex<T>> records) {
+		RecordIndex<T>[] values = records.toArray(RecordIndex.newArray(records.size()));
+		boolean doubleKey = Double.class.getTypeName().equals(keyDataType);
+		long[] keys = new long[values.length];
+		for(int i=0; i<values.length; i++) {
+			Number key = (Number) values[i].getKey();
+			keys[i] = doubleKey?RadixSort.sortableBits(key.doubleValue()):key.longValue();
+		}
+		int[] order = RadixSort.sort(keys);
+		//Same records, the batch min/max stay
+		records.clear();
+		for(int position : order) {
+			records.add(values[position]);
+		}
+	}
+
+	/**
+	 * Sort the records by a parallel merge sort on the common fork/join pool
+	 * @param records batch records
+	 * @see Arrays#parallelSort(Object[], java.util.Comparator)
+	 */
+	private void parallelSort(List<RecordIndex<T>> records) {
+		RecordIndex<T>[] values = records.toArray(RecordIndex.newArray(records.size()));
+		Arrays.parallelSort(values, RecordIndex::compareTo);
+		//Same records, the batch min/max stay
+		records.clear();
+		records.addAll(Arrays.asList(values));
+	}
+
+	/**
+	 * Detect a natural run, TimSort style
+	 * @param records batch records in the read order
+	 * @return 1 if ascending, -1 if strictly descending, 0 if neither
+	 */
+	protected int runOrder(List<RecordIndex<T>> records) {
+		if(records.size()<2) {
+			return 1;
+		}
+		boolean ascending = true, descending = true;
+		Iterator<RecordIndex<T>> iterator = records.iterator();
+		RecordIndex<T> previous = iterator.next();
+		while(iterator.hasNext() && (ascending || descending)) {
+			RecordIndex<T> record = iterator.next();
+			int compare = record.compareTo(previous);
+			ascending &= compare>=0;
+			descending &= compare<0;
+			previous = record;
+		}
+		return ascending?1:descending?-1:0;
+	}
+
+	/**
+	 * @return true if all the batches were read as one ascending run
+	 * @see #copySortedInput()
+	 */
+	protected boolean isSortedInput() {
+		return Boolean.TRUE.equals(sortedInput);
+	}
+
+	/**
+	 * Follow whether the batches so far are one ascending run
+	 * @param records sorted batch records
+	 * @param ascending indicator of a batch read in ascending order
+	 */
+	private void followSortedInput(List<RecordIndex<T>> records, boolean ascending) {
+		if(Boolean.FALSE.equals(sortedInput) || records.isEmpty()) {
+			return;
+		}
+		T firstKey = records.get(0).getKey();
+		sortedInput = ascending && (lastKey==null || firstKey.compareTo(lastKey)>=0);
+		lastKey = records.get(records.size()-1).getKey();
+	}
+
 	/**
 	 * Generating a new record batch.
 	 * extracting the key by its type and line number
-	 * @param records
+	 * Batches may differ in size so line numbers follow the lines read so far.
+	 * @param records UTF-8 lines
 	 * @param id
-	 * @param batchSize
+	 * @param parser columns parser
 	 * @return
+	 * @throws IOException
 	 */
-	private RecordBatchNode<T> createRecordBatchNode(List<List<String>> records, long id, int batchSize) {
-		RecordBatchNode<T> recordsNode = new RecordBatchNode<T>(id);
-		long lineNumber = id*batchSize;
-		for(List<String> record : records) {
+	private RecordBatchNode<T> createRecordBatchNode(List<byte[]> records, long id, Utf8CsvParser parser) throws IOException {
+		RecordBatchNode<T> recordsNode = new RecordBatchNode<T>(id, records.size());
+		long lineNumber = nextLine.get()-records.size();
+		if(aggregation!=null && aggregation.isPreAggregate()) {
+			return createPreAggregatedRecordBatchNode(recordsNode, records, lineNumber, parser);
+		}
+		if(distinct==DistinctPolicy.FIRST || distinct==DistinctPolicy.LAST) {
+			return createDistinctRecordBatchNode(recordsNode, records, lineNumber, parser);
+		}
+		for(byte[] record : records) {
 			recordToBatchMap.put(++lineNumber, id);
-			String keyString = record.get( keyIndex );
-			//Get kkey object by type name
-			Object key;
-			if(String.class.getTypeName().equals(keyDataType)) {
-				key = keyString;
-			}else if(Double.class.getTypeName().equals(keyDataType)) {
-				key = Double.valueOf(keyString);
-			}else if(Class.class.getTypeName().equals(keyDataType)) {
-				if(NumberUtils.isCreatable(keyString)) {
-					key = NumberUtils.createLong(keyString);
-				}else {
-					key = keyString;
-				}
+			T key = parseKey(parser, record);
+			RecordIndex<T> recordNode = new RecordIndex<T>(lineNumber, key);
+			recordsNode.insert( recordNode  );
+		}
+		return recordsNode;
+	}
+
+	/**
+	 * Generating a new record batch of one record per key.
+	 * Duplicates within the batch are dropped here, so they are never spilled nor
+	 * reread. Duplicates of different batches are dropped while writing the sorted file.
+	 * @param recordsNode new empty batch
+	 * @param records UTF-8 lines
+	 * @param lineNumber line number before the first record
+	 * @param parser columns parser
+	 * @return
+	 * @throws IOException
+	 * @see BatchController#setDistinct(DistinctPolicy)
+	 */
+	private RecordBatchNode<T> createDistinctRecordBatchNode(RecordBatchNode<T> recordsNode,
+			List<byte[]> records, long lineNumber, Utf8CsvParser parser) throws IOException {
+		Map<T, RecordIndex<T>> byKey = new LinkedHashMap<T, RecordIndex<T>>();
+		for(byte[] record : records) {
+			T key = parseKey(parser, record);
+			RecordIndex<T> recordNode = new RecordIndex<T>(++lineNumber, key);
+			RecordIndex<T> kept = byKey.get(key);
+			if(kept==null || distinct==DistinctPolicy.LAST) {
+				byKey.put(key, recordNode);
+			}
+		}
+		for(RecordIndex<T> recordNode : byKey.values()) {
+			recordToBatchMap.put(recordNode.getRecordLine(), recordsNode.getId());
+			recordsNode.insert( recordNode  );
+		}
+		return recordsNode;
+	}
+
+	/**
+	 * Generating a new record batch of one record per key, its text is the key partial
+	 * aggregate state. The records are not reread so lines are not mapped to batches.
+	 * @param recordsNode new empty batch
+	 * @param records UTF-8 lines
+	 * @param lineNumber line number before the first record
+	 * @param parser columns parser
+	 * @return
+	 * @throws IOException
+	 * @see Aggregation
+	 */
+	private RecordBatchNode<T> createPreAggregatedRecordBatchNode(RecordBatchNode<T> recordsNode,
+			List<byte[]> records, long lineNumber, Utf8CsvParser parser) throws IOException {
+		Map<T, RecordIndex<T>> byKey = new LinkedHashMap<T, RecordIndex<T>>();
+		Map<T, Partial> partials = new HashMap<T, Partial>();
+		for(byte[] record : records) {
+			//Aggregated columns are all decoded
+			List<String> columns = Arrays.asList(parser.parseLine(record));
+			T key = parseKey(columns.get( keyIndex ));
+			Partial partial = aggregation.partialOf(columns);
+			++lineNumber;
+			Partial keyPartial = partials.get(key);
+			if(keyPartial==null) {
+				partials.put(key, partial);
+				byKey.put(key, new RecordIndex<T>(lineNumber, key));
 			}else {
-				key = Long.valueOf(keyString);
+				keyPartial.merge(partial);
 			}
-			
-			@SuppressWarnings("unchecked")
-			RecordIndex<T> recordNode = new RecordIndex<T>(lineNumber, (T) key);
+		}
+		for(RecordIndex<T> recordNode : byKey.values()) {
+			recordNode.setRecord(partials.get(recordNode.getKey()).toString());
 			recordsNode.insert( recordNode  );
 		}
 		return recordsNode;
 	}
 
 	/**
-	 * Read batch of records from working file
-	 * @param csvReader
+	 * Get key object by type name
+	 * @param keyString the key column value
+	 * @return the record key
+	 */
+	@SuppressWarnings("unchecked")
+	protected T parseKey(String keyString) {
+		Object key;
+		if(String.class.getTypeName().equals(keyDataType)) {
+			key = keyString;
+		}else if(Double.class.getTypeName().equals(keyDataType)) {
+			key = Double.valueOf(keyString);
+		}else if(keyParser!=null) {
+			key = keyParser.parse(keyString);
+		}else if(epochParser!=null) {
+			key = epochParser.parse(keyString);
+		}else if(Class.class.getTypeName().equals(keyDataType)) {
+			if(NumberUtils.isCreatable(keyString)) {
+				key = NumberUtils.createLong(keyString);
+			}else {
+				key = keyString;
+			}
+		}else {
+			key = Long.valueOf(keyString);
+		}
+		return (T) key;
+	}
+
+	/**
+	 * Get the key of a UTF-8 line, only the key column is decoded.
+	 * Plain long keys are read from the bytes
+	 * @param parser columns parser
+	 * @param line UTF-8 line
+	 * @return the record key
+	 * @throws IOException when the line is not parsable
+	 */
+	@SuppressWarnings("unchecked")
+	protected T parseKey(Utf8CsvParser parser, byte[] line) throws IOException {
+		if(Long.class.getTypeName().equals(keyDataType) && parser.find(line, keyIndex)) {
+			Long key = parser.longValue(line);
+			if(key!=null) {
+				return (T) key;
+			}
+		}
+		return parseKey(parser.column(line, keyIndex));
+	}
+
+	/**
+	 * Get the key of a key text written by its toString, as kept by the sparse index.
+	 * Date and timestamp keys are written as their epoch values
+	 * @param keyText written key
+	 * @return the record key
+	 */
+	@SuppressWarnings("unchecked")
+	protected T parseKeyText(String keyText) {
+		if(epochParser!=null) {
+			return (T) Long.valueOf(keyText);
+		}
+		return parseKey(keyText);
+	}
+
+	/**
+	 * Open the sorted records destination, the client given output or a temp file
+	 * moved over the sorted file once complete
+	 * @return buffered destination
+	 * @throws IOException
+	 * @see #closeSortedOutput(OutputStream, boolean)
+	 */
+	protected OutputStream openSortedOutput() throws IOException {
+		if(output!=null) {
+			return new BufferedOutputStream(output);
+		}
+		return new BufferedOutputStream(Files.newOutputStream(getPartialSortedFilePath()));
+	}
+
+	/**
+	 * Close the sorted file, a client given output is only flushed.
+	 * A complete file replaces the sorted file, an incomplete one is deleted
+	 * so a failed sort never leaves a valid looking sorted file
+	 * @param fop destination opened by {@link #openSortedOutput()}
+	 * @param complete all the records were written
+	 * @throws IOException
+	 */
+	protected void closeSortedOutput(OutputStream fop, boolean complete) throws IOException {
+		if(output!=null) {
+			if(complete) {
+				fop.flush();
+			}
+			return;
+		}
+		Path partialFile = getPartialSortedFilePath();
+		boolean closed = false;
+		try {
+			fop.close();
+			closed = true;
+		} finally {
+			if(complete && closed) {
+				Files.move(partialFile, BatchController.getSortedFilePath(filePath),
+						StandardCopyOption.REPLACE_EXISTING);
+			}else {
+				Files.deleteIfExists(partialFile);
+			}
+		}
+	}
+
+	/**
+	 * @return the sorted file being written
+	 */
+	private Path getPartialSortedFilePath() {
+		Path sortedFile = BatchController.getSortedFilePath(filePath);
+		return sortedFile.resolveSibling(sortedFile.getFileName()+".tmp");
+	}
+
+	/**
+	 * @return a parser of the working file columns
+	 */
+	protected CSVParser createParser() {
+		return new CSVParserBuilder()
+			    .withSeparator(COMMA_DELIMITER)
+			    .build();
+	}
+
+	/**
+	 * Read batch of records from working file.
+	 * With a memory budget the batch is closed once its measured records size
+	 * reaches the budget batch share, otherwise after batchSize records.
+	 * @param reader
 	 * @param batchSize
-	 * @return list of row, separated to columns
+	 * @return list of row, UTF-8 lines
 	 * @throws IOException
+	 * @see MemoryBudget#getBatchBytes()
 	 */
-	private List<List<String>> readRecordBatch(CSVReader csvReader, int batchSize) throws IOException {
-		List<List<String>> records = new ArrayList<List<String>>();
-		String[] values = null;
-	    while ((values = csvReader.readNext()) != null) {
+	private List<byte[]> readRecordBatch(Utf8LineReader reader, int batchSize) throws IOException {
+		List<byte[]> records = new ArrayList<byte[]>();
+		long batchBytes = memoryBudget==null?0:memoryBudget.getBatchBytes();
+		long readBytes = 0;
+		byte[] record = null;
+	    while ((record = reader.readLine()) != null) {
 	    	nextLine.incrementAndGet();
-	        records.add(Arrays.asList(values));
-	        if( --batchSize == 0 ) {
+	        records.add(record);
+	        if(memoryBudget!=null) {
+	        	readBytes += MemoryBudget.estimateLineSize(record);
+	        	if(readBytes >= batchBytes && records.size() >= MemoryBudget.MIN_BATCH_SIZE) {
+	        		break;
+	        	}
+	        }else if( --batchSize == 0 ) {
 	        	break;
 	        }
 	    }
+	    endOfInput = record==null;
 		
 		return records;
 	}
@@ -307,6 +973,30 @@ public class Controller<T extends Comparable<T>>{
 		this.keyIndex = keyIndex;
 	}
 
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	public int getRadixThreshold() {
+		return radixThreshold;
+	}
+
+	public void setRadixThreshold(int radixThreshold) {
+		this.radixThreshold = radixThreshold;
+	}
+
+	public Path getAppendFile() {
+		return appendFile;
+	}
+
+	public void setAppendFile(Path appendFile) {
+		this.appendFile = appendFile;
+	}
+
 	public boolean isSkipHeader() {
 		return skipHeader;
 	}
@@ -323,9 +1013,33 @@ public class Controller<T extends Comparable<T>>{
 		this.keyType = keyType;
 	}
 
+	public String getKeyDataType() {
+		return keyDataType;
+	}
+
 	public void setKeyDataType(String keyDataType) {
 		this.keyDataType = keyDataType;
-		
+		this.keyParser = KeyParser.forDataType(keyDataType);
+		this.epochParser = EpochParser.forDataType(keyDataType);
+	}
+
+	/**
+	 * @param listener called with the sort progress snapshots
+	 */
+	public void addProgressListener(SortProgressListener listener) {
+		progressTracker.addListener(listener);
+	}
+
+	/**
+	 * Poll the progress of the running sort, from any thread
+	 * @return the last progress snapshot, null before the sort starts
+	 */
+	public SortProgress getProgress() {
+		return progressTracker.getProgress();
+	}
+
+	public ProgressTracker getProgressTracker() {
+		return progressTracker;
 	}
 
 	public BatchController<T> getBatchController() {
@@ -336,6 +1050,42 @@ public class Controller<T extends Comparable<T>>{
 		this.batchController = batchController;
 	}
 	
+	public MemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public void setMemoryBudget(MemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+	
+	public Aggregation getAggregation() {
+		return aggregation;
+	}
+
+	public void setAggregation(Aggregation aggregation) {
+		this.aggregation = aggregation;
+	}
+
+	public DistinctPolicy getDistinct() {
+		return distinct;
+	}
+
+	public void setDistinct(DistinctPolicy distinct) {
+		this.distinct = distinct;
+	}
+
+	public OutputStream getOutput() {
+		return output;
+	}
+
+	/**
+	 * Write the sorted records to the output instead of the sorted file
+	 * @param output destination of the sorted records, flushed but not closed
+	 */
+	public void setOutput(OutputStream output) {
+		this.output = output;
+	}
+	
 	public Map<Long, Long> getRecordToBatchMap() {
 		return recordToBatchMap;
 	}
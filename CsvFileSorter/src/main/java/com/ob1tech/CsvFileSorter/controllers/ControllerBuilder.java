@@ -1,7 +1,18 @@
 package com.ob1tech.CsvFileSorter.controllers;
 
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ob1tech.CsvFileSorter.aggregate.AggregateFunction;
+import com.ob1tech.CsvFileSorter.aggregate.Aggregation;
+import com.ob1tech.CsvFileSorter.keys.ByteKey;
+import com.ob1tech.CsvFileSorter.keys.EpochParser;
+import com.ob1tech.CsvFileSorter.keys.KeyParser;
+import com.ob1tech.CsvFileSorter.progress.SortProgressListener;
+import com.ob1tech.CsvFileSorter.utils.MemoryBudget;
 
 /**
  * This class builds a new controller and facilitating defaults or
@@ -17,6 +28,25 @@ public class ControllerBuilder {
 	private int keyIndex = 0;
 	private boolean skipHeader = false;
 	private String keyType = "";
+	private long memoryBudget = 0;
+	private OutputStream output = null;
+	private DistinctPolicy distinct = null;
+	private AggregateFunction aggregateFunction = null;
+	private int aggregateIndex = 0;
+	private boolean preAggregate = false;
+	private boolean merge = false;
+	private List<String> mergeFiles = new ArrayList<String>();
+	private String appendFile = null;
+	private boolean query = false;
+	private String queryFrom = null;
+	private String queryTo = null;
+	private int topK = 0;
+	private boolean topLargest = false;
+	private boolean sampleSort = false;
+	private int parts = 0;
+	private int localWorkers = 0;
+	private List<String> workerAddresses = new ArrayList<String>();
+	private List<SortProgressListener> progressListeners = new ArrayList<SortProgressListener>();
 
 	public ControllerBuilder withBatchSize(int batchSize) {
 		if(batchSize>0) {
@@ -43,26 +73,324 @@ public class ControllerBuilder {
 		return this;
 	}
 
+	/**
+	 * Size batches by a memory budget instead of a fixed record count
+	 * @param megabytes budget in MB, 0 or less keeps the fixed batch size
+	 * @see MemoryBudget
+	 */
+	public ControllerBuilder withMemoryBudget(long megabytes) {
+		if(megabytes>0) {
+			this.memoryBudget = megabytes;
+		}
+		return this;
+	}
+
+	/**
+	 * Write the sorted records to the output instead of the sorted file
+	 * @param output destination of the sorted records, flushed but not closed
+	 */
+	public ControllerBuilder withOutput(OutputStream output) {
+		this.output = output;
+		return this;
+	}
+
+	/**
+	 * Write one record per key, or identical records once
+	 * @param distinct which records of an equal key are written, null writes all
+	 * @see DistinctPolicy
+	 */
+	public ControllerBuilder withDistinct(DistinctPolicy distinct) {
+		this.distinct = distinct;
+		return this;
+	}
+
+	/**
+	 * Write a per key aggregate instead of the sorted records
+	 * @param function aggregate function, null writes the sorted records
+	 * @param valueIndex value column position, ignored by count
+	 * @param preAggregate reduce the records of a key while the batches are created
+	 * @see Aggregation
+	 */
+	public ControllerBuilder withAggregation(AggregateFunction function, int valueIndex, boolean preAggregate) {
+		this.aggregateFunction = function;
+		this.aggregateIndex = valueIndex;
+		this.preAggregate = preAggregate;
+		return this;
+	}
+
+	/**
+	 * Write only the first records of the sorted file, the file is read once through a bounded heap
+	 * @param topK number of records to write, 0 or less sorts the whole file
+	 * @param largest write the largest records, descending, instead of the smallest
+	 * @see TopKController
+	 */
+	public ControllerBuilder withTopK(int topK, boolean largest) {
+		if(topK>0) {
+			this.topK = topK;
+			this.topLargest = largest;
+		}
+		return this;
+	}
+
+	/**
+	 * Merge already sorted files, the file path is the first input
+	 * @param mergeFiles the other sorted inputs, null sorts the file path
+	 * @see MergeController
+	 */
+	public ControllerBuilder withMergeFiles(List<String> mergeFiles) {
+		if(mergeFiles!=null) {
+			this.merge = true;
+			this.mergeFiles = mergeFiles;
+		}
+		return this;
+	}
+
+	/**
+	 * Merge new records into the previous sort of the file path, only the new records are sorted
+	 * @param appendFile file of the new records, null sorts the file path
+	 * @see com.ob1tech.CsvFileSorter.dateModel.SortManifest
+	 */
+	public ControllerBuilder withAppendFile(String appendFile) {
+		this.appendFile = appendFile;
+		return this;
+	}
+
+	/**
+	 * Write the records of a key range from the sorted file, by its sparse index
+	 * @param from first key, inclusive, null for the first record
+	 * @param to last key, inclusive, null for the last record
+	 * @see QueryController
+	 */
+	public ControllerBuilder withQuery(String from, String to) {
+		this.query = true;
+		this.queryFrom = from;
+		this.queryTo = to;
+		return this;
+	}
+
+	/**
+	 * Sort by key range partitions instead of the index tree
+	 * @param parts number of partitions, 0 or less for a default per core
+	 * @see SampleSortController
+	 */
+	public ControllerBuilder withSampleSort(int parts) {
+		this.sampleSort = true;
+		this.parts = parts;
+		return this;
+	}
+
+	/**
+	 * Sort the key range partitions on worker processes
+	 * @param localWorkers number of worker processes to start on this host
+	 * @param workerAddresses running workers, host:port, null for none
+	 * @see DistributedSortController
+	 */
+	public ControllerBuilder withWorkers(int localWorkers, List<String> workerAddresses) {
+		this.localWorkers = Math.max(localWorkers, 0);
+		if(workerAddresses!=null) {
+			this.workerAddresses = workerAddresses;
+		}
+		return this;
+	}
+
+	/**
+	 * Report the sort progress, the listeners are called in the order they were added
+	 * @param listener called with the progress snapshots, null is ignored
+	 * @see com.ob1tech.CsvFileSorter.progress.ProgressTracker
+	 */
+	public ControllerBuilder withProgressListener(SortProgressListener listener) {
+		if(listener!=null) {
+			this.progressListeners.add(listener);
+		}
+		return this;
+	}
+
 	public ControllerBuilder(String filePath) {
 		this.filePath = filePath;
 	}
+
+	/**
+	 * Constructor: for streamed input the file path is set by the {@link com.ob1tech.CsvFileSorter.SortJob}
+	 */
+	public ControllerBuilder() {
+		this(null);
+	}
 	
 	public Controller<?> build() {		
-		Controller<?> controller;
+		Controller<?> controller = buildSinglePass();
+		if(controller!=null) {
+			return controller;
+		}
+		switch(getKeyKind()) {
+		case "string": controller = new Controller<String>(); break;
+		case "collated": controller = new Controller<ByteKey>(); break;
+		case "double": controller = new Controller<Double>(); break;
+		default: controller = new Controller<Long>(); break;
+		}
+		configure(controller);
+		return controller;
+	}
+	
+	/**
+	 * Modes that do without the index tree have their own controllers
+	 * @return the single pass controller, null for a full sort
+	 * @see QueryController
+	 * @see MergeController
+	 * @see TopKController
+	 * @see SampleSortController
+	 * @see DistributedSortController
+	 */
+	protected Controller<?> buildSinglePass() {
+		if(query) {
+			return buildQuery();
+		}
+		if(merge) {
+			return buildMerge();
+		}
+		if(topK>0) {
+			return buildTopK();
+		}
+		//Distinct, aggregation and append are done by the tree
+		boolean partitioned = distinct==null && aggregateFunction==null && appendFile==null;
+		if(partitioned && (localWorkers>0 || !workerAddresses.isEmpty())) {
+			return buildDistributedSort();
+		}
+		if(partitioned && sampleSort) {
+			return buildSampleSort();
+		}
+		return null;
+	}
+
+	/**
+	 * Build a key range query controller of the sorted file
+	 * @return new query controller
+	 */
+	protected Controller<?> buildQuery() {
+		QueryController<?> controller;
+		switch(getKeyKind()) {
+		case "string": controller = new QueryController<String>(); break;
+		case "collated": controller = new QueryController<ByteKey>(); break;
+		case "double": controller = new QueryController<Double>(); break;
+		default: controller = new QueryController<Long>(); break;
+		}
+		configure(controller);
+		controller.setFrom(queryFrom);
+		controller.setTo(queryTo);
+		return controller;
+	}
+
+	/**
+	 * Build a k-way merge controller of the sorted inputs
+	 * @return new merge controller
+	 */
+	protected Controller<?> buildMerge() {
+		MergeController<?> controller;
+		switch(getKeyKind()) {
+		case "string": controller = new MergeController<String>(); break;
+		case "collated": controller = new MergeController<ByteKey>(); break;
+		case "double": controller = new MergeController<Double>(); break;
+		default: controller = new MergeController<Long>(); break;
+		}
+		configure(controller);
+		List<Path> paths = new ArrayList<Path>();
+		for(String mergeFile : mergeFiles) {
+			paths.add(Paths.get(mergeFile));
+		}
+		controller.setMergeFiles(paths);
+		return controller;
+	}
+
+	/**
+	 * Build a controller of the first records only
+	 * @return new top records controller
+	 */
+	protected Controller<?> buildTopK() {
+		TopKController<?> controller;
+		switch(getKeyKind()) {
+		case "string": controller = new TopKController<String>(); break;
+		case "collated": controller = new TopKController<ByteKey>(); break;
+		case "double": controller = new TopKController<Double>(); break;
+		default: controller = new TopKController<Long>(); break;
+		}
+		configure(controller);
+		controller.setTopK(topK);
+		controller.setLargest(topLargest);
+		return controller;
+	}
+
+
+	/**
+	 * Build a key range partitioning sort controller
+	 * @return new sample sort controller
+	 */
+	protected Controller<?> buildSampleSort() {
+		SampleSortController<?> controller;
+		switch(getKeyKind()) {
+		case "string": controller = new SampleSortController<String>(); break;
+		case "collated": controller = new SampleSortController<ByteKey>(); break;
+		case "double": controller = new SampleSortController<Double>(); break;
+		default: controller = new SampleSortController<Long>(); break;
+		}
+		configure(controller);
+		controller.setParts(parts);
+		return controller;
+	}
+
+
+	/**
+	 * Build a coordinator of a sort over worker processes
+	 * @return new distributed sort controller
+	 */
+	protected Controller<?> buildDistributedSort() {
+		DistributedSortController<?> controller;
+		switch(getKeyKind()) {
+		case "string": controller = new DistributedSortController<String>(); break;
+		case "collated": controller = new DistributedSortController<ByteKey>(); break;
+		case "double": controller = new DistributedSortController<Double>(); break;
+		default: controller = new DistributedSortController<Long>(); break;
+		}
+		configure(controller);
+		controller.setLocalWorkers(localWorkers);
+		controller.setWorkerAddresses(workerAddresses);
+		controller.setWorkerSampleSort(sampleSort);
+		controller.setParts(parts);
+		return controller;
+	}
+	
+	/**
+	 * Pass the builder specifications to a new controller
+	 * @param controller new controller
+	 */
+	protected void configure(Controller<?> controller) {
 		String keyDataType;
-		switch(keyType) {
-		case "string": keyDataType = String.class.getTypeName(); controller = new Controller<String>(); break;
-		case "double": keyDataType = Double.class.getTypeName(); controller = new Controller<Double>(); break;
-		default: keyDataType = Long.class.getTypeName(); controller = new Controller<Long>(); break;
+		switch(getKeyKind()) {
+		case "string": keyDataType = String.class.getTypeName(); break;
+		case "collated": keyDataType = KeyParser.dataTypeOf(keyType); break;
+		case "epoch": keyDataType = EpochParser.dataTypeOf(keyType); break;
+		case "double": keyDataType = Double.class.getTypeName(); break;
+		default: keyDataType = Long.class.getTypeName(); break;
 		}
 		Path path = Paths.get(filePath);
 		controller.setFilePath(path);
 		controller.setBatchSize(batchSize);
 		controller.setKeyIndex(keyIndex);
 		controller.setSkipHeader(skipHeader);
-		//controller.setKeyType(keyType);
+		controller.setKeyType(keyType);
 		controller.setKeyDataType(keyDataType);
-		return controller;
+		if(memoryBudget>0) {
+			controller.setMemoryBudget(new MemoryBudget(memoryBudget));
+		}
+		controller.setOutput(output);
+		controller.setDistinct(distinct);
+		if(appendFile!=null) {
+			controller.setAppendFile(Paths.get(appendFile));
+		}
+		if(aggregateFunction!=null) {
+			controller.setAggregation(new Aggregation(aggregateFunction, keyIndex, aggregateIndex, preAggregate));
+		}
+		for(SortProgressListener listener : progressListeners) {
+			controller.addProgressListener(listener);
+		}
 	}
 	
 	public String getFilePath() {
@@ -101,9 +429,160 @@ public class ControllerBuilder {
 		return keyType;
 	}
 
+	/**
+	 * @return the key type, collated for all the collated string key types
+	 * and epoch, long keys, for the date and timestamp key types
+	 * @see KeyParser
+	 * @see EpochParser
+	 */
+	protected String getKeyKind() {
+		if(KeyParser.isCollated(keyType)) {
+			return "collated";
+		}
+		return EpochParser.isEpoch(keyType)?"epoch":keyType;
+	}
+
 	public void setKeyType(String keyType) {
 		this.keyType = keyType;
 	}
 
-	
+	public OutputStream getOutput() {
+		return output;
+	}
+
+	public void setOutput(OutputStream output) {
+		this.output = output;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public DistinctPolicy getDistinct() {
+		return distinct;
+	}
+
+	public void setDistinct(DistinctPolicy distinct) {
+		this.distinct = distinct;
+	}
+
+	public AggregateFunction getAggregateFunction() {
+		return aggregateFunction;
+	}
+
+	public void setAggregateFunction(AggregateFunction aggregateFunction) {
+		this.aggregateFunction = aggregateFunction;
+	}
+
+	public int getAggregateIndex() {
+		return aggregateIndex;
+	}
+
+	public void setAggregateIndex(int aggregateIndex) {
+		this.aggregateIndex = aggregateIndex;
+	}
+
+	public boolean isPreAggregate() {
+		return preAggregate;
+	}
+
+	public void setPreAggregate(boolean preAggregate) {
+		this.preAggregate = preAggregate;
+	}
+
+	public boolean isMerge() {
+		return merge;
+	}
+
+	public void setMerge(boolean merge) {
+		this.merge = merge;
+	}
+
+	public List<String> getMergeFiles() {
+		return mergeFiles;
+	}
+
+	public void setMergeFiles(List<String> mergeFiles) {
+		this.mergeFiles = mergeFiles;
+	}
+
+	public String getAppendFile() {
+		return appendFile;
+	}
+
+	public void setAppendFile(String appendFile) {
+		this.appendFile = appendFile;
+	}
+
+	public boolean isQuery() {
+		return query;
+	}
+
+	public String getQueryFrom() {
+		return queryFrom;
+	}
+
+	public String getQueryTo() {
+		return queryTo;
+	}
+
+	public int getTopK() {
+		return topK;
+	}
+
+	public void setTopK(int topK) {
+		this.topK = topK;
+	}
+
+	public boolean isTopLargest() {
+		return topLargest;
+	}
+
+	public void setTopLargest(boolean topLargest) {
+		this.topLargest = topLargest;
+	}
+
+	public boolean isSampleSort() {
+		return sampleSort;
+	}
+
+	public void setSampleSort(boolean sampleSort) {
+		this.sampleSort = sampleSort;
+	}
+
+	public int getParts() {
+		return parts;
+	}
+
+	public void setParts(int parts) {
+		this.parts = parts;
+	}
+
+	public int getLocalWorkers() {
+		return localWorkers;
+	}
+
+	public void setLocalWorkers(int localWorkers) {
+		this.localWorkers = localWorkers;
+	}
+
+	public List<String> getWorkerAddresses() {
+		return workerAddresses;
+	}
+
+	public void setWorkerAddresses(List<String> workerAddresses) {
+		this.workerAddresses = workerAddresses;
+	}
+
+	public List<SortProgressListener> getProgressListeners() {
+		return progressListeners;
+	}
+
+	public void setProgressListeners(List<SortProgressListener> progressListeners) {
+		this.progressListeners = progressListeners;
+	}
 }
@@ -0,0 +1,25 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+/**
+ * <pre>
+ * Enum of the distinct modes, which of the records with an equal key are written.
+ * FIRST	| only the record that comes first in the working file
+ * LAST	| only the record that comes last in the working file
+ * ROW	| every different record, identical records are written once
+ * </pre>
+ */
+public enum DistinctPolicy {
+	FIRST, LAST, ROW;
+
+	/**
+	 * @param name policy name, case insensitive
+	 * @return the policy, FIRST for an empty name
+	 * @exception IllegalArgumentException for an unknown name
+	 */
+	public static DistinctPolicy getByName(String name) {
+		if(name==null || name.isEmpty()) {
+			return FIRST;
+		}
+		return valueOf(name.toUpperCase());
+	}
+}
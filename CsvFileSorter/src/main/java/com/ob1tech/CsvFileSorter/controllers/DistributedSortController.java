@@ -0,0 +1,288 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ob1tech.CsvFileSorter.SortWorker;
+import com.ob1tech.CsvFileSorter.dateModel.SortTask;
+import com.ob1tech.CsvFileSorter.dateModel.SparseIndex;
+import com.ob1tech.CsvFileSorter.utils.CountingOutputStream;
+import com.ob1tech.CsvFileSorter.utils.Utilities;
+import com.opencsv.CSVParser;
+
+/**
+ * <pre>
+ * DistributedSortController coordinates a sort over {@link SortWorker} processes, every worker
+ * sorts a key range partition in its own JVM, with its own heap and garbage collector.
+ *
+ * sample		| the file is read once for a reservoir sample of the keys, a splitter per worker less one
+ * route		| the file is read again and every row is streamed to the worker of its key range
+ * sort		| every worker sorts its partition with a {@link com.ob1tech.CsvFileSorter.SortJob}
+ * collect		| the workers are read in key range order, straight to the sorted file
+ *
+ * Workers are local processes started for the sort and stopped after it, or running workers
+ * given by host:port. Every partition needs a worker of its own, a worker serves one partition at a time.
+ * A worker that returns less records then it was sent fails the sort with an {@link IllegalStateException}.
+ * A worker that can not be connected, or does not reply within an hour, fails the sort with an {@link java.io.UncheckedIOException}.
+ * </pre>
+ * @param <T> the type of the record key
+ * @see SortWorker
+ */
+public class DistributedSortController<T extends Comparable<T>> extends SampleSortController<T> {
+
+	/**
+	 * Milliseconds to wait for a worker connection
+	 */
+	private static final int CONNECT_TIMEOUT = 10000;
+
+	/**
+	 * Milliseconds to wait for a worker read, the worker sorts its whole partition before it replies
+	 */
+	private static final int READ_TIMEOUT = 60*60*1000;
+
+	/**
+	 * Number of worker processes to start on this host
+	 */
+	private int localWorkers;
+
+	/**
+	 * Running workers, host:port
+	 */
+	private List<String> workerAddresses = new ArrayList<String>();
+
+	/**
+	 * Workers sort their partitions by sample sort instead of the index tree
+	 */
+	private boolean workerSampleSort;
+
+	/**
+	 * Constructor: Initioalization
+	 * Will be build by the {@link ControllerBuilder}
+	 */
+	protected DistributedSortController() {
+		super();
+	}
+
+	/**
+	 * Sample, route to the workers and collect the sorted partitions
+	 * @throws UncheckedIOException when the file or a worker connection fails, or a worker times out
+	 */
+	@Override
+	public void execute() {
+		long time = System.currentTimeMillis();
+		List<Process> processes = new ArrayList<Process>();
+		List<Socket> sockets = new ArrayList<Socket>();
+		try {
+			List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+			for(String workerAddress : workerAddresses) {
+				int separator = workerAddress.lastIndexOf(':');
+				addresses.add(new InetSocketAddress(workerAddress.substring(0, separator),
+						Integer.valueOf(workerAddress.substring(separator+1))));
+			}
+			addresses.addAll(startLocalWorkers(processes));
+
+			logger.info( "Start sampling file..." );
+			List<T> splitters = sampleSplitters(addresses.size());
+			int partCount = splitters.size()+1;
+			logger.info("Sampled "+splitters.size()+" splitters "+(System.currentTimeMillis()-time)+" msc");
+
+			List<Writer> writers = new ArrayList<Writer>();
+			String task = Utilities.writerFor(SortTask.class).writeValueAsString(createTask());
+			for(int i=0; i<partCount; i++) {
+				Socket socket = new Socket();
+				sockets.add(socket);
+				socket.connect(addresses.get(i), CONNECT_TIMEOUT);
+				socket.setSoTimeout(READ_TIMEOUT);
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				output.writeUTF(task);
+				writers.add(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+			}
+			long[] counts = new long[partCount];
+			String header = route(splitters, writers, counts);
+			for(Socket socket : sockets) {
+				//End of the partition
+				socket.shutdownOutput();
+			}
+			logger.info("Routed records to "+partCount+" workers "+(System.currentTimeMillis()-time)+" msc");
+
+			collect(header, sockets, counts);
+			logger.info("Done sorting file! "+(System.currentTimeMillis()-time)+" msc");
+		} catch (IOException e) {
+			logger.error("Error distributing the sort of "+getFilePath().getFileName(), e);
+			throw new UncheckedIOException(e);
+		} finally {
+			for(Socket socket : sockets) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					logger.error("Error closing worker connection", e);
+				}
+			}
+			for(Process process : processes) {
+				process.destroy();
+			}
+		}
+	}
+
+	/**
+	 * @return the sort specification of the workers
+	 */
+	private SortTask createTask() {
+		SortTask task = new SortTask();
+		task.setKeyType(getKeyType());
+		task.setKeyIndex(getKeyIndex());
+		task.setBatchSize(getBatchSize());
+		if(getMemoryBudget()!=null) {
+			task.setMemoryBudget(getMemoryBudget().getTotalBytes()>>20);
+		}
+		task.setSampleSort(workerSampleSort);
+		task.setParts(getParts());
+		return task;
+	}
+
+	/**
+	 * Start the local workers, each on a free port of the loopback address.
+	 * Their output is logged at debug level
+	 * @param processes started processes, to stop after the sort
+	 * @return the local workers addresses
+	 * @throws IOException
+	 */
+	private List<InetSocketAddress> startLocalWorkers(List<Process> processes) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		String logConfiguration = System.getProperty("log4j.configurationFile");
+		if(logConfiguration!=null) {
+			command.add("-Dlog4j.configurationFile="+logConfiguration);
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(SortWorker.class.getName());
+		command.add("0");
+		for(int i=0; i<localWorkers; i++) {
+			processes.add(new ProcessBuilder(command).redirectErrorStream(true).start());
+		}
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for(int i=0; i<processes.size(); i++) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(processes.get(i).getInputStream()));
+			String line = reader.readLine();
+			while(line!=null && !line.startsWith(SortWorker.READY_MESSAGE)) {
+				logger.debug(line);
+				line = reader.readLine();
+			}
+			if(line==null) {
+				throw new IllegalStateException("Local sort worker "+i+" exited before listening");
+			}
+			int port = Integer.valueOf(line.substring(SortWorker.READY_MESSAGE.length()).trim());
+			addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			//Keep reading, a full pipe blocks the worker
+			Thread output = new Thread(() -> {
+				try {
+					String workerLine;
+					while((workerLine = reader.readLine())!=null) {
+						logger.debug(workerLine);
+					}
+				} catch (IOException e) {
+					//The worker was stopped
+				}
+			}, "sortWorkerOutput-"+i);
+			output.setDaemon(true);
+			output.start();
+		}
+		logger.info("Started "+localWorkers+" local workers");
+		return addresses;
+	}
+
+	/**
+	 * Read the sorted partitions in key range order into the sorted file, and sample its sparse index
+	 * @param header the file header, or null
+	 * @param sockets workers connections, in key range order
+	 * @param counts number of rows sent to every worker
+	 * @throws IOException
+	 * @throws IllegalStateException when a worker returns less or more records
+	 */
+	private void collect(String header, List<Socket> sockets, long[] counts) throws IOException {
+		//No index tree to append to
+		Files.deleteIfExists(getManifestFilePath());
+		SparseIndex sparseIndex = isPlainSortedFile()?new SparseIndex():null;
+		OutputStream fop = openSortedOutput();
+		boolean complete = false;
+		try {
+			CountingOutputStream out = new CountingOutputStream(fop);
+			byte[] lineSeparator = System.getProperty("line.separator").getBytes(StandardCharsets.UTF_8);
+			if(header!=null) {
+				out.write(header.getBytes(StandardCharsets.UTF_8));
+				out.write(lineSeparator);
+			}
+			if(sparseIndex!=null) {
+				sparseIndex.setHeader(header);
+				sparseIndex.setDataOffset(out.getCount());
+			}
+			CSVParser parser = createParser();
+			long lineCount = 0;
+			for(int i=0; i<sockets.size(); i++) {
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(sockets.get(i).getInputStream(), StandardCharsets.UTF_8));
+				long received = 0;
+				String line = reader.readLine();
+				while(line!=null) {
+					//Only kept keys are parsed
+					if(sparseIndex!=null && lineCount++%sparseIndex.getInterval()==0) {
+						sparseIndex.mark(parseKey(parser.parseLine(line)[getKeyIndex()]), out.getCount());
+					}
+					out.write(line.getBytes(StandardCharsets.UTF_8));
+					out.write(lineSeparator);
+					received++;
+					line = reader.readLine();
+				}
+				if(received!=counts[i]) {
+					throw new IllegalStateException("Worker "+sockets.get(i).getRemoteSocketAddress()
+							+" returned "+received+" of "+counts[i]+" records");
+				}
+			}
+			complete = true;
+		} finally {
+			closeSortedOutput(fop, complete);
+		}
+		saveSparseIndex(sparseIndex);
+	}
+
+	public int getLocalWorkers() {
+		return localWorkers;
+	}
+
+	public void setLocalWorkers(int localWorkers) {
+		this.localWorkers = localWorkers;
+	}
+
+	public List<String> getWorkerAddresses() {
+		return workerAddresses;
+	}
+
+	public void setWorkerAddresses(List<String> workerAddresses) {
+		this.workerAddresses = workerAddresses;
+	}
+
+	public boolean isWorkerSampleSort() {
+		return workerSampleSort;
+	}
+
+	public void setWorkerSampleSort(boolean workerSampleSort) {
+		this.workerSampleSort = workerSampleSort;
+	}
+}
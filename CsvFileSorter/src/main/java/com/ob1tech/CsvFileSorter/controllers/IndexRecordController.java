@@ -1,9 +1,10 @@
 package com.ob1tech.CsvFileSorter.controllers;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.AbstractMap;
 import java.util.AbstractMap.SimpleEntry;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
@@ -11,12 +12,18 @@ import org.apache.logging.log4j.Logger;
 
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.ob1tech.CsvFileSorter.algorithms.sort.MinIndexedBinaryTree;
 import com.ob1tech.CsvFileSorter.dateModel.IndexNode;
 import com.ob1tech.CsvFileSorter.dateModel.RecordBatchNode;
 import com.ob1tech.CsvFileSorter.dateModel.RecordIndex;
 import com.ob1tech.CsvFileSorter.deserializer.IndexNodeCustomDeserializer;
+import com.ob1tech.CsvFileSorter.events.InnerSwapEvent;
+import com.ob1tech.CsvFileSorter.storage.FileStore;
+import com.ob1tech.CsvFileSorter.storage.WriteBehindStore;
+import com.ob1tech.CsvFileSorter.utils.LruCache;
 import com.ob1tech.CsvFileSorter.utils.Utilities;
 
 /**
@@ -48,6 +55,11 @@ public class IndexRecordController<T extends Comparable<T>>
 	 * Json mapper
 	 */
 	private ObjectMapper objectMapper = null;
+	/**
+	 * Cached json reader and writer of {@link IndexNode}
+	 */
+	private ObjectReader nodeReader = null;
+	private ObjectWriter nodeWriter = null;
 	
 	/**
 	 * Link to the owning batch controller
@@ -58,6 +70,19 @@ public class IndexRecordController<T extends Comparable<T>>
 	
 	private Path dataFile;
 	
+	/**
+	 * Write through cache of recently used index nodes.
+	 * Null when no memory budget was given
+	 * @see #setMaxInMemoryNodes(int)
+	 */
+	private LruCache<Long, IndexNode<T>> nodeCache;
+	
+	/**
+	 * Index files are written behind the indexing thread
+	 * @see WriteBehindStore
+	 */
+	private WriteBehindStore nodeStore;
+	
 	/**
 	 * Constractor:
 	 * Tinitalize the working file, batch controller and a new IndexNodeCustomDeserializer
@@ -74,6 +99,8 @@ public class IndexRecordController<T extends Comparable<T>>
 		this.batchController = batchController;
 		
 		deserializerInstance = new IndexNodeCustomDeserializer<>(IndexNode.class, keyType);
+		nodeStore = new WriteBehindStore(new FileStore(this::getFilePath), 
+				dataFile.getFileName().toString().concat(INDEX_SUFFIX));
 		
 	}
 	
@@ -95,6 +122,26 @@ public class IndexRecordController<T extends Comparable<T>>
 		
 	}
 	
+	/**
+	 * @return cached json reader of {@link IndexNode}, streamed by the {@link IndexNodeCustomDeserializer}
+	 */
+	public ObjectReader getNodeReader() {
+		if(nodeReader==null) {
+			nodeReader = getObjectMapper().readerFor(IndexNode.class);
+		}
+		return nodeReader;
+	}
+	
+	/**
+	 * @return cached json writer of {@link IndexNode}
+	 */
+	public ObjectWriter getNodeWriter() {
+		if(nodeWriter==null) {
+			nodeWriter = getObjectMapper().writerFor(IndexNode.class);
+		}
+		return nodeWriter;
+	}
+	
 	/**
 	 * Create index file path
 	 * @param nodeIndex index file Id
@@ -106,12 +153,13 @@ public class IndexRecordController<T extends Comparable<T>>
 	}
 	
 	/**
-	 * IndexNode perssister. Saves to file.
+	 * IndexNode perssister. Saves to file, the file is written behind the caller.
 	 */
 	protected void save(long nodeIndex, IndexNode<T> value) {
-		Path filePath = getFilePath(nodeIndex);
-		ObjectMapper mapper = getObjectMapper();
-		Utilities.save(value, filePath, mapper);			
+		if(nodeCache!=null) {
+			nodeCache.put(nodeIndex, value);
+		}
+		Utilities.save(value, nodeStore, nodeIndex, getNodeWriter());			
 	}
 
 	/**
@@ -123,26 +171,68 @@ public class IndexRecordController<T extends Comparable<T>>
 	@Override
 	protected IndexNode<T> getValueOf(long nodeIndex) {
 		IndexNode<T> indexNode;
-		Path filePath = getFilePath(nodeIndex);
-		ObjectMapper mapper = getObjectMapper();
-		indexNode = (IndexNode<T>) Utilities.getValueOf(filePath, mapper , IndexNode.class);
+		if(nodeCache!=null) {
+			indexNode = nodeCache.get(nodeIndex);
+			if(indexNode!=null) {
+				return indexNode;
+			}
+		}
+		indexNode = (IndexNode<T>) Utilities.getValueOf(nodeStore, nodeIndex, getNodeReader());
+		if(nodeCache!=null && indexNode!=null) {
+			nodeCache.put(nodeIndex, indexNode);
+		}
 		return indexNode;
 	}
+	
+	/**
+	 * Reopen the index tree persisted by a previous sort of the working file.
+	 * The root is always the first node
+	 * @param size number of persisted nodes
+	 */
+	public void reopen(long size) {
+		if(size>0) {
+			restore(getValueOf(0), size);
+		}
+	}
+
+	/**
+	 * Write the queued index nodes to their files
+	 * @see WriteBehindStore#close()
+	 */
+	public void close() {
+		try {
+			nodeStore.close();
+		} catch (IOException e) {
+			logger.error("Error writing index nodes of "+dataFile.getFileName(), e);
+		}
+	}
+
+	/**
+	 * Keep up to maxInMemoryNodes recently used index nodes in memory.
+	 * @param maxInMemoryNodes cache size, 0 disables the cache
+	 */
+	public void setMaxInMemoryNodes(int maxInMemoryNodes) {
+		nodeCache = maxInMemoryNodes>0?new LruCache<Long, IndexNode<T>>(maxInMemoryNodes):null;
+	}
 
 
 	/**
 	 * Inner swap is needed when batches mix keys. This methode will sort them out.
 	 * The lists of keys in each RecordBatchNode are sorted so will pass them one 
-	 * after the other and set them to a new ordered list.
-	 * Then will reset the tow batches and the intended higher ranking one will be populated
-	 * with lower values and the rest will go to the lower ranking batch.
-	 * Indexes will be updated aswell and send back for further sorting.
+	 * after the other in a single linear merge.
+	 * The intended higher ranking batch is populated with the lower values and the rest
+	 * go to the lower ranking batch, each keeps its size. Both are filled directly by the merge,
+	 * without an intermediate merged list.
+	 * Indexes of records that moved will be updated aswell and send back for further sorting.
 	 * 
 	 * @param lowerLevelNode the intended lower leveled node
 	 * @param higherLevelNode the intended heighr valued node
 	 */
 	@Override
 	protected void doInnerSwap(IndexNode<T> lowerLevelNode, IndexNode<T> higherLevelNode) {
+		InnerSwapEvent event = new InnerSwapEvent();
+		event.begin();
+		int moved = 0;
 		//Retrieve batches
 		RecordBatchNode<T> lowerLevelRecordBatchNode = batchController.getValueOf(lowerLevelNode.getId());
 		List<RecordIndex<T>> lowerLevelNodeRecords = lowerLevelRecordBatchNode.getRecords();
@@ -151,67 +241,93 @@ public class IndexRecordController<T extends Comparable<T>>
 		List<RecordIndex<T>> higherLevelNodeRecords = higherLevelRecordBatchNode.getRecords();
 		int higherLevelNodeRecordsSize = higherLevelNodeRecords.size();
 		
-		String swapMessage = String.format(PRINT_SWAP_FORMAT,
-				"Pre",
-				higherLevelNode.getId(),
-				higherLevelNodeRecords,
-				lowerLevelNode.getId(),
-				lowerLevelNodeRecords);
-		logger.debug(swapMessage);
+		if(logger.isDebugEnabled()) {
+			logger.debug(String.format(PRINT_SWAP_FORMAT,
+					"Pre",
+					higherLevelNode.getId(),
+					higherLevelNodeRecords,
+					lowerLevelNode.getId(),
+					lowerLevelNodeRecords));
+		}
+		
+		List<RecordIndex<T>> higherSorted = new ArrayList<RecordIndex<T>>(higherLevelNodeRecordsSize);
+		List<RecordIndex<T>> lowerSorted = new ArrayList<RecordIndex<T>>(lowerLevelNodeRecords.size());
+		Long higherId = higherLevelRecordBatchNode.getId();
+		Long lowerId = lowerLevelRecordBatchNode.getId();
 		
-		//Prepare full ordered list
+		//Merge, on equal keys the higher level record comes first
 		int highrIndex = 0, lowerIndex = 0;
-		List<RecordIndex<T>> sortedList = new LinkedList<RecordIndex<T>>();
-		while(highrIndex < higherLevelNodeRecords.size()) {
-			RecordIndex<T> record = higherLevelNodeRecords.get(highrIndex);
-			while(lowerIndex < lowerLevelNodeRecords.size()) {
-				RecordIndex<T> recordLow = lowerLevelNodeRecords.get(lowerIndex);
-				if(recordLow.compareTo(record)<0) {
-					sortedList.add(recordLow);
-					lowerIndex++;
-				}else {
-					break;
+		while(highrIndex < higherLevelNodeRecords.size() || lowerIndex < lowerLevelNodeRecords.size()) {
+			boolean fromLower;
+			if(highrIndex == higherLevelNodeRecords.size()) {
+				fromLower = true;
+			}else if(lowerIndex == lowerLevelNodeRecords.size()) {
+				fromLower = false;
+			}else {
+				fromLower = lowerLevelNodeRecords.get(lowerIndex)
+						.compareTo(higherLevelNodeRecords.get(highrIndex))<0;
+			}
+			RecordIndex<T> recordIndex = fromLower
+					?lowerLevelNodeRecords.get(lowerIndex++)
+					:higherLevelNodeRecords.get(highrIndex++);
+			//Populate orderedd
+			if(higherSorted.size()<higherLevelNodeRecordsSize) {
+				higherSorted.add(recordIndex);
+				if(fromLower) {
+					batchController.updateRecordPosition(recordIndex.getRecordLine(), higherId);
+					moved++;
+				}
+			}else {
+				lowerSorted.add(recordIndex);
+				if(!fromLower) {
+					batchController.updateRecordPosition(recordIndex.getRecordLine(), lowerId);
+					moved++;
 				}
 			}
-			sortedList.add(record);
-			highrIndex++;
-		}
-		//Add the rest
-		while(lowerIndex < lowerLevelNodeRecords.size()) {
-			RecordIndex<T> recordLow = lowerLevelNodeRecords.get(lowerIndex);
-			sortedList.add(recordLow);
-			lowerIndex++;			
 		}
 		
 		//Reset batches
-		lowerLevelRecordBatchNode.reset();
-		higherLevelRecordBatchNode.reset();
-		
-		//Populate orderedd
-		for(RecordIndex<T> recordIndex : sortedList) {
-			if(higherLevelRecordBatchNode.getRecords().size()<higherLevelNodeRecordsSize) {
-				higherLevelRecordBatchNode.insert(recordIndex);
-				batchController.updateRecordPosition(recordIndex.getRecordLine(),higherLevelRecordBatchNode.getId());
-			}else {
-				lowerLevelRecordBatchNode.insert(recordIndex);
-				batchController.updateRecordPosition(recordIndex.getRecordLine(),lowerLevelRecordBatchNode.getId());
-			}
-		}
+		setSortedRecords(higherLevelRecordBatchNode, higherSorted);
+		setSortedRecords(lowerLevelRecordBatchNode, lowerSorted);
 		
 		//Persist
 		persistChange(lowerLevelNode, lowerLevelRecordBatchNode);
 		persistChange(higherLevelNode, higherLevelRecordBatchNode);
+		event.end();
+		if(event.shouldCommit()) {
+			event.lowerId = lowerId;
+			event.higherId = higherId;
+			event.lowerRecords = lowerSorted.size();
+			event.higherRecords = higherSorted.size();
+			event.moved = moved;
+			event.commit();
+		}
 		
-		swapMessage = String.format(PRINT_SWAP_FORMAT ,
-				"Post",
-				higherLevelNode.getId(),
-				higherLevelNodeRecords,
-				lowerLevelNode.getId(),
-				lowerLevelNodeRecords);
-		logger.debug(swapMessage);
+		if(logger.isDebugEnabled()) {
+			logger.debug(String.format(PRINT_SWAP_FORMAT ,
+					"Post",
+					higherLevelNode.getId(),
+					higherSorted,
+					lowerLevelNode.getId(),
+					lowerSorted));
+		}
 		
 	}
 
+	/**
+	 * Replace the batch records by sorted ones, the min/max are the first and last
+	 * @param recordBatchNode batch
+	 * @param records sorted records
+	 */
+	private void setSortedRecords(RecordBatchNode<T> recordBatchNode, List<RecordIndex<T>> records) {
+		recordBatchNode.reset();
+		recordBatchNode.setRecords(records);
+		if(!records.isEmpty()) {
+			recordBatchNode.getKey().setMin(records.get(0));
+			recordBatchNode.getKey().setMax(records.get(records.size()-1));
+		}
+	}
+
 
 	/**
 	 * Save indexes and batches back to their files
@@ -221,6 +337,8 @@ public class IndexRecordController<T extends Comparable<T>>
 	public void persistChange(IndexNode<T> indexNode, RecordBatchNode<T> recordBatchNode) {
 		indexNode.getKey().setMinValue(recordBatchNode.getKey().getMinValue());
 		indexNode.getKey().setMaxValue(recordBatchNode.getKey().getMaxValue());
+		indexNode.getKey().setMinLine(recordBatchNode.getKey().getMinLine());
+		indexNode.getKey().setMaxLine(recordBatchNode.getKey().getMaxLine());
 		save(indexNode.getId(), indexNode);
 		batchController.save(recordBatchNode.getId(), recordBatchNode);
 	}
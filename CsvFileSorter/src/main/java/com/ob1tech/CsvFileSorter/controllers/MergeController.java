@@ -0,0 +1,150 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ob1tech.CsvFileSorter.algorithms.sort.MinIndexedBinaryHeap;
+import com.ob1tech.CsvFileSorter.dateModel.RecordIndex;
+import com.ob1tech.CsvFileSorter.utils.Utf8CsvParser;
+import com.ob1tech.CsvFileSorter.utils.Utf8LineReader;
+
+/**
+ * <pre>
+ * MergeController k-way merges files that are each already sorted on the key.
+ * The heads of the files are kept in a {@link MinIndexedBinaryHeap}, indexed by the file
+ * position, so the next record always comes from the file at {@link MinIndexedBinaryHeap#peekMinKeyIndex()}.
+ * Files are read sequentially, once, without batch or index files. O(total x log(N))
+ * Equal keys are taken by the file position, so the merge is stable across the files.
+ *
+ * The order of every file is validated while merging, an out of order record stops
+ * the merge with an {@link IllegalStateException}.
+ * The working file is the first input and the sorted file is named after it,
+ * it is only replaced once the merge completes.
+ * </pre>
+ * @param <T> the type of the record key
+ */
+public class MergeController<T extends Comparable<T>> extends Controller<T> {
+
+	/**
+	 * Sorted inputs, other then the working file
+	 */
+	private List<Path> mergeFiles = new ArrayList<Path>();
+
+	/**
+	 * Constructor: Initioalization
+	 * Will be build by the {@link ControllerBuilder}
+	 */
+	protected MergeController() {
+		super();
+	}
+
+	/**
+	 * Merge all inputs into the sorted file
+	 * @throws UncheckedIOException when an input can not be read or the sorted file written
+	 */
+	@Override
+	public void execute() {
+		long time = System.currentTimeMillis();
+		List<Path> inputs = new ArrayList<Path>();
+		inputs.add(getFilePath());
+		inputs.addAll(mergeFiles);
+		logger.info( "Start merging "+inputs.size()+" files..." );
+
+		List<Utf8LineReader> readers = new ArrayList<Utf8LineReader>();
+		try {
+			Utf8CsvParser parser = new Utf8CsvParser(createParser());
+			//The heap requires at least 2
+			MinIndexedBinaryHeap<RecordIndex<T>> heap = new MinIndexedBinaryHeap<RecordIndex<T>>(Math.max(inputs.size(), 2));
+			long[] lineNumbers = new long[inputs.size()];
+			byte[] header = null;
+			for(int i=0; i<inputs.size(); i++) {
+				Utf8LineReader reader = new Utf8LineReader(inputs.get(i));
+				readers.add(reader);
+				if(isSkipHeader()) {
+					byte[] fileHeader = reader.readLine();
+					if(header==null) {
+						header = fileHeader;
+					}
+				}
+				lineNumbers[i]++;
+				RecordIndex<T> record = readRecord(reader, parser, i);
+				if(record!=null) {
+					heap.insert(i, record);
+				}
+			}
+
+			OutputStream fop = openSortedOutput();
+			boolean complete = false;
+			try {
+				byte[] lineSeparator = System.getProperty("line.separator").getBytes(StandardCharsets.UTF_8);
+				if(header!=null) {
+					fop.write(header);
+					fop.write(lineSeparator);
+				}
+				while(!heap.isEmpty()) {
+					int input = heap.peekMinKeyIndex();
+					RecordIndex<T> record = heap.peekMinValue();
+					fop.write(record.getRecordBytes());
+					fop.write(lineSeparator);
+
+					lineNumbers[input]++;
+					RecordIndex<T> next = readRecord(readers.get(input), parser, input);
+					if(next==null) {
+						heap.delete(input);
+					}else if(next.compareTo(record)<0) {
+						throw new IllegalStateException(inputs.get(input)+" is not sorted at record "
+								+lineNumbers[input]+", "+next+" after "+record);
+					}else {
+						//The input head moves on, one re balance
+						heap.update(input, next);
+					}
+				}
+				complete = true;
+			} finally {
+				closeSortedOutput(fop, complete);
+			}
+			logger.info("Done merging files! "+(System.currentTimeMillis()-time)+" msc");
+		} catch (IOException e) {
+			logger.error("Error merging "+inputs.size()+" files into "+getFilePath().getFileName(), e);
+			throw new UncheckedIOException(e);
+		} finally {
+			for(Utf8LineReader reader : readers) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					logger.error("Error closing a merged file", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the next record of an input
+	 * @param reader the input
+	 * @param parser columns parser
+	 * @param input the input position, equal keys of different inputs are ordered by it
+	 * @return the record or null at the end of the input
+	 * @throws IOException
+	 */
+	private RecordIndex<T> readRecord(Utf8LineReader reader, Utf8CsvParser parser, int input) throws IOException {
+		byte[] line = reader.readLine();
+		if(line==null) {
+			return null;
+		}
+		T key = parseKey(parser, line);
+		return new RecordIndex<T>(input, key, line);
+	}
+
+	public List<Path> getMergeFiles() {
+		return mergeFiles;
+	}
+
+	public void setMergeFiles(List<Path> mergeFiles) {
+		this.mergeFiles = mergeFiles;
+	}
+}
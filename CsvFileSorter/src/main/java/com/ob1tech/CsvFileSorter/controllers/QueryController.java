@@ -0,0 +1,162 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.ob1tech.CsvFileSorter.dateModel.SparseIndex;
+import com.ob1tech.CsvFileSorter.utils.Utf8CsvParser;
+import com.ob1tech.CsvFileSorter.utils.Utf8LineReader;
+import com.ob1tech.CsvFileSorter.utils.Utilities;
+
+/**
+ * <pre>
+ * QueryController writes the records of a key range from the sorted file of the working file.
+ * The sparse index saved next to the sorted file is binary searched for the last kept key
+ * lower than the range start, and the sorted file is read from its offset until a key
+ * passes the range end. O(log(N/interval) + interval + range)
+ *
+ * from	| first key, inclusive. null reads from the first record
+ * to	| last key, inclusive. null reads to the last record
+ *
+ * The records are written to the client given output, otherwise to the standard output.
+ * </pre>
+ * @param <T> the type of the record key
+ * @see SparseIndex
+ */
+public class QueryController<T extends Comparable<T>> extends Controller<T> {
+
+	private String from;
+	private String to;
+
+	/**
+	 * Constructor: Initioalization
+	 * Will be build by the {@link ControllerBuilder}
+	 */
+	protected QueryController() {
+		super();
+	}
+
+	/**
+	 * Look up the range in the sparse index and write its records
+	 * @throws IllegalStateException when the sorted file has no up to date sparse index of the key
+	 * @throws UncheckedIOException when the sorted file can not be read or the records written
+	 */
+	@Override
+	public void execute() {
+		long time = System.currentTimeMillis();
+		Path sortedFile = BatchController.getSortedFilePath(getFilePath());
+		SparseIndex sparseIndex = readSparseIndex(sortedFile);
+		T fromKey = from!=null?parseKey(from):null;
+		T toKey = to!=null?parseKey(to):null;
+
+		OutputStream fop = getOutput()!=null
+				?new BufferedOutputStream(getOutput())
+				:new BufferedOutputStream(System.out);
+		try (FileChannel channel = FileChannel.open(sortedFile)) {
+			channel.position(findOffset(sparseIndex, fromKey));
+			Utf8LineReader reader = new Utf8LineReader(Channels.newInputStream(channel));
+			Utf8CsvParser parser = new Utf8CsvParser(createParser());
+			byte[] lineSeparator = System.getProperty("line.separator").getBytes();
+			if(sparseIndex.getHeader()!=null) {
+				fop.write(sparseIndex.getHeader().getBytes(StandardCharsets.UTF_8));
+				fop.write(lineSeparator);
+			}
+			long count = 0;
+			byte[] line = reader.readLine();
+			while(line!=null) {
+				T key = parseKey(parser, line);
+				if(toKey!=null && key.compareTo(toKey)>0) {
+					break;
+				}
+				if(fromKey==null || key.compareTo(fromKey)>=0) {
+					fop.write(line);
+					fop.write(lineSeparator);
+					count++;
+				}
+				line = reader.readLine();
+			}
+			fop.flush();
+			logger.info("Found "+count+" records! "+(System.currentTimeMillis()-time)+" msc");
+		} catch (IOException e) {
+			logger.error("Error querying "+sortedFile.getFileName(), e);
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param sortedFile the sorted file
+	 * @return the sparse index of the sorted file
+	 */
+	private SparseIndex readSparseIndex(Path sortedFile) {
+		Path indexFile = BatchController.getSparseIndexFilePath(getFilePath());
+		SparseIndex sparseIndex = null;
+		if(Files.isRegularFile(indexFile)) {
+			sparseIndex = (SparseIndex) Utilities.getValueOf(indexFile, Utilities.readerFor(SparseIndex.class));
+		}
+		if(sparseIndex==null) {
+			throw new IllegalStateException(sortedFile.getFileName()+" has no sparse index, sort the file again");
+		}
+		if(!getKeyDataType().equals(sparseIndex.getKeyDataType()) || getKeyIndex()!=sparseIndex.getKeyIndex()) {
+			throw new IllegalStateException(sortedFile.getFileName()+" was sorted by another key");
+		}
+		try {
+			if(Files.size(sortedFile)!=sparseIndex.getSortedFileSize()) {
+				throw new IllegalStateException(sortedFile.getFileName()+" was changed, sort the file again");
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Error reading "+sortedFile.getFileName(), e);
+		}
+		return sparseIndex;
+	}
+
+	/**
+	 * Binary search the last kept key lower than the range start.
+	 * Equal keys may start before a kept key, so the search is strictly lower
+	 * @param sparseIndex the sparse index
+	 * @param fromKey range start, or null
+	 * @return offset to read the sorted file from
+	 */
+	private long findOffset(SparseIndex sparseIndex, T fromKey) {
+		long offset = sparseIndex.getDataOffset();
+		if(fromKey==null) {
+			return offset;
+		}
+		List<String> keys = sparseIndex.getKeys();
+		int low = 0;
+		int high = keys.size()-1;
+		while(low<=high) {
+			int mid = (low+high)>>>1;
+			if(parseKeyText(keys.get(mid)).compareTo(fromKey)<0) {
+				offset = sparseIndex.getOffsets().get(mid);
+				low = mid+1;
+			}else {
+				high = mid-1;
+			}
+		}
+		return offset;
+	}
+
+	public String getFrom() {
+		return from;
+	}
+
+	public void setFrom(String from) {
+		this.from = from;
+	}
+
+	public String getTo() {
+		return to;
+	}
+
+	public void setTo(String to) {
+		this.to = to;
+	}
+}
@@ -0,0 +1,411 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.ob1tech.CsvFileSorter.SortJob;
+import com.ob1tech.CsvFileSorter.dateModel.RecordIndex;
+import com.ob1tech.CsvFileSorter.dateModel.SparseIndex;
+import com.ob1tech.CsvFileSorter.utils.CountingOutputStream;
+import com.ob1tech.CsvFileSorter.utils.MemoryBudget;
+import com.ob1tech.CsvFileSorter.utils.Utf8CsvParser;
+import com.ob1tech.CsvFileSorter.utils.Utf8LineReader;
+import com.ob1tech.CsvFileSorter.utils.Utilities;
+import com.opencsv.CSVParser;
+
+/**
+ * <pre>
+ * SampleSortController sorts the file by range partitioning instead of the index tree.
+ * Batches of the tree overlap on random keys and are swapped over and over, here every
+ * partition owns a key range so the partitions never meet again.
+ *
+ * sample		| the file is read once for a reservoir sample of the keys, the sorted sample
+ * 			| gives parts-1 splitters
+ * route		| the file is read again and every row is appended to the partition of its key range.
+ * 			| Equal keys always share a partition
+ * sort		| every partition is read, sorted in memory and written back, in parallel
+ * 			| a partition larger than its share of the memory is sorted by the index tree
+ * concatenate	| the sorted partitions are copied, in key range order, to the sorted file
+ *
+ * Partitions sorted at the same time share the memory budget, or half of the heap without one.
+ * Rows keep their order within a partition and both sorts are stable, so equal keys keep the file order.
+ * Distinct, aggregation and append are done by the index tree sort.
+ * </pre>
+ * @param <T> the type of the record key
+ */
+public class SampleSortController<T extends Comparable<T>> extends Controller<T> {
+
+	/**
+	 * Default number of partitions per core, when not set. 4
+	 */
+	public static final int DEFAULT_PARTS_PER_CORE = 4;
+
+	/**
+	 * Sampled keys per partition, more even partitions for a longer first pass. 64
+	 */
+	public static final int SAMPLES_PER_PART = 64;
+
+	/**
+	 * Partition file name suffix, of the working file
+	 */
+	public static final String PART_SUFFIX = ".part";
+
+	/**
+	 * Rows separator of the partitions, read back by line
+	 */
+	private static final String PART_LINE_SEPARATOR = "\n";
+
+	/**
+	 * Sorted partition file name suffix, of the partition file
+	 */
+	private static final String SORTED_PART_SUFFIX = ".sorted";
+
+	/**
+	 * Number of key range partitions, 0 or less for {@link #DEFAULT_PARTS_PER_CORE} per core
+	 */
+	private int parts;
+
+	/**
+	 * Constructor: Initioalization
+	 * Will be build by the {@link ControllerBuilder}
+	 */
+	protected SampleSortController() {
+		super();
+	}
+
+	/**
+	 * Sample, route, sort and concatenate the partitions
+	 * @throws UncheckedIOException when the file can not be read or the sorted file written
+	 */
+	@Override
+	public void execute() {
+		long time = System.currentTimeMillis();
+		int cores = Runtime.getRuntime().availableProcessors();
+		int partCount = parts>0?parts:cores*DEFAULT_PARTS_PER_CORE;
+		List<Path> partFiles = new ArrayList<Path>();
+		try {
+			logger.info( "Start sampling file..." );
+			List<T> splitters = sampleSplitters(partCount);
+			partCount = splitters.size()+1;
+			logger.info("Sampled "+splitters.size()+" splitters "+(System.currentTimeMillis()-time)+" msc");
+
+			for(int i=0; i<partCount; i++) {
+				partFiles.add(Utilities.constractFilePath(getFilePath(), i, PART_SUFFIX));
+			}
+			String header;
+			long[] counts = new long[partCount];
+			List<Writer> writers = new ArrayList<Writer>();
+			try {
+				for(Path partFile : partFiles) {
+					writers.add(Files.newBufferedWriter(partFile));
+				}
+				header = route(splitters, writers, counts);
+			} finally {
+				for(Writer writer : writers) {
+					writer.close();
+				}
+			}
+			logger.info("Routed records to "+partCount+" partitions "+(System.currentTimeMillis()-time)+" msc");
+
+			List<SparseIndex> partIndexes = sortPartitions(partFiles, counts, Math.min(cores, partCount));
+			logger.info("Sorted partitions "+(System.currentTimeMillis()-time)+" msc");
+
+			concatenate(header, partFiles, partIndexes);
+			logger.info("Done sorting file! "+(System.currentTimeMillis()-time)+" msc");
+		} catch (IOException e) {
+			logger.error("Error sample sorting "+getFilePath().getFileName(), e);
+			throw new UncheckedIOException(e);
+		} finally {
+			for(Path partFile : partFiles) {
+				try {
+					Files.deleteIfExists(partFile);
+				} catch (IOException e) {
+					logger.error("Error deleting "+partFile.getFileName(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reservoir sample the keys and pick evenly spaced splitters of the sorted sample
+	 * @param partCount requested number of partitions
+	 * @return ascending splitters, a partition less then requested for small files
+	 * @throws IOException
+	 */
+	protected List<T> sampleSplitters(int partCount) throws IOException {
+		int sampleSize = partCount*SAMPLES_PER_PART;
+		List<T> sample = new ArrayList<T>(sampleSize);
+		Random random = new Random();
+		try (Utf8LineReader reader = new Utf8LineReader(getFilePath())) {
+			Utf8CsvParser parser = new Utf8CsvParser(createParser());
+			byte[] line = reader.readLine();
+			if(line!=null && isSkipHeader()) {
+				line = reader.readLine();
+			}
+			long seen = 0;
+			while(line!=null) {
+				seen++;
+				if(sample.size()<sampleSize) {
+					sample.add(parseKey(parser, line));
+				}else {
+					long slot = (long) (random.nextDouble()*seen);
+					if(slot<sampleSize) {
+						sample.set((int) slot, parseKey(parser, line));
+					}
+				}
+				line = reader.readLine();
+			}
+		}
+		Collections.sort(sample);
+		partCount = Math.max(1, Math.min(partCount, sample.size()));
+		List<T> splitters = new ArrayList<T>(partCount-1);
+		for(int i=1; i<partCount; i++) {
+			splitters.add(sample.get(i*sample.size()/partCount));
+		}
+		return splitters;
+	}
+
+	/**
+	 * Append every row to the partition of its key range
+	 * @param splitters ascending splitters
+	 * @param writers partition writers, one more then the splitters. Flushed but not closed
+	 * @param counts optional number of rows of every partition, counted up
+	 * @return the file header, or null
+	 * @throws IOException
+	 */
+	protected String route(List<T> splitters, List<? extends Writer> writers, long[] counts) throws IOException {
+		String header = null;
+		try (BufferedReader reader = Files.newBufferedReader(getFilePath())) {
+			CSVParser parser = createParser();
+			String line = reader.readLine();
+			if(line!=null && isSkipHeader()) {
+				header = line;
+				line = reader.readLine();
+			}
+			while(line!=null) {
+				int partition = partitionOf(splitters, parseKey(parser.parseLine(line)[getKeyIndex()]));
+				Writer writer = writers.get(partition);
+				writer.write(line);
+				writer.write(PART_LINE_SEPARATOR);
+				if(counts!=null) {
+					counts[partition]++;
+				}
+				line = reader.readLine();
+			}
+		}
+		for(Writer writer : writers) {
+			writer.flush();
+		}
+		return header;
+	}
+
+	/**
+	 * Binary search the key range of a key
+	 * @param splitters ascending splitters
+	 * @param key record key
+	 * @return number of splitters lower or equal to the key
+	 */
+	protected int partitionOf(List<T> splitters, T key) {
+		int low = 0;
+		int high = splitters.size()-1;
+		while(low<=high) {
+			int mid = (low+high)>>>1;
+			if(splitters.get(mid).compareTo(key)<=0) {
+				low = mid+1;
+			}else {
+				high = mid-1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Sort every partition in its place, by a pool of threads
+	 * @param partFiles partition files
+	 * @param counts number of rows of every partition
+	 * @param threads number of partitions sorted at the same time
+	 * @return sparse index of every partition, offsets relative to the partition.
+	 * Null entries when the sorted file is not indexed
+	 * @throws IOException
+	 */
+	private List<SparseIndex> sortPartitions(List<Path> partFiles, long[] counts, int threads) throws IOException {
+		long memoryShare = (getMemoryBudget()!=null
+				?getMemoryBudget().getTotalBytes()
+				:Runtime.getRuntime().maxMemory()/2)/threads;
+		Utilities partitionSorter = new Utilities(threads, "partitionSorter");
+		try {
+			List<Future<SparseIndex>> sorted = new ArrayList<Future<SparseIndex>>();
+			for(int i=0; i<partFiles.size(); i++) {
+				Path partFile = partFiles.get(i);
+				long rows = counts[i];
+				sorted.add(partitionSorter.getThreadPool().submit(() -> sortPartition(partFile, rows, memoryShare)));
+			}
+			List<SparseIndex> partIndexes = new ArrayList<SparseIndex>();
+			for(Future<SparseIndex> partition : sorted) {
+				partIndexes.add(partition.get());
+			}
+			return partIndexes;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while sorting a partition", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Error sorting a partition", e.getCause());
+		} finally {
+			partitionSorter.getThreadPool().shutdownNow();
+		}
+	}
+
+	/**
+	 * Read a partition, sort it and write it back
+	 * @param partFile partition file
+	 * @param rows number of rows of the partition
+	 * @param memoryShare memory the partition may take
+	 * @return sparse index of the partition, or null when the sorted file is not indexed
+	 * @throws IOException
+	 * @see #sortPartitionByIndexTree(Path, long)
+	 */
+	private SparseIndex sortPartition(Path partFile, long rows, long memoryShare) throws IOException {
+		if(MemoryBudget.estimateLinesSize(rows, Files.size(partFile))>memoryShare) {
+			return sortPartitionByIndexTree(partFile, memoryShare);
+		}
+		List<RecordIndex<T>> records = new ArrayList<RecordIndex<T>>();
+		try (Utf8LineReader reader = new Utf8LineReader(partFile)) {
+			Utf8CsvParser parser = new Utf8CsvParser(createParser());
+			long lineNumber = 0;
+			byte[] line = reader.readLine();
+			while(line!=null) {
+				T key = parseKey(parser, line);
+				records.add(new RecordIndex<T>(++lineNumber, key, line));
+				line = reader.readLine();
+			}
+		}
+		//Both are stable
+		if(records.size()>=getRadixThreshold() && isNumericKey()) {
+			radixSort(records);
+		}else {
+			Collections.sort(records);
+		}
+
+		SparseIndex partIndex = isPlainSortedFile()?new SparseIndex():null;
+		byte[] lineSeparator = System.getProperty("line.separator").getBytes(StandardCharsets.UTF_8);
+		try (CountingOutputStream out = new CountingOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(partFile)))) {
+			for(RecordIndex<T> record : records) {
+				if(partIndex!=null) {
+					partIndex.sample(record.getKey(), out.getCount());
+				}
+				out.write(record.getRecordBytes());
+				out.write(lineSeparator);
+			}
+		}
+		return partIndex;
+	}
+
+	/**
+	 * Sort a partition that does not fit its memory share by the index tree, spilled next to the partition
+	 * @param partFile partition file
+	 * @param memoryShare memory the partition may take, its memory budget
+	 * @return sparse index of the partition, or null when the sorted file is not indexed
+	 * @throws IOException
+	 * @see SortJob
+	 */
+	private SparseIndex sortPartitionByIndexTree(Path partFile, long memoryShare) throws IOException {
+		logger.info("Partition "+partFile.getFileName()+" is larger than "+memoryShare+" bytes, sorting it by the index tree");
+		ControllerBuilder builder = new ControllerBuilder()
+				.withKeyType(getKeyType())
+				.withKeyIndex(getKeyIndex())
+				.withBatchSize(getBatchSize());
+		if(getMemoryBudget()!=null) {
+			builder.withMemoryBudget(Math.max(1, memoryShare>>20));
+		}
+		Path sortedPart = partFile.resolveSibling(partFile.getFileName()+SORTED_PART_SUFFIX);
+		try (InputStream input = Files.newInputStream(partFile);
+				OutputStream output = new BufferedOutputStream(Files.newOutputStream(sortedPart))) {
+			new SortJob(builder).withTempDirectory(partFile.getParent()).sort(input, output);
+		}
+		Files.move(sortedPart, partFile, StandardCopyOption.REPLACE_EXISTING);
+		if(!isPlainSortedFile()) {
+			return null;
+		}
+		SparseIndex partIndex = new SparseIndex();
+		try (Utf8LineReader reader = new Utf8LineReader(partFile)) {
+			Utf8CsvParser parser = new Utf8CsvParser(createParser());
+			long offset = 0;
+			for(byte[] line = reader.readLine(); line!=null; line = reader.readLine()) {
+				partIndex.sample(parseKey(parser, line), offset);
+				offset = reader.getCount();
+			}
+		}
+		return partIndex;
+	}
+
+	/**
+	 * Copy the sorted partitions in key range order, the partition sparse indexes are
+	 * shifted by the partition offset
+	 * @param header the file header, or null
+	 * @param partFiles sorted partition files
+	 * @param partIndexes sparse index of every partition
+	 * @throws IOException
+	 */
+	private void concatenate(String header, List<Path> partFiles, List<SparseIndex> partIndexes) throws IOException {
+		//No index tree to append to
+		Files.deleteIfExists(getManifestFilePath());
+		SparseIndex sparseIndex = isPlainSortedFile()?new SparseIndex():null;
+		OutputStream fop = openSortedOutput();
+		boolean complete = false;
+		try {
+			CountingOutputStream out = new CountingOutputStream(fop);
+			if(header!=null) {
+				out.write(header.getBytes(StandardCharsets.UTF_8));
+				out.write(System.getProperty("line.separator").getBytes(StandardCharsets.UTF_8));
+			}
+			if(sparseIndex!=null) {
+				sparseIndex.setHeader(header);
+				sparseIndex.setDataOffset(out.getCount());
+			}
+			for(int i=0; i<partFiles.size(); i++) {
+				long partOffset = out.getCount();
+				SparseIndex partIndex = partIndexes.get(i);
+				if(sparseIndex!=null) {
+					for(int key=0; key<partIndex.size(); key++) {
+						sparseIndex.mark(partIndex.getKeys().get(key), partOffset+partIndex.getOffsets().get(key));
+					}
+				}
+				Files.copy(partFiles.get(i), out);
+			}
+			complete = true;
+		} finally {
+			closeSortedOutput(fop, complete);
+		}
+		saveSparseIndex(sparseIndex);
+	}
+
+	public int getParts() {
+		return parts;
+	}
+
+	public void setParts(int parts) {
+		this.parts = parts;
+	}
+}
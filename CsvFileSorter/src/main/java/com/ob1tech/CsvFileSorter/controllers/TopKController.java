@@ -0,0 +1,145 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import com.ob1tech.CsvFileSorter.algorithms.sort.MaxIndexedBinaryHeap;
+import com.ob1tech.CsvFileSorter.algorithms.sort.MinIndexedBinaryHeap;
+import com.ob1tech.CsvFileSorter.dateModel.RecordIndex;
+import com.ob1tech.CsvFileSorter.utils.Utf8CsvParser;
+import com.ob1tech.CsvFileSorter.utils.Utf8LineReader;
+
+/**
+ * <pre>
+ * TopKController writes only the first N records of the sorted file.
+ * The file is read once through a bounded heap of N records, no batch or index
+ * files are written and memory is O(N).
+ *
+ * N smallest	| a max heap, its root is the record to drop. Written ascending
+ * N largest	| a min heap, its root is the record to drop. Written descending
+ *
+ * Equal keys keep the records read first, written in read order. The largest records heap
+ * holds negated lines, so of equal keys the record read last is dropped first.
+ * </pre>
+ * @param <T> the type of the record key
+ * @see MaxIndexedBinaryHeap
+ */
+public class TopKController<T extends Comparable<T>> extends Controller<T> {
+
+	/**
+	 * Number of records to keep
+	 */
+	private int topK;
+
+	/**
+	 * Keep the largest records instead of the smallest
+	 */
+	private boolean largest;
+
+	/**
+	 * Constructor: Initioalization
+	 * Will be build by the {@link ControllerBuilder}
+	 */
+	protected TopKController() {
+		super();
+	}
+
+	/**
+	 * Read the file through the bounded heap and write the kept records
+	 * @throws UncheckedIOException when the file can not be read or the records written
+	 */
+	@Override
+	public void execute() {
+		long time = System.currentTimeMillis();
+		logger.info( "Start reading file for "+(largest?"largest ":"smallest ")+topK+" records..." );
+		//The heap requires at least 2
+		MinIndexedBinaryHeap<RecordIndex<T>> heap = largest
+				?new MinIndexedBinaryHeap<RecordIndex<T>>(Math.max(topK, 2))
+				:new MaxIndexedBinaryHeap<RecordIndex<T>>(Math.max(topK, 2));
+		byte[] header = null;
+		try (Utf8LineReader reader = new Utf8LineReader(getFilePath())) {
+			Utf8CsvParser parser = new Utf8CsvParser(createParser());
+			byte[] line = reader.readLine();
+			if(line!=null && isSkipHeader()) {
+				header = line;
+				line = reader.readLine();
+			}
+			long lineNumber = 0;
+			while(line!=null) {
+				T key = parseKey(parser, line);
+				++lineNumber;
+				RecordIndex<T> record = new RecordIndex<T>(largest?-lineNumber:lineNumber, key, line);
+				if(heap.size()<topK) {
+					heap.insert(record);
+				}else if(keep(record, heap.peekMinValue())) {
+					//Replace the record to drop
+					heap.update(heap.peekMinKeyIndex(), record);
+				}
+				line = reader.readLine();
+			}
+			logger.info("End reading file..."+(System.currentTimeMillis()-time)+" msc");
+			writeTopRecords(header, heap);
+		} catch (IOException e) {
+			logger.error("Error selecting the top records of "+getFilePath().getFileName(), e);
+			throw new UncheckedIOException(e);
+		}
+		logger.info("Done write sorted file! "+(System.currentTimeMillis()-time)+" msc");
+	}
+
+	/**
+	 * Equal keys keep the record read first
+	 * @param record new record
+	 * @param root the record to drop next
+	 * @return true if the record should replace the root
+	 */
+	private boolean keep(RecordIndex<T> record, RecordIndex<T> root) {
+		int compare = record.getKey().compareTo(root.getKey());
+		return largest?compare>0:compare<0;
+	}
+
+	/**
+	 * The heap polls the record to drop first, so the records are written in reverse polling order
+	 * @param header the file header, or null
+	 * @param heap the kept records
+	 * @throws IOException
+	 */
+	private void writeTopRecords(byte[] header, MinIndexedBinaryHeap<RecordIndex<T>> heap) throws IOException {
+		RecordIndex<T>[] records = RecordIndex.newArray(heap.size());
+		for(int i=records.length-1; i>=0; i--) {
+			records[i] = heap.pollMinValue();
+		}
+		OutputStream fop = openSortedOutput();
+		boolean complete = false;
+		try {
+			byte[] lineSeparator = System.getProperty("line.separator").getBytes();
+			if(header!=null) {
+				fop.write(header);
+				fop.write(lineSeparator);
+			}
+			for(RecordIndex<T> record : records) {
+				fop.write(record.getRecordBytes());
+				fop.write(lineSeparator);
+			}
+			complete = true;
+		} finally {
+			closeSortedOutput(fop, complete);
+		}
+	}
+
+	public int getTopK() {
+		return topK;
+	}
+
+	public void setTopK(int topK) {
+		this.topK = topK;
+	}
+
+	public boolean isLargest() {
+		return largest;
+	}
+
+	public void setLargest(boolean largest) {
+		this.largest = largest;
+	}
+}
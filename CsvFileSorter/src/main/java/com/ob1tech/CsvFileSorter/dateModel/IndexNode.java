@@ -17,6 +17,13 @@ public class IndexNode<T> extends AbstractDataNode<T> implements Serializable{
 	private Long leftNode;
 	@JsonProperty("rightNode")
 	private Long rightNode;
+	/**
+	 * In order neighbours of the node, the tree is threaded by them
+	 */
+	@JsonProperty("prevNode")
+	private Long prevNode;
+	@JsonProperty("nextNode")
+	private Long nextNode;
 	
 	
 	
@@ -60,5 +67,21 @@ public class IndexNode<T> extends AbstractDataNode<T> implements Serializable{
 	public void setRightNode(Long rightNode) {
 		this.rightNode = rightNode;
 	}
+
+	public Long getPrevNode() {
+		return prevNode;
+	}
+
+	public void setPrevNode(Long prevNode) {
+		this.prevNode = prevNode;
+	}
+
+	public Long getNextNode() {
+		return nextNode;
+	}
+
+	public void setNextNode(Long nextNode) {
+		this.nextNode = nextNode;
+	}
 	
 }
@@ -1,6 +1,6 @@
 package com.ob1tech.CsvFileSorter.dateModel;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -23,7 +23,17 @@ public class RecordBatchNode<T extends Comparable<T>>
 	public RecordBatchNode(long id) {
 		super(id);
 		this.setRecords(records);
-		records = new LinkedList<RecordIndex<T>>();
+		records = new ArrayList<RecordIndex<T>>();
+	}
+
+	/**
+	 * Constructor: a batch of a known number of records
+	 * @param id batch id
+	 * @param size expected number of records
+	 */
+	public RecordBatchNode(long id, int size) {
+		super(id);
+		records = new ArrayList<RecordIndex<T>>(size);
 	}
 
 	@Override
@@ -40,30 +50,24 @@ public class RecordBatchNode<T extends Comparable<T>>
 	 * Appending a new RecordIndex in and calculating the new min/max value sortKey
 	 * @param node
 	 */
-	@SuppressWarnings("unchecked")
 	public void insert(RecordIndex<T> node) {
-		T maxValue = null;
-		T minValue = null;
 		SortKey<T> key = getKey();
 		if(key==null) {
-			key = new SortKey<T>(minValue, maxValue);
+			key = new SortKey<T>(null, null);
 			setKey(key);
-		}else {
-			maxValue = (T) key.getMaxValue();
-			minValue = (T) key.getMinValue();
 		}
-		if(maxValue==null) {
-			minValue = maxValue = (T) node.getKey();
+		if(key.getMaxValue()==null) {
+			key.setMax(node);
+			key.setMin(node);
 		}else {
-			if(maxValue.compareTo((T) node.getKey())<0) {		
-				maxValue = (T) node.getKey();
+			Long line = node.getRecordLine();
+			if(SortKey.compare(key.getMaxValue(), key.getMaxLine(), node.getKey(), line)<0) {		
+				key.setMax(node);
 			}
-			if(minValue.compareTo((T) node.getKey())>0){
-				minValue = (T) node.getKey();
+			if(SortKey.compare(key.getMinValue(), key.getMinLine(), node.getKey(), line)>0){
+				key.setMin(node);
 			}
 		}
-		key.setMaxValue(maxValue);
-		key.setMinValue(minValue);
 
 		getRecords().add(node);
 		
@@ -77,6 +81,8 @@ public class RecordBatchNode<T extends Comparable<T>>
 		SortKey<T> key = getKey();
 		key.setMaxValue(null);
 		key.setMinValue(null);
+		key.setMaxLine(null);
+		key.setMinLine(null);
 	}
 
 	public List<RecordIndex<T>> getRecords() {
@@ -1,17 +1,25 @@
 package com.ob1tech.CsvFileSorter.dateModel;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.ob1tech.CsvFileSorter.serializer.Utf8TextSerializer;
 
 /**
- * This class represents RecordIndex data model
+ * This class represents RecordIndex data model.
+ * The record is kept as its UTF-8 line bytes, from the read to the write of the sorted file.
+ * Json holds it as text, written from the bytes as they are.
  * @author Madmon Tomer
  *
  * @param <T> record key type
  * @param String record key value
  *
  */
+@JsonAutoDetect(getterVisibility = Visibility.NONE, isGetterVisibility = Visibility.NONE)
 public class RecordIndex<T extends Comparable<T>> implements Comparable<RecordIndex<T>>, Serializable {
 
 	/**
@@ -23,7 +31,8 @@ public class RecordIndex<T extends Comparable<T>> implements Comparable<RecordIn
 	long recordLine;
 
 	@JsonProperty("record")
-	String record;
+	@JsonSerialize(using = Utf8TextSerializer.class)
+	byte[] record;
 
 	@JsonProperty("key")
 	T key;
@@ -33,7 +42,7 @@ public class RecordIndex<T extends Comparable<T>> implements Comparable<RecordIn
 		this.recordLine = recordLine;
 	}
 
-	public RecordIndex(long recordLine, T key, String record) {
+	public RecordIndex(long recordLine, T key, byte[] record) {
 		this.key = key;
 		this.recordLine = recordLine;
 		this.record = record;
@@ -44,9 +53,13 @@ public class RecordIndex<T extends Comparable<T>> implements Comparable<RecordIn
 		// TODO Auto-generated constructor stub
 	}
 
+	/**
+	 * Records are ordered by key, equal keys by line, so sorts keep the input order of equal keys
+	 */
 	@Override
 	public int compareTo(RecordIndex<T> o) {
-		return this.key.compareTo(o.key);
+		int compare = this.key.compareTo(o.key);
+		return compare!=0?compare:Long.compare(recordLine, o.recordLine);
 	}
 	
 	@Override
@@ -54,6 +67,16 @@ public class RecordIndex<T extends Comparable<T>> implements Comparable<RecordIn
 		return "" + key;
 	}
 
+	/**
+	 * Create a typed array of records, java has no generic array creation
+	 * @param size array length
+	 * @return an empty array of records
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Comparable<T>> RecordIndex<T>[] newArray(int size) {
+		return (RecordIndex<T>[]) new RecordIndex<?>[size];
+	}
+
 	public T getKey() {
 		return key;
 	}
@@ -70,11 +93,26 @@ public class RecordIndex<T extends Comparable<T>> implements Comparable<RecordIn
 		this.recordLine = recordLine;
 	}
 
+	/**
+	 * @return the record decoded, null if not set
+	 * @see #getRecordBytes()
+	 */
 	public String getRecord() {
-		return record;
+		return record==null?null:new String(record, StandardCharsets.UTF_8);
 	}
 
 	public void setRecord(String record) {
+		this.record = record==null?null:record.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the record UTF-8 bytes, null if not set
+	 */
+	public byte[] getRecordBytes() {
+		return record;
+	}
+
+	public void setRecordBytes(byte[] record) {
 		this.record = record;
 	}
 	
@@ -4,6 +4,8 @@ package com.ob1tech.CsvFileSorter.dateModel;
  * It contains the sorting logic witch means that a batch is
  * highr only if alll its inner components are higher then the other, same as lower
  * otherwise will calculated as compared {@link #compareTo(SortKey)}.
+ * Equal keys are ordered by their record line, so batches of a single repeated key
+ * are still strictly ordered and sorts keep the input order of equal keys.
  * @author Madmon Tomer
  *
  * @param <T>
@@ -13,12 +15,31 @@ public class SortKey<T> implements Comparable<SortKey<T>> {
 	private Comparable<T> maxValue;
 	private Comparable<T> minValue;
 
+	/**
+	 * Lines of the max and min records. Null for keys persisted without them, their equal keys are mixed
+	 */
+	private Long maxLine;
+	private Long minLine;
+
 	public SortKey(Comparable<T> minValue, Comparable<T> maxValue) {
 		super();
 		this.maxValue = maxValue;
 		this.minValue = minValue;
 	}
 
+	/**
+	 * Constructor: the range of records from the min record to the max record
+	 * @param minValue min record key
+	 * @param minLine min record line
+	 * @param maxValue max record key
+	 * @param maxLine max record line
+	 */
+	public SortKey(Comparable<T> minValue, Long minLine, Comparable<T> maxValue, Long maxLine) {
+		this(minValue, maxValue);
+		this.minLine = minLine;
+		this.maxLine = maxLine;
+	}
+
 
 	@Override
 	public String toString() {
@@ -31,17 +52,33 @@ public class SortKey<T> implements Comparable<SortKey<T>> {
 	 * A sort key is only smaller if bouth min and max are smaller.
 	 * Otherwise it is considered equal and the program should deel with that.
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public int compareTo(SortKey<T> o) {
-		if(minValue.compareTo((T) ((SortKey<T>)o).getMaxValue())>0) {
+		if(compare(minValue, minLine, o.getMaxValue(), o.getMaxLine())>0) {
 			return 1;			
-		} else if(maxValue.compareTo((T) ((SortKey<T>)o).getMinValue())<0) {
+		} else if(compare(maxValue, maxLine, o.getMinValue(), o.getMinLine())<0) {
 			return -1;			
 		}
 		
 		return 0;
 	}
+
+	/**
+	 * Compare two records by key, equal keys by line when both lines are known
+	 * @param value record key
+	 * @param line record line, or null
+	 * @param other other record key
+	 * @param otherLine other record line, or null
+	 * @return the records order
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static int compare(Comparable value, Long line, Comparable other, Long otherLine) {
+		int compare = value.compareTo(other);
+		if(compare!=0 || line==null || otherLine==null) {
+			return compare;
+		}
+		return Long.compare(line, otherLine);
+	}
 	
 
 	public Comparable<T> getMaxValue() {
@@ -60,4 +97,40 @@ public class SortKey<T> implements Comparable<SortKey<T>> {
 		this.minValue = minValue;
 	}
 
+	public Long getMaxLine() {
+		return maxLine;
+	}
+
+	public void setMaxLine(Long maxLine) {
+		this.maxLine = maxLine;
+	}
+
+	public Long getMinLine() {
+		return minLine;
+	}
+
+	public void setMinLine(Long minLine) {
+		this.minLine = minLine;
+	}
+
+	/**
+	 * Set the max record of the range
+	 * @param record max record
+	 */
+	@SuppressWarnings("unchecked")
+	public void setMax(RecordIndex<?> record) {
+		setMaxValue((Comparable<T>) record.getKey());
+		setMaxLine(record.getRecordLine());
+	}
+
+	/**
+	 * Set the min record of the range
+	 * @param record min record
+	 */
+	@SuppressWarnings("unchecked")
+	public void setMin(RecordIndex<?> record) {
+		setMinValue((Comparable<T>) record.getKey());
+		setMinLine(record.getRecordLine());
+	}
+
 }
@@ -0,0 +1,102 @@
+package com.ob1tech.CsvFileSorter.dateModel;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class represents the state of a finished sort, saved next to the working file.
+ * With the index files and the batch container it allows to append records to the
+ * sorted file without sorting the history again.
+ *
+ * outputRanges maps a batch id to its [offset, length] in the sorted file, so batches
+ * that were not changed by an append are copied from the previous sorted file.
+ */
+public class SortManifest implements Serializable {
+
+	private static final long serialVersionUID = -3107362254879102547L;
+
+	/**
+	 * Manifest file name saffix
+	 */
+	public static final String MANIFEST_SUFFIX = ".mnf";
+
+	@JsonProperty("keyDataType")
+	private String keyDataType;
+
+	@JsonProperty("keyIndex")
+	private int keyIndex;
+
+	@JsonProperty("header")
+	private String header;
+
+	@JsonProperty("treeSize")
+	private long treeSize;
+
+	@JsonProperty("lineCount")
+	private long lineCount;
+
+	@JsonProperty("sortedFileSize")
+	private long sortedFileSize;
+
+	@JsonProperty("outputRanges")
+	private Map<Long, long[]> outputRanges = new LinkedHashMap<Long, long[]>();
+
+	public String getKeyDataType() {
+		return keyDataType;
+	}
+
+	public void setKeyDataType(String keyDataType) {
+		this.keyDataType = keyDataType;
+	}
+
+	public int getKeyIndex() {
+		return keyIndex;
+	}
+
+	public void setKeyIndex(int keyIndex) {
+		this.keyIndex = keyIndex;
+	}
+
+	public String getHeader() {
+		return header;
+	}
+
+	public void setHeader(String header) {
+		this.header = header;
+	}
+
+	public long getTreeSize() {
+		return treeSize;
+	}
+
+	public void setTreeSize(long treeSize) {
+		this.treeSize = treeSize;
+	}
+
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	public void setLineCount(long lineCount) {
+		this.lineCount = lineCount;
+	}
+
+	public long getSortedFileSize() {
+		return sortedFileSize;
+	}
+
+	public void setSortedFileSize(long sortedFileSize) {
+		this.sortedFileSize = sortedFileSize;
+	}
+
+	public Map<Long, long[]> getOutputRanges() {
+		return outputRanges;
+	}
+
+	public void setOutputRanges(Map<Long, long[]> outputRanges) {
+		this.outputRanges = outputRanges;
+	}
+}
@@ -0,0 +1,82 @@
+package com.ob1tech.CsvFileSorter.dateModel;
+
+import java.io.Serializable;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class is the sort specification a coordinator sends to a sort worker,
+ * ahead of the partition records.
+ * The records are sent without a header, the coordinator keeps it.
+ * @see com.ob1tech.CsvFileSorter.SortWorker
+ */
+public class SortTask implements Serializable {
+
+	private static final long serialVersionUID = 4410582371925183061L;
+
+	@JsonProperty("keyType")
+	private String keyType;
+
+	@JsonProperty("keyIndex")
+	private int keyIndex;
+
+	@JsonProperty("batchSize")
+	private int batchSize;
+
+	@JsonProperty("memoryBudget")
+	private long memoryBudget;
+
+	@JsonProperty("sampleSort")
+	private boolean sampleSort;
+
+	@JsonProperty("parts")
+	private int parts;
+
+	public String getKeyType() {
+		return keyType;
+	}
+
+	public void setKeyType(String keyType) {
+		this.keyType = keyType;
+	}
+
+	public int getKeyIndex() {
+		return keyIndex;
+	}
+
+	public void setKeyIndex(int keyIndex) {
+		this.keyIndex = keyIndex;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public boolean isSampleSort() {
+		return sampleSort;
+	}
+
+	public void setSampleSort(boolean sampleSort) {
+		this.sampleSort = sampleSort;
+	}
+
+	public int getParts() {
+		return parts;
+	}
+
+	public void setParts(int parts) {
+		this.parts = parts;
+	}
+}
@@ -0,0 +1,160 @@
+package com.ob1tech.CsvFileSorter.dateModel;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This class is a sparse index of a sorted file, saved next to it.
+ * Every {@link #interval}th record key is kept with the byte offset of its row, so a key
+ * lookup binary searches the keys and reads the sorted file from the offset found,
+ * at most an interval of rows before the first requested one.
+ *
+ * Keys are kept as text and parsed back by the key data type.
+ * A batch copied as a whole by an append has its first key marked, the index stays
+ * sorted but not evenly spaced.
+ */
+public class SparseIndex implements Serializable {
+
+	private static final long serialVersionUID = 6021735184302278163L;
+
+	/**
+	 * Sparse index file name saffix, of the sorted file
+	 */
+	public static final String INDEX_SUFFIX = ".idx";
+
+	/**
+	 * Default number of records between kept keys
+	 */
+	public static final int DEFAULT_INTERVAL = 1024;
+
+	@JsonProperty("keyDataType")
+	private String keyDataType;
+
+	@JsonProperty("keyIndex")
+	private int keyIndex;
+
+	@JsonProperty("interval")
+	private int interval = DEFAULT_INTERVAL;
+
+	@JsonProperty("header")
+	private String header;
+
+	/**
+	 * Offset of the first record, after the header
+	 */
+	@JsonProperty("dataOffset")
+	private long dataOffset;
+
+	@JsonProperty("sortedFileSize")
+	private long sortedFileSize;
+
+	@JsonProperty("keys")
+	private List<String> keys = new ArrayList<String>();
+
+	@JsonProperty("offsets")
+	private List<Long> offsets = new ArrayList<Long>();
+
+	/**
+	 * Records since the last kept key
+	 */
+	@JsonIgnore
+	private int sinceLast;
+
+	/**
+	 * Count a record, its key is kept every {@link #interval} records
+	 * @param key record key
+	 * @param offset offset of the record row
+	 */
+	public void sample(Object key, long offset) {
+		if(sinceLast==0) {
+			mark(key, offset);
+		}
+		sinceLast = (sinceLast+1)%interval;
+	}
+
+	/**
+	 * Keep the key of a record, the next records are counted from it
+	 * @param key record key
+	 * @param offset offset of the record row
+	 */
+	public void mark(Object key, long offset) {
+		keys.add(key.toString());
+		offsets.add(offset);
+		sinceLast = 1%interval;
+	}
+
+	/**
+	 * @return number of kept keys
+	 */
+	public int size() {
+		return keys.size();
+	}
+
+	public String getKeyDataType() {
+		return keyDataType;
+	}
+
+	public void setKeyDataType(String keyDataType) {
+		this.keyDataType = keyDataType;
+	}
+
+	public int getKeyIndex() {
+		return keyIndex;
+	}
+
+	public void setKeyIndex(int keyIndex) {
+		this.keyIndex = keyIndex;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public void setInterval(int interval) {
+		this.interval = interval;
+	}
+
+	public String getHeader() {
+		return header;
+	}
+
+	public void setHeader(String header) {
+		this.header = header;
+	}
+
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	public void setDataOffset(long dataOffset) {
+		this.dataOffset = dataOffset;
+	}
+
+	public long getSortedFileSize() {
+		return sortedFileSize;
+	}
+
+	public void setSortedFileSize(long sortedFileSize) {
+		this.sortedFileSize = sortedFileSize;
+	}
+
+	public List<String> getKeys() {
+		return keys;
+	}
+
+	public void setKeys(List<String> keys) {
+		this.keys = keys;
+	}
+
+	public List<Long> getOffsets() {
+		return offsets;
+	}
+
+	public void setOffsets(List<Long> offsets) {
+		this.offsets = offsets;
+	}
+}
@@ -1,13 +1,17 @@
 package com.ob1tech.CsvFileSorter.deserializer;
 
+import java.io.IOException;
+
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.ob1tech.CsvFileSorter.dateModel.SortKey;
+import com.ob1tech.CsvFileSorter.keys.ByteKey;
 
 /**
- * This an abstract deserializer that implements only the skort ke deserialization
+ * This an abstract deserializer that implements only the skort ke deserialization.
+ * Deserializers consume the parser tokens as they come, no json tree is built
  * @author Madmon Tomer
  *
  * @param <T> key data type
@@ -34,31 +38,108 @@ public abstract class AbstractDeserializer<T, N> extends StdDeserializer<N> {
 	@Override
     public abstract N deserialize(JsonParser parser, DeserializationContext deserializer);
 
+	/**
+	 * Read a sort key object, the parser is at its start
+	 * @param parser json tokens
+	 * @return the sort key, null for a json null
+	 * @throws IOException
+	 */
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	protected SortKey<T> getIndexKeyByType(JsonNode node) {
-
-		JsonNode vMaxNode = node.get("maxValue");
-		JsonNode vMinNode = node.get("minValue");
-		SortKey ik;
-		if(String.class.getTypeName().equals(keyType)) {
-			ik = new SortKey<String>(vMinNode.asText(), vMaxNode.asText());
-			return ik;
+	protected SortKey<T> readSortKey(JsonParser parser) throws IOException {
+		if(parser.getCurrentToken()!=JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return null;
 		}
-		if(Double.class.getTypeName().equals(keyType)) {
-			ik = new SortKey<Double>(vMinNode.asDouble(), vMaxNode.asDouble());
-			return ik;
+		Comparable minValue = null;
+		Comparable maxValue = null;
+		Long minLine = null;
+		Long maxLine = null;
+		for(JsonToken token = parser.nextToken(); token==JsonToken.FIELD_NAME; token = parser.nextToken()) {
+			String field = parser.getCurrentName();
+			parser.nextToken();
+			switch(field) {
+			case "minValue": minValue = readKey(parser); break;
+			case "maxValue": maxValue = readKey(parser); break;
+			case "minLine": minLine = readLine(parser); break;
+			case "maxLine": maxLine = readLine(parser); break;
+			default: parser.skipChildren(); break;
+			}
 		}
-		ik = new SortKey<Long>(vMinNode.asLong(), vMaxNode.asLong());
-		return ik;
+		return new SortKey(minValue, minLine, maxValue, maxLine);
 	}
 
-	public Comparable<?> getByType(JsonNode node) {
+	/**
+	 * Read a record line, the parser is at the value
+	 * @param parser json tokens
+	 * @return the line, null for a json null
+	 * @throws IOException
+	 */
+	private static Long readLine(JsonParser parser) throws IOException {
+		return parser.getCurrentToken()==JsonToken.VALUE_NULL?null:parser.getValueAsLong();
+	}
+
+	/**
+	 * Read a key value by the key type, the parser is at the value
+	 * @param parser json tokens
+	 * @return the key, null for a json null
+	 * @throws IOException
+	 */
+	public Comparable<?> readKey(JsonParser parser) throws IOException {
+		if(parser.getCurrentToken()==JsonToken.VALUE_NULL) {
+			return null;
+		}
 		if(String.class.getTypeName().equals(keyType)) {
-			return node.asText();
+			return parser.getText();
 		}
 		if(Double.class.getTypeName().equals(keyType)) {
-			return node.asDouble();
+			return parser.getValueAsDouble();
+		}
+		if(keyType!=null && keyType.startsWith(ByteKey.class.getTypeName())) {
+			return readByteKey(parser);
 		}
-		return node.asLong();
+		return parser.getValueAsLong();
+	}
+
+	/**
+	 * Read a collated string key, its persisted sort bytes are not computed again
+	 * @param parser json tokens, at the key object start
+	 * @return the key
+	 * @throws IOException
+	 * @see com.ob1tech.CsvFileSorter.keys.KeyParser
+	 */
+	protected ByteKey readByteKey(JsonParser parser) throws IOException {
+		byte[] bytes = null;
+		String text = null;
+		for(JsonToken token = parser.nextToken(); token==JsonToken.FIELD_NAME; token = parser.nextToken()) {
+			String field = parser.getCurrentName();
+			parser.nextToken();
+			switch(field) {
+			case "bytes": bytes = parser.getBinaryValue(); break;
+			case "text": text = parser.getText(); break;
+			default: parser.skipChildren(); break;
+			}
+		}
+		return new ByteKey(bytes, text);
+	}
+
+	/**
+	 * Read a nullable long value, the parser is at the value
+	 * @param parser json tokens
+	 * @return the value, null for a json null
+	 * @throws IOException
+	 */
+	protected Long readLong(JsonParser parser) throws IOException {
+		return parser.getCurrentToken()==JsonToken.VALUE_NULL?null:parser.getValueAsLong();
+	}
+
+	/**
+	 * Move the parser to the first field name of an object
+	 * @param parser json tokens, at the object start or at its first field
+	 * @return the current token
+	 * @throws IOException
+	 */
+	protected JsonToken firstField(JsonParser parser) throws IOException {
+		JsonToken token = parser.getCurrentToken();
+		return token==JsonToken.START_OBJECT?parser.nextToken():token;
 	}
-}
\ No newline at end of file
+}
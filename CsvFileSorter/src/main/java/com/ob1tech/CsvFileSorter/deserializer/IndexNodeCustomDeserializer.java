@@ -1,9 +1,8 @@
 package com.ob1tech.CsvFileSorter.deserializer;
 
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.ob1tech.CsvFileSorter.dateModel.IndexNode;
 import com.ob1tech.CsvFileSorter.dateModel.SortKey;
 
@@ -34,22 +33,29 @@ public class IndexNodeCustomDeserializer<T extends Comparable<T>> extends Abstra
     public IndexNode<T> deserialize(JsonParser parser, DeserializationContext deserializer) {
     	IndexNode<T> indexNode = null;
         try {
-        	ObjectCodec codec = parser.getCodec();
-	        JsonNode node = codec.readTree(parser);		         
-	        
-	        JsonNode vNode = node.get("id");
-			Long id = vNode.isNull()?null:vNode.asLong();
-			
-			vNode = node.get("leftNode");
-			Long leftNode = vNode.isNull()?null:vNode.asLong();
-			
-			vNode = node.get("rightNode");
-			Long rightNode = vNode.isNull()?null:vNode.asLong();
-			
-			vNode = node.get("key");
-			SortKey<T> indexKey = getIndexKeyByType(vNode);
+        	Long id = null;
+        	Long leftNode = null;
+        	Long rightNode = null;
+        	Long prevNode = null;
+        	Long nextNode = null;
+        	SortKey<T> indexKey = null;
+        	for(JsonToken token = firstField(parser); token==JsonToken.FIELD_NAME; token = parser.nextToken()) {
+        		String field = parser.getCurrentName();
+        		parser.nextToken();
+        		switch(field) {
+        		case "id": id = readLong(parser); break;
+        		case "leftNode": leftNode = readLong(parser); break;
+        		case "rightNode": rightNode = readLong(parser); break;
+        		case "prevNode": prevNode = readLong(parser); break;
+        		case "nextNode": nextNode = readLong(parser); break;
+        		case "key": indexKey = readSortKey(parser); break;
+        		default: parser.skipChildren(); break;
+        		}
+        	}
 	        
 	        indexNode = new IndexNode<T>(id, indexKey, leftNode, rightNode);
+	        indexNode.setPrevNode(prevNode);
+	        indexNode.setNextNode(nextNode);
 	        
 		} catch (Exception e) {
 			// TODO Auto-generated catch block
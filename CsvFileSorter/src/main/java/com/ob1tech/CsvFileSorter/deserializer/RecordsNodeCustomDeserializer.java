@@ -1,13 +1,13 @@
 package com.ob1tech.CsvFileSorter.deserializer;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.ob1tech.CsvFileSorter.dateModel.RecordBatchNode;
 import com.ob1tech.CsvFileSorter.dateModel.RecordIndex;
 import com.ob1tech.CsvFileSorter.dateModel.SortKey;
@@ -39,40 +39,22 @@ public class RecordsNodeCustomDeserializer<T extends Comparable<T>> extends Abst
     public RecordBatchNode<T> deserialize(JsonParser parser, DeserializationContext deserializer) {
     	RecordBatchNode<T> recordsNode = null;
         try {
-        	ObjectCodec codec = parser.getCodec();
-	        JsonNode node = codec.readTree(parser);		         
-	        
-	        JsonNode vNode = node.get("id");
-			Long id = vNode.isNull()?null:vNode.asLong();
-			/*
-			vNode = node.get("leftNode");
-			Long leftNode = vNode.isNull()?null:vNode.asLong();
-			
-			vNode = node.get("rightNode");
-			Long rightNode = vNode.isNull()?null:vNode.asLong();
-			*/
-			vNode = node.get("key");
-			SortKey<T> indexKey = getIndexKeyByType(vNode);
-	        
-	        JsonNode keyNLineNode = node.get("records");
-			List<RecordIndex<T>> records = new LinkedList<RecordIndex<T>>();
-			Iterator<JsonNode> elements = keyNLineNode.elements();
-			while(elements.hasNext()) {
-				JsonNode next = elements.next();
-				JsonNode keyNode = next.get("key");
-				Comparable<?> key = getByType(keyNode);
-				JsonNode recordLineNode = next.get("recordLine");
-				long recordLine = recordLineNode.asLong();
-				JsonNode recordNode = next.get("record");
-				String record = recordNode.asText();
-				RecordIndex<T> entry = new RecordIndex<T>(recordLine, (T) key, record);
-				records.add((RecordIndex<T>) entry);
-			}
+        	Long id = null;
+        	SortKey<T> indexKey = null;
+        	List<RecordIndex<T>> records = new ArrayList<RecordIndex<T>>();
+        	for(JsonToken token = firstField(parser); token==JsonToken.FIELD_NAME; token = parser.nextToken()) {
+        		String field = parser.getCurrentName();
+        		parser.nextToken();
+        		switch(field) {
+        		case "id": id = readLong(parser); break;
+        		case "key": indexKey = readSortKey(parser); break;
+        		case "records": readRecords(parser, records); break;
+        		default: parser.skipChildren(); break;
+        		}
+        	}
 			recordsNode = new RecordBatchNode<T>(id);
 	    	
 			recordsNode.setKey(indexKey);
-			/*recordsNode.setLeftNode(leftNode);
-			recordsNode.setRightNode(rightNode);*/
 	        recordsNode.setRecords(records);
 	        
 		} catch (Exception e) {
@@ -81,4 +63,58 @@ public class RecordsNodeCustomDeserializer<T extends Comparable<T>> extends Abst
 		}
         return recordsNode;
     }
-}
\ No newline at end of file
+
+	/**
+	 * Read the records array, the parser is at its start
+	 * @param parser json tokens
+	 * @param records read records
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	private void readRecords(JsonParser parser, List<RecordIndex<T>> records) throws IOException {
+		if(parser.getCurrentToken()!=JsonToken.START_ARRAY) {
+			parser.skipChildren();
+			return;
+		}
+		while(parser.nextToken()==JsonToken.START_OBJECT) {
+			long recordLine = 0;
+			byte[] record = null;
+			Comparable<?> key = null;
+			for(JsonToken token = parser.nextToken(); token==JsonToken.FIELD_NAME; token = parser.nextToken()) {
+				String field = parser.getCurrentName();
+				parser.nextToken();
+				switch(field) {
+				case "recordLine": recordLine = parser.getValueAsLong(); break;
+				case "record": record = readRecord(parser); break;
+				case "key": key = readKey(parser); break;
+				default: parser.skipChildren(); break;
+				}
+			}
+			records.add(new RecordIndex<T>(recordLine, (T) key, record));
+		}
+	}
+
+	/**
+	 * Read a record text as UTF-8 bytes, ASCII text is copied from the parser characters without a string
+	 * @param parser json tokens, at the record value
+	 * @return the record bytes, null for a json null
+	 * @throws IOException
+	 */
+	private static byte[] readRecord(JsonParser parser) throws IOException {
+		if(parser.getCurrentToken()==JsonToken.VALUE_NULL) {
+			return null;
+		}
+		char[] text = parser.getTextCharacters();
+		int offset = parser.getTextOffset();
+		int length = parser.getTextLength();
+		byte[] record = new byte[length];
+		for(int i=0; i<length; i++) {
+			char c = text[offset+i];
+			if(c>=0x80) {
+				return parser.getText().getBytes(StandardCharsets.UTF_8);
+			}
+			record[i] = (byte) c;
+		}
+		return record;
+	}
+}
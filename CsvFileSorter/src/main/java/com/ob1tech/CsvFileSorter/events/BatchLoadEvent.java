@@ -0,0 +1,26 @@
+package com.ob1tech.CsvFileSorter.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Reading and deserializing a batch, from the batch container or from its pending write
+ * @see SortEvents
+ */
+@Name(SortEvents.PREFIX+"BatchLoad")
+@Label("Batch Load")
+@Category({SortEvents.CATEGORY, "Batch"})
+@Description("Reading a batch from the batch container")
+@StackTrace(false)
+public class BatchLoadEvent extends Event {
+
+	@Label("Batch Id")
+	public long batchId;
+
+	@Label("Records")
+	public int records;
+}
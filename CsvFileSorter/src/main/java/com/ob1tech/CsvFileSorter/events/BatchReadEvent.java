@@ -0,0 +1,31 @@
+package com.ob1tech.CsvFileSorter.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Reading the records of a batch from the input. Fired by the {@link com.ob1tech.CsvFileSorter.controllers.Controller}
+ * @see SortEvents
+ */
+@Name(SortEvents.PREFIX+"BatchRead")
+@Label("Batch Read")
+@Category({SortEvents.CATEGORY, "Batch"})
+@Description("Reading the records of a batch from the input")
+@StackTrace(false)
+public class BatchReadEvent extends Event {
+
+	@Label("Batch Id")
+	public long batchId;
+
+	@Label("Records")
+	public int records;
+
+	@Label("Bytes")
+	@DataAmount(DataAmount.BYTES)
+	public long bytes;
+}
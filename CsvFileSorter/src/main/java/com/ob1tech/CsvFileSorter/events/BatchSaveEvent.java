@@ -0,0 +1,26 @@
+package com.ob1tech.CsvFileSorter.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Serializing a batch to the batch container, the write itself is done behind
+ * @see SortEvents
+ */
+@Name(SortEvents.PREFIX+"BatchSave")
+@Label("Batch Save")
+@Category({SortEvents.CATEGORY, "Batch"})
+@Description("Serializing a batch to the batch container, written behind")
+@StackTrace(false)
+public class BatchSaveEvent extends Event {
+
+	@Label("Batch Id")
+	public long batchId;
+
+	@Label("Records")
+	public int records;
+}
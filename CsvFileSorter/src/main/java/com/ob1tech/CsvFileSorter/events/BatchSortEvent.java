@@ -0,0 +1,30 @@
+package com.ob1tech.CsvFileSorter.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Sorting the records of a batch in memory, by the algorithm picked for it
+ * @see SortEvents
+ */
+@Name(SortEvents.PREFIX+"BatchSort")
+@Label("Batch Sort")
+@Category({SortEvents.CATEGORY, "Batch"})
+@Description("Sorting the records of a batch in memory")
+@StackTrace(false)
+public class BatchSortEvent extends Event {
+
+	@Label("Batch Id")
+	public long batchId;
+
+	@Label("Records")
+	public int records;
+
+	@Label("Algorithm")
+	@Description("run, reversed, parallel, radix or heap")
+	public String algorithm;
+}
@@ -0,0 +1,37 @@
+package com.ob1tech.CsvFileSorter.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Merging the records of two mixed batches and splitting them back.
+ * Includes loading and saving both batches
+ * @see SortEvents
+ */
+@Name(SortEvents.PREFIX+"InnerSwap")
+@Label("Inner Swap")
+@Category({SortEvents.CATEGORY, "Index"})
+@Description("Merging the records of two mixed batches and splitting them back")
+@StackTrace(false)
+public class InnerSwapEvent extends Event {
+
+	@Label("Lower Batch Id")
+	public long lowerId;
+
+	@Label("Higher Batch Id")
+	public long higherId;
+
+	@Label("Lower Records")
+	public int lowerRecords;
+
+	@Label("Higher Records")
+	public int higherRecords;
+
+	@Label("Moved Records")
+	@Description("Records that changed their batch")
+	public int moved;
+}
@@ -0,0 +1,35 @@
+package com.ob1tech.CsvFileSorter.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Writing the records of a batch to the sorted output, or copying them on append
+ * @see SortEvents
+ */
+@Name(SortEvents.PREFIX+"OutputWrite")
+@Label("Output Write")
+@Category({SortEvents.CATEGORY, "Output"})
+@Description("Writing the records of a batch to the sorted output")
+@StackTrace(false)
+public class OutputWriteEvent extends Event {
+
+	@Label("Batch Id")
+	public long batchId;
+
+	@Label("Records")
+	public int records;
+
+	@Label("Bytes")
+	@DataAmount(DataAmount.BYTES)
+	public long bytes;
+
+	@Label("Copied")
+	@Description("Copied from the previous sorted file")
+	public boolean copied;
+}
@@ -0,0 +1,35 @@
+package com.ob1tech.CsvFileSorter.events;
+
+/**
+ * <pre>
+ * Java Flight Recorder events of the sorter, recorded by any recording, for example:
+ * java -XX:StartFlightRecording=filename=sort.jfr -jar csvFileSort.jar MOCK_DATA.csv -head
+ *
+ * SortPhase		| read, finalize and write phases, where the seconds went
+ * BatchRead		| reading the records of a batch
+ * BatchSort		| sorting a batch in memory
+ * BatchSave/Load	| batch container writes and reads
+ * TreeInsert		| indexing a batch, its depth and swaps
+ * InnerSwap		| merging two mixed batches
+ * OutputWrite		| writing a batch to the sorted output
+ *
+ * Events are fired per batch, never per record. Without a recording an event is a
+ * disabled check the JIT removes, with its allocation.
+ * Requires the jdk.jfr module of Java 11, the declared minimum.
+ * </pre>
+ */
+public final class SortEvents {
+
+	/**
+	 * Event names prefix
+	 */
+	public static final String PREFIX = "com.ob1tech.CsvFileSorter.";
+
+	/**
+	 * Top category of the events
+	 */
+	public static final String CATEGORY = "CsvFileSorter";
+
+	private SortEvents() {
+	}
+}
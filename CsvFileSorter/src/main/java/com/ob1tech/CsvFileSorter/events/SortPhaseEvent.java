@@ -0,0 +1,32 @@
+package com.ob1tech.CsvFileSorter.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A whole phase of the sort, from its start to the start of the next phase.
+ * Fired by the {@link com.ob1tech.CsvFileSorter.progress.ProgressTracker}
+ * @see SortEvents
+ */
+@Name(SortEvents.PREFIX+"SortPhase")
+@Label("Sort Phase")
+@Category({SortEvents.CATEGORY, "Sort"})
+@Description("A phase of the sort, as reported to the progress listeners")
+@StackTrace(false)
+public class SortPhaseEvent extends Event {
+
+	@Label("Phase")
+	public String phase;
+
+	@Label("Rows")
+	public long rows;
+
+	@Label("Bytes")
+	@DataAmount(DataAmount.BYTES)
+	public long bytes;
+}
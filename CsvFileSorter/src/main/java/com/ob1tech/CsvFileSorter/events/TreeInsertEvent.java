@@ -0,0 +1,35 @@
+package com.ob1tech.CsvFileSorter.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Adding a batch index node to the index tree, including the inner swaps on the way
+ * @see SortEvents
+ */
+@Name(SortEvents.PREFIX+"TreeInsert")
+@Label("Tree Insert")
+@Category({SortEvents.CATEGORY, "Index"})
+@Description("Adding a batch index node to the index tree")
+@StackTrace(false)
+public class TreeInsertEvent extends Event {
+
+	@Label("Node Id")
+	public long nodeId;
+
+	@Label("Depth")
+	@Description("Nodes passed on the way to its leaf")
+	public int depth;
+
+	@Label("Swaps")
+	@Description("Inner swaps of mixed batches on the way")
+	public int swaps;
+
+	@Label("Edge")
+	@Description("Appended to a tree edge, as a run of batches")
+	public boolean edge;
+}
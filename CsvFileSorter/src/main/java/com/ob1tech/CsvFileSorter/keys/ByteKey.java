@@ -0,0 +1,75 @@
+package com.ob1tech.CsvFileSorter.keys;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A string key compared by its precomputed sort bytes, unsigned and lexicographic.
+ * The bytes are computed once, when the key column is parsed, and persisted with the batches,
+ * so heaps, trees and merges only compare bytes.
+ * Keys of equal bytes are equal, whatever their text.
+ * The text is kept for the aggregation rows and the sparse index.
+ * @see KeyParser
+ */
+public class ByteKey implements Comparable<ByteKey>, Serializable {
+
+	private static final long serialVersionUID = -3140658409716931962L;
+
+	/**
+	 * Sort bytes, base64 in json
+	 */
+	@JsonProperty("bytes")
+	private byte[] bytes;
+
+	/**
+	 * The key column text
+	 */
+	@JsonProperty("text")
+	private String text;
+
+	public ByteKey(byte[] bytes, String text) {
+		this.bytes = bytes;
+		this.text = text;
+	}
+
+	@Override
+	public int compareTo(ByteKey o) {
+		byte[] other = o.bytes;
+		int length = Math.min(bytes.length, other.length);
+		for(int i=0; i<length; i++) {
+			int compare = (bytes[i] & 0xff) - (other[i] & 0xff);
+			if(compare!=0) {
+				return compare;
+			}
+		}
+		return bytes.length - other.length;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof ByteKey && Arrays.equals(bytes, ((ByteKey) obj).bytes);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(bytes);
+	}
+
+	/**
+	 * @return the key column text
+	 */
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public String getText() {
+		return text;
+	}
+}
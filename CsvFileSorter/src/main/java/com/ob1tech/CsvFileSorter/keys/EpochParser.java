@@ -0,0 +1,342 @@
+package com.ob1tech.CsvFileSorter.keys;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.chrono.IsoChronology;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Locale;
+
+/**
+ * <pre>
+ * EpochParser computes the long key of a date or timestamp key column, once per record:
+ *
+ * date:&lt;pattern&gt;	| epoch milliseconds, by a date time pattern, for example date:dd/MM/yyyy HH:mm
+ * timestamp		| epoch nanoseconds of an ISO-8601 date time, for example 2024-03-01T10:15:30.5+02:00
+ *
+ * Times without an offset or a zone are taken as UTC, so keys do not depend on the default time zone.
+ * A date pattern with a year and no day, for example date:yyyy-MM, is the first day of its month or year.
+ * A date pattern that does not resolve to a date or a time of day, for example date:MM-dd, is rejected.
+ * Keys are plain longs, persisted as json numbers and sorted like long keys.
+ * The keys data type name is the {@link Long} type name and the key type, so a sorted file
+ * is only appended to, or queried, by the same pattern.
+ * </pre>
+ * @see DateTimeFormatter
+ */
+public class EpochParser {
+
+	/**
+	 * Key type prefix of the date pattern keys
+	 */
+	public static final String DATE_PREFIX = "date:";
+
+	public static final String TIMESTAMP = "timestamp";
+
+	private static final long SECONDS_PER_DAY = 24*60*60;
+
+	private static final long MILLIS_PER_SECOND = 1000;
+
+	private static final long NANOS_PER_SECOND = 1000_000_000;
+
+	private static final long NANOS_PER_MILLI = 1000_000;
+
+	/**
+	 * ISO-8601 date, optionally followed by a 'T' or space separated time, an offset and a zone.
+	 * For example 2024-03-01, 2024-03-01 10:15 or 2024-03-01T10:15:30.123456789Z
+	 */
+	private static final DateTimeFormatter ISO_TIMESTAMP = new DateTimeFormatterBuilder()
+			.parseCaseInsensitive()
+			.append(DateTimeFormatter.ISO_LOCAL_DATE)
+			.optionalStart()
+			.optionalStart().appendLiteral('T').optionalEnd()
+			.optionalStart().appendLiteral(' ').optionalEnd()
+			.append(DateTimeFormatter.ISO_LOCAL_TIME)
+			.optionalStart().appendOffset("+HH:MM:ss", "Z").optionalEnd()
+			.optionalStart().appendOffset("+HHMM", "Z").optionalEnd()
+			.optionalStart().appendLiteral('[').parseCaseSensitive().appendZoneRegionId().appendLiteral(']').optionalEnd()
+			.optionalEnd()
+			.toFormatter(Locale.ROOT)
+			.withChronology(IsoChronology.INSTANCE)
+			.withResolverStyle(ResolverStyle.STRICT);
+
+	/**
+	 * The fixed layout parse did not match, the formatter parses
+	 */
+	private static final long NOT_PARSED = Long.MIN_VALUE;
+
+	/**
+	 * Formatted and parsed back by a date pattern, to check it resolves. All of its fields differ
+	 */
+	private static final Instant PATTERN_SAMPLE = Instant.parse("2001-02-03T04:05:06.007Z");
+
+	private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+	private final String keyType;
+
+	/**
+	 * Compiled once, formatters are immutable and thread safe
+	 */
+	private final DateTimeFormatter formatter;
+
+	/**
+	 * Epoch units per second, milliseconds for dates and nanoseconds for timestamps
+	 */
+	private final long unitsPerSecond;
+
+	/**
+	 * Constructor:
+	 * @param keyType date:&lt;pattern&gt; or timestamp
+	 * @throws IllegalArgumentException for an invalid pattern or key type
+	 */
+	public EpochParser(String keyType) {
+		this.keyType = keyType;
+		if(TIMESTAMP.equals(keyType)) {
+			formatter = ISO_TIMESTAMP;
+			unitsPerSecond = NANOS_PER_SECOND;
+		}else if(keyType.startsWith(DATE_PREFIX)) {
+			formatter = datePattern(keyType.substring(DATE_PREFIX.length()));
+			unitsPerSecond = MILLIS_PER_SECOND;
+			checkDatePattern();
+		}else {
+			throw new IllegalArgumentException("Unknown date key type "+keyType);
+		}
+	}
+
+	/**
+	 * Compile a date pattern, a missing month and day of a year are the first ones
+	 * @param pattern date time pattern
+	 * @return the pattern formatter
+	 * @throws IllegalArgumentException for an invalid pattern
+	 */
+	private static DateTimeFormatter datePattern(String pattern) {
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern(pattern, Locale.US);
+		TemporalAccessor sample = formatter.parse(formatter.withZone(ZoneOffset.UTC).format(PATTERN_SAMPLE));
+		if(!sample.isSupported(ChronoField.EPOCH_DAY) && sample.isSupported(ChronoField.YEAR)) {
+			formatter = new DateTimeFormatterBuilder()
+					.appendPattern(pattern)
+					.parseDefaulting(ChronoField.MONTH_OF_YEAR, 1)
+					.parseDefaulting(ChronoField.DAY_OF_MONTH, 1)
+					.toFormatter(Locale.US);
+		}
+		return formatter;
+	}
+
+	/**
+	 * A sample formatted by the date pattern must be parsed back to the same text,
+	 * otherwise the keys miss a field, for example a pattern without a year parses every date to 1970
+	 * @throws IllegalArgumentException when the pattern does not resolve to a date or a time of day
+	 */
+	private void checkDatePattern() {
+		String sample = format(PATTERN_SAMPLE.toEpochMilli());
+		String parsed;
+		try {
+			parsed = format(parse(sample));
+		} catch (DateTimeException e) {
+			throw new IllegalArgumentException("Date pattern of "+keyType+" can not parse its own dates, "+sample, e);
+		}
+		if(!sample.equals(parsed)) {
+			throw new IllegalArgumentException("Date pattern of "+keyType+" does not resolve to a date or a time of day, "
+					+sample+" is parsed as "+parsed);
+		}
+	}
+
+	/**
+	 * @param keyType the key type option
+	 * @return true for a date or timestamp key type
+	 */
+	public static boolean isEpoch(String keyType) {
+		return keyType!=null && (keyType.startsWith(DATE_PREFIX) || TIMESTAMP.equals(keyType));
+	}
+
+	/**
+	 * @param keyType a date or timestamp key type
+	 * @return the keys data type name
+	 */
+	public static String dataTypeOf(String keyType) {
+		return Long.class.getTypeName()+":"+keyType;
+	}
+
+	/**
+	 * @param keyDataType keys data type name
+	 * @return the parser of the date or timestamp keys, null for other key types
+	 */
+	public static EpochParser forDataType(String keyDataType) {
+		String prefix = Long.class.getTypeName()+":";
+		if(keyDataType==null || !keyDataType.startsWith(prefix)) {
+			return null;
+		}
+		return new EpochParser(keyDataType.substring(prefix.length()));
+	}
+
+	/**
+	 * @param text the key column text
+	 * @return epoch milliseconds of a date, epoch nanoseconds of a timestamp
+	 * @throws java.time.format.DateTimeParseException if the text does not match
+	 * @throws ArithmeticException if the time does not fit the epoch units
+	 */
+	public Long parse(String text) {
+		if(formatter==ISO_TIMESTAMP) {
+			long key = parseIso(text);
+			if(key!=NOT_PARSED) {
+				return key;
+			}
+		}
+		TemporalAccessor parsed = formatter.parse(text);
+		long seconds;
+		if(parsed.isSupported(ChronoField.INSTANT_SECONDS)) {
+			//An offset or a zone was given
+			seconds = parsed.getLong(ChronoField.INSTANT_SECONDS);
+		}else {
+			long day = parsed.isSupported(ChronoField.EPOCH_DAY)?parsed.getLong(ChronoField.EPOCH_DAY):0;
+			long second = parsed.isSupported(ChronoField.SECOND_OF_DAY)?parsed.getLong(ChronoField.SECOND_OF_DAY):0;
+			seconds = day*SECONDS_PER_DAY+second;
+		}
+		long nano = parsed.isSupported(ChronoField.NANO_OF_SECOND)?parsed.getLong(ChronoField.NANO_OF_SECOND):0;
+		long fraction = unitsPerSecond==NANOS_PER_SECOND?nano:nano/NANOS_PER_MILLI;
+		return Math.addExact(Math.multiplyExact(seconds, unitsPerSecond), fraction);
+	}
+
+	/**
+	 * Parse the common timestamp layout, yyyy-MM-dd['T'| ]HH:mm[:ss[.fraction]][Z|+HH:MM],
+	 * by its fixed positions, without allocating. Other layouts are left to the formatter
+	 * @param text the key column text
+	 * @return epoch nanoseconds or {@link #NOT_PARSED}
+	 */
+	private static long parseIso(String text) {
+		int length = text.length();
+		if(length<10 || text.charAt(4)!='-' || text.charAt(7)!='-') {
+			return NOT_PARSED;
+		}
+		int year = digits(text, 0, 4);
+		int month = digits(text, 5, 2);
+		int day = digits(text, 8, 2);
+		if(year<0 || month<1 || month>12 || day<1 || day>daysInMonth(year, month)) {
+			return NOT_PARSED;
+		}
+		long seconds = epochDay(year, month, day)*SECONDS_PER_DAY;
+		long nano = 0;
+		int position = 10;
+		if(position<length) {
+			char separator = text.charAt(position);
+			if(length<position+6 || (separator!='T' && separator!='t' && separator!=' ')
+					|| text.charAt(position+3)!=':') {
+				return NOT_PARSED;
+			}
+			int hour = digits(text, position+1, 2);
+			int minute = digits(text, position+4, 2);
+			int second = 0;
+			position += 6;
+			if(position<length && text.charAt(position)==':') {
+				second = digits(text, position+1, 2);
+				position += 3;
+				if(position<length && text.charAt(position)=='.') {
+					int start = ++position;
+					while(position<length && position-start<9 && isDigit(text.charAt(position))) {
+						nano = nano*10+(text.charAt(position++)-'0');
+					}
+					if(position==start) {
+						return NOT_PARSED;
+					}
+					for(int scale = position-start; scale<9; scale++) {
+						nano *= 10;
+					}
+				}
+			}
+			if(hour<0 || hour>23 || minute<0 || minute>59 || second<0 || second>59) {
+				return NOT_PARSED;
+			}
+			seconds += hour*3600+minute*60+second;
+			if(position<length) {
+				char offset = text.charAt(position);
+				if((offset=='Z' || offset=='z') && position+1==length) {
+					position++;
+				}else if((offset=='+' || offset=='-') && position+6==length && text.charAt(position+3)==':') {
+					int offsetHours = digits(text, position+1, 2);
+					int offsetMinutes = digits(text, position+4, 2);
+					if(offsetHours<0 || offsetHours>18 || offsetMinutes<0 || offsetMinutes>59) {
+						return NOT_PARSED;
+					}
+					int offsetSeconds = offsetHours*3600+offsetMinutes*60;
+					seconds -= offset=='+'?offsetSeconds:-offsetSeconds;
+					position = length;
+				}else {
+					return NOT_PARSED;
+				}
+			}
+		}
+		if(position!=length) {
+			return NOT_PARSED;
+		}
+		return Math.addExact(Math.multiplyExact(seconds, NANOS_PER_SECOND), nano);
+	}
+
+	/**
+	 * @return the value of count digits from the start, -1 if not all are digits
+	 */
+	private static int digits(String text, int start, int count) {
+		if(start+count>text.length()) {
+			return -1;
+		}
+		int value = 0;
+		for(int i=start; i<start+count; i++) {
+			char digit = text.charAt(i);
+			if(!isDigit(digit)) {
+				return -1;
+			}
+			value = value*10+(digit-'0');
+		}
+		return value;
+	}
+
+	private static boolean isDigit(char value) {
+		return value>='0' && value<='9';
+	}
+
+	private static int daysInMonth(int year, int month) {
+		return month==2 && IsoChronology.INSTANCE.isLeapYear(year)?29:DAYS_IN_MONTH[month-1];
+	}
+
+	/**
+	 * Days since 1970-01-01, as {@link java.time.LocalDate#toEpochDay()}
+	 */
+	private static long epochDay(long year, int month, int day) {
+		long total = 365*year;
+		if(year>=0) {
+			total += (year+3)/4-(year+99)/100+(year+399)/400;
+		}else {
+			total -= year/-4-year/-100+year/-400;
+		}
+		total += (367*month-362)/12;
+		total += day-1;
+		if(month>2) {
+			total--;
+			if(!IsoChronology.INSTANCE.isLeapYear(year)) {
+				total--;
+			}
+		}
+		return total-719528;
+	}
+
+	/**
+	 * Write a key back as a date time text, in UTC. Used for the aggregation rows
+	 * @param key epoch milliseconds of a date, epoch nanoseconds of a timestamp
+	 * @return the key text
+	 */
+	public String format(long key) {
+		long fraction = Math.floorMod(key, unitsPerSecond);
+		Instant instant = Instant.ofEpochSecond(Math.floorDiv(key, unitsPerSecond),
+				unitsPerSecond==NANOS_PER_SECOND?fraction:fraction*NANOS_PER_MILLI);
+		if(formatter==ISO_TIMESTAMP) {
+			return DateTimeFormatter.ISO_INSTANT.format(instant);
+		}
+		return formatter.withZone(ZoneOffset.UTC).format(instant);
+	}
+
+	public String getKeyType() {
+		return keyType;
+	}
+}
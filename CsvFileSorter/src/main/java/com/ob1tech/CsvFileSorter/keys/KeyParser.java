@@ -0,0 +1,147 @@
+package com.ob1tech.CsvFileSorter.keys;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * <pre>
+ * KeyParser computes the {@link ByteKey} of a string key column, once per record, by a collation:
+ *
+ * string:ci		| case insensitive, the case folded text
+ * string:natural	| numbers within the text are compared by value, a2 before a10
+ * string:&lt;locale&gt;	| the locale collation key, for example string:de-DE
+ *
+ * The keys data type name is the {@link ByteKey} type name and the collation, so a
+ * sorted file is only appended to, or queried, by the same collation.
+ * </pre>
+ * @see ByteKey
+ */
+public class KeyParser {
+
+	/**
+	 * Key type prefix of the collated string keys
+	 */
+	public static final String STRING_PREFIX = "string:";
+
+	public static final String CASE_INSENSITIVE = "ci";
+
+	public static final String NATURAL = "natural";
+
+	/**
+	 * Starts a number of a natural key, in place of its first digit.
+	 * Digits are never written as text so two numbers meet at the same position
+	 */
+	private static final int NUMBER_MARK = '0';
+
+	private final String collation;
+
+	/**
+	 * Collators are not thread safe, one per thread. Null when not a locale collation
+	 */
+	private final ThreadLocal<Collator> collator;
+
+	/**
+	 * Constructor:
+	 * @param collation ci, natural or a locale language tag
+	 * @throws IllegalArgumentException for an unknown locale
+	 */
+	public KeyParser(String collation) {
+		this.collation = collation;
+		if(CASE_INSENSITIVE.equals(collation) || NATURAL.equals(collation)) {
+			collator = null;
+		}else {
+			Locale locale = Locale.forLanguageTag(collation);
+			if(locale.getLanguage().isEmpty()) {
+				throw new IllegalArgumentException("Unknown string collation "+collation);
+			}
+			collator = ThreadLocal.withInitial(() -> Collator.getInstance(locale));
+		}
+	}
+
+	/**
+	 * @param keyType the key type option
+	 * @return true for a collated string key type
+	 */
+	public static boolean isCollated(String keyType) {
+		return keyType!=null && keyType.startsWith(STRING_PREFIX);
+	}
+
+	/**
+	 * @param keyType a collated string key type
+	 * @return the keys data type name
+	 */
+	public static String dataTypeOf(String keyType) {
+		return ByteKey.class.getTypeName()+":"+keyType.substring(STRING_PREFIX.length());
+	}
+
+	/**
+	 * @param keyDataType keys data type name
+	 * @return the parser of the collated keys, null for other key types
+	 */
+	public static KeyParser forDataType(String keyDataType) {
+		String prefix = ByteKey.class.getTypeName()+":";
+		if(keyDataType==null || !keyDataType.startsWith(prefix)) {
+			return null;
+		}
+		return new KeyParser(keyDataType.substring(prefix.length()));
+	}
+
+	/**
+	 * @param text the key column text
+	 * @return the key and its sort bytes
+	 */
+	public ByteKey parse(String text) {
+		byte[] bytes;
+		if(collator!=null) {
+			bytes = collator.get().getCollationKey(text).toByteArray();
+		}else if(CASE_INSENSITIVE.equals(collation)) {
+			bytes = text.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+		}else {
+			bytes = naturalBytes(text);
+		}
+		return new ByteKey(bytes, text);
+	}
+
+	/**
+	 * Text is written as is, every number as the mark, its digits count and its digits,
+	 * without leading zeros. A longer number is then a higher one
+	 * @param text the key column text
+	 * @return natural sort bytes
+	 */
+	private static byte[] naturalBytes(String text) {
+		byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(utf8.length+8);
+		int i = 0;
+		while(i<utf8.length) {
+			if(!isDigit(utf8[i])) {
+				bytes.write(utf8[i++]);
+				continue;
+			}
+			while(i<utf8.length && utf8[i]=='0') {
+				i++;
+			}
+			int start = i;
+			while(i<utf8.length && isDigit(utf8[i])) {
+				i++;
+			}
+			int digits = i-start;
+			bytes.write(NUMBER_MARK);
+			bytes.write(digits>>>24);
+			bytes.write(digits>>>16);
+			bytes.write(digits>>>8);
+			bytes.write(digits);
+			bytes.write(utf8, start, digits);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static boolean isDigit(byte value) {
+		return value>='0' && value<='9';
+	}
+
+	public String getCollation() {
+		return collation;
+	}
+}
@@ -0,0 +1,65 @@
+package com.ob1tech.CsvFileSorter.progress;
+
+import java.io.PrintStream;
+
+import com.ob1tech.CsvFileSorter.progress.SortProgress.Phase;
+
+/**
+ * Prints the sort progress, one line per period and the last line of every phase.
+ * Prints to the standard error by default, the standard output may carry the sorted records
+ */
+public class ConsoleProgressReporter implements SortProgressListener {
+
+	/**
+	 * Default time between lines, in seconds. 5
+	 */
+	public static final int DEFAULT_PERIOD = 5;
+
+	private final PrintStream out;
+
+	private final long periodMillis;
+
+	private Phase phase;
+
+	private long lastPrinted;
+
+	/**
+	 * Snapshot not printed yet, null if printed
+	 */
+	private SortProgress pending;
+
+	public ConsoleProgressReporter() {
+		this(System.err, DEFAULT_PERIOD);
+	}
+
+	/**
+	 * Constructor:
+	 * @param out destination of the progress lines
+	 * @param periodSeconds time between lines, in seconds
+	 */
+	public ConsoleProgressReporter(PrintStream out, int periodSeconds) {
+		this.out = out;
+		this.periodMillis = periodSeconds*1000L;
+	}
+
+	@Override
+	public void onProgress(SortProgress progress) {
+		long now = System.currentTimeMillis();
+		if(progress.getPhase()!=phase) {
+			if(pending!=null) {
+				out.println(pending);
+			}
+			phase = progress.getPhase();
+			out.println(phase==Phase.DONE
+					?"Sort done in "+SortProgress.formatMillis(progress.getElapsedMillis())
+					:phase.getDescription()+"...");
+		}else if(now-lastPrinted>=periodMillis) {
+			out.println(progress);
+		}else {
+			pending = progress;
+			return;
+		}
+		pending = null;
+		lastPrinted = now;
+	}
+}
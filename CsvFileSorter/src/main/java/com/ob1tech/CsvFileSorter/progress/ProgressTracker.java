@@ -0,0 +1,180 @@
+package com.ob1tech.CsvFileSorter.progress;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.ob1tech.CsvFileSorter.events.SortPhaseEvent;
+import com.ob1tech.CsvFileSorter.progress.SortProgress.Phase;
+
+/**
+ * <pre>
+ * ProgressTracker follows the rows and bytes of the running sort phase and publishes snapshots.
+ * Updates may be per row or per batch, the clock is read once every {@link #CHECK_ROWS} rows and a snapshot
+ * is published at most once per interval, and on every phase change.
+ * The last snapshot can be polled from any thread, it is updated by one sorting thread at a time.
+ * Each phase is recorded as a {@link SortPhaseEvent} as well.
+ * </pre>
+ * @see SortProgressListener
+ */
+public class ProgressTracker {
+
+	/**
+	 * Default minimal time between snapshots, in milliseconds. 250
+	 */
+	public static final long DEFAULT_INTERVAL = 250;
+
+	/**
+	 * Rows between clock reads
+	 */
+	private static final int CHECK_ROWS = 1024;
+
+	private static final Logger logger = LogManager.getRootLogger();
+
+	private final List<SortProgressListener> listeners = new CopyOnWriteArrayList<SortProgressListener>();
+
+	private final long interval;
+
+	private volatile SortProgress progress;
+
+	private Phase phase;
+	private long totalRows;
+	private long totalBytes;
+	private long rows;
+	private long bytes;
+	private int checkCountdown;
+	private long sortStart;
+	private long phaseStart;
+
+	/**
+	 * Time and rows of the previous snapshot
+	 */
+	private long lastTime;
+	private long lastRows;
+
+	/**
+	 * Flight recorder event of the running phase
+	 */
+	private SortPhaseEvent phaseEvent;
+
+	public ProgressTracker() {
+		this(DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Constructor:
+	 * @param interval minimal time between snapshots, in milliseconds
+	 */
+	public ProgressTracker(long interval) {
+		this.interval = interval;
+	}
+
+	public void addListener(SortProgressListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Start a phase, the previous phase last snapshot is published first
+	 * @param phase the new phase
+	 * @param totalRows rows the phase will process, -1 if unknown
+	 * @param totalBytes bytes the phase will process, -1 if unknown
+	 */
+	public void start(Phase phase, long totalRows, long totalBytes) {
+		long now = System.currentTimeMillis();
+		if(this.phase==null) {
+			sortStart = now;
+		}else {
+			publish(now);
+			commitPhase();
+		}
+		phaseEvent = new SortPhaseEvent();
+		phaseEvent.begin();
+		this.phase = phase;
+		this.totalRows = totalRows;
+		this.totalBytes = totalBytes;
+		rows = 0;
+		bytes = 0;
+		checkCountdown = CHECK_ROWS;
+		phaseStart = now;
+		lastTime = now;
+		lastRows = 0;
+		publish(now);
+	}
+
+	/**
+	 * Set the phase counts, a snapshot is published if the interval passed
+	 * @param rows rows processed by the phase
+	 * @param bytes bytes processed by the phase
+	 */
+	public void update(long rows, long bytes) {
+		checkCountdown -= rows-this.rows;
+		this.rows = rows;
+		this.bytes = bytes;
+		if(checkCountdown>0) {
+			return;
+		}
+		checkCountdown = CHECK_ROWS;
+		long now = System.currentTimeMillis();
+		if(now-lastTime>=interval) {
+			publish(now);
+		}
+	}
+
+	/**
+	 * End the sort, the last phase snapshot is followed by a {@link Phase#DONE} one of the whole sort time
+	 */
+	public void finish() {
+		if(phase==null || phase==Phase.DONE) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		publish(now);
+		commitPhase();
+		phase = Phase.DONE;
+		fire(new SortProgress(phase, rows, bytes, totalRows, totalBytes, -1, now-sortStart, 0));
+	}
+
+	private void commitPhase() {
+		phaseEvent.end();
+		if(phaseEvent.shouldCommit()) {
+			phaseEvent.phase = phase.name();
+			phaseEvent.rows = rows;
+			phaseEvent.bytes = bytes;
+			phaseEvent.commit();
+		}
+	}
+
+	private void publish(long now) {
+		long window = now-lastTime;
+		double rowsPerSecond = window>0?(rows-lastRows)*1000.0/window:-1;
+		long elapsed = now-phaseStart;
+		double fraction = SortProgress.fraction(rows, bytes, totalRows, totalBytes);
+		long eta = fraction>0?(long) (elapsed*(1-fraction)/fraction):-1;
+		lastTime = now;
+		lastRows = rows;
+		fire(new SortProgress(phase, rows, bytes, totalRows, totalBytes, rowsPerSecond, elapsed, eta));
+	}
+
+	/**
+	 * A failing listener does not fail the sort
+	 */
+	private void fire(SortProgress snapshot) {
+		progress = snapshot;
+		for(SortProgressListener listener : listeners) {
+			try {
+				listener.onProgress(snapshot);
+			} catch (RuntimeException e) {
+				logger.error("Progress listener failed", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the last snapshot, null before the sort starts
+	 */
+	public SortProgress getProgress() {
+		return progress;
+	}
+}
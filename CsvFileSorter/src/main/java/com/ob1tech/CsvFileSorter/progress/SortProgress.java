@@ -0,0 +1,147 @@
+package com.ob1tech.CsvFileSorter.progress;
+
+import java.util.Locale;
+
+/**
+ * A snapshot of a running sort, published by the {@link ProgressTracker}.
+ * Totals, rates and the ETA are -1 while unknown
+ * @see SortProgressListener
+ */
+public class SortProgress {
+
+	/**
+	 * Sort phases, in their running order
+	 */
+	public static enum Phase {
+		READ("Reading and sorting batches"),
+		FINALIZE("Placing the records in their batches"),
+		WRITE("Writing the sorted file"),
+		DONE("Done");
+
+		private final String description;
+
+		Phase(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	private final Phase phase;
+
+	/**
+	 * Rows and bytes processed by the phase
+	 */
+	private final long rows;
+	private final long bytes;
+
+	/**
+	 * Rows and bytes the phase will process
+	 */
+	private final long totalRows;
+	private final long totalBytes;
+
+	/**
+	 * Rows per second since the previous snapshot
+	 */
+	private final double rowsPerSecond;
+
+	/**
+	 * Time since the phase started, and left by the phase average rate
+	 */
+	private final long elapsedMillis;
+	private final long etaMillis;
+
+	public SortProgress(Phase phase, long rows, long bytes, long totalRows, long totalBytes,
+			double rowsPerSecond, long elapsedMillis, long etaMillis) {
+		this.phase = phase;
+		this.rows = rows;
+		this.bytes = bytes;
+		this.totalRows = totalRows;
+		this.totalBytes = totalBytes;
+		this.rowsPerSecond = rowsPerSecond;
+		this.elapsedMillis = elapsedMillis;
+		this.etaMillis = etaMillis;
+	}
+
+	/**
+	 * @return the done part of the phase, by bytes if their total is known, otherwise by rows. -1 if unknown
+	 */
+	public double getFraction() {
+		return phase==Phase.DONE?1:fraction(rows, bytes, totalRows, totalBytes);
+	}
+
+	/**
+	 * @return the done part, by bytes if their total is known, otherwise by rows. -1 if unknown
+	 */
+	static double fraction(long rows, long bytes, long totalRows, long totalBytes) {
+		if(totalBytes>0) {
+			return Math.min(1, (double) bytes/totalBytes);
+		}
+		if(totalRows>0) {
+			return Math.min(1, (double) rows/totalRows);
+		}
+		return -1;
+	}
+
+	public Phase getPhase() {
+		return phase;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getTotalRows() {
+		return totalRows;
+	}
+
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public double getRowsPerSecond() {
+		return rowsPerSecond;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public long getEtaMillis() {
+		return etaMillis;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder(phase.name());
+		double fraction = getFraction();
+		if(fraction>=0 && phase!=Phase.DONE) {
+			text.append(String.format(Locale.ROOT, " %.1f%%", fraction*100));
+		}
+		text.append(String.format(Locale.ROOT, " %,d rows %,d bytes", rows, bytes));
+		if(rowsPerSecond>=0) {
+			text.append(String.format(Locale.ROOT, " %,.0f rows/s", rowsPerSecond));
+		}
+		text.append(" elapsed ").append(formatMillis(elapsedMillis));
+		if(etaMillis>=0) {
+			text.append(" ETA ").append(formatMillis(etaMillis));
+		}
+		return text.toString();
+	}
+
+	/**
+	 * @param millis duration
+	 * @return the duration as h:mm:ss
+	 */
+	public static String formatMillis(long millis) {
+		long seconds = millis/1000;
+		return String.format(Locale.ROOT, "%d:%02d:%02d", seconds/3600, seconds/60%60, seconds%60);
+	}
+}
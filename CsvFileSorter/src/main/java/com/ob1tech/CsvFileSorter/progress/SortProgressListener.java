@@ -0,0 +1,17 @@
+package com.ob1tech.CsvFileSorter.progress;
+
+/**
+ * Listener of a running sort progress, registered by the
+ * {@link com.ob1tech.CsvFileSorter.controllers.ControllerBuilder}.
+ * Called on the sorting threads, at most once per {@link ProgressTracker} interval and on every
+ * phase change, so it should return quickly
+ * @see SortProgress
+ * @see ConsoleProgressReporter
+ */
+public interface SortProgressListener {
+
+	/**
+	 * @param progress the sort progress snapshot
+	 */
+	void onProgress(SortProgress progress);
+}
@@ -0,0 +1,35 @@
+package com.ob1tech.CsvFileSorter.serializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Writes UTF-8 bytes as a json string. Byte generators copy the bytes escaped, without decoding them,
+ * other generators get the decoded text
+ * @see com.ob1tech.CsvFileSorter.dateModel.RecordIndex
+ */
+public class Utf8TextSerializer extends StdSerializer<byte[]> {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 5286140837162924471L;
+
+	public Utf8TextSerializer() {
+		super(byte[].class);
+	}
+
+	@Override
+	public void serialize(byte[] value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+		if(generator instanceof UTF8JsonGenerator) {
+			generator.writeUTF8String(value, 0, value.length);
+		}else {
+			generator.writeString(new String(value, StandardCharsets.UTF_8));
+		}
+	}
+}
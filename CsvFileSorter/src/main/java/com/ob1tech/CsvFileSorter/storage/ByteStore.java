@@ -0,0 +1,28 @@
+package com.ob1tech.CsvFileSorter.storage;
+
+import java.io.IOException;
+
+/**
+ * A store of serialized values by id.
+ * @see SegmentedContainer
+ * @see FileStore
+ * @see WriteBehindStore
+ */
+public interface ByteStore {
+
+	/**
+	 * Store the data as the new value of the id.
+	 * @param id entry id
+	 * @param data serialized value
+	 * @throws IOException
+	 */
+	void put(long id, byte[] data) throws IOException;
+
+	/**
+	 * Read the current value of the id.
+	 * @param id entry id
+	 * @return serialized value or null if the id is unknown
+	 * @throws IOException
+	 */
+	byte[] get(long id) throws IOException;
+}
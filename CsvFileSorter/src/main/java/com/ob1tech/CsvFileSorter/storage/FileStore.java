@@ -0,0 +1,45 @@
+package com.ob1tech.CsvFileSorter.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.function.LongFunction;
+
+/**
+ * FileStore keeps every value in a file of its own, the file of an id is given by a path function.
+ * Used by the index nodes, one file per node.
+ */
+public class FileStore implements ByteStore {
+
+	private final LongFunction<Path> filePath;
+
+	/**
+	 * Constructor:
+	 * @param filePath file of an id
+	 */
+	public FileStore(LongFunction<Path> filePath) {
+		this.filePath = filePath;
+	}
+
+	/**
+	 * Replace the file of the id
+	 */
+	@Override
+	public void put(long id, byte[] data) throws IOException {
+		Files.write(filePath.apply(id), data);
+	}
+
+	/**
+	 * Read the file of the id
+	 * @return the file bytes or null if there is no such file
+	 */
+	@Override
+	public byte[] get(long id) throws IOException {
+		try {
+			return Files.readAllBytes(filePath.apply(id));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+}
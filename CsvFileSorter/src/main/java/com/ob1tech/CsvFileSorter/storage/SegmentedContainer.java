@@ -0,0 +1,599 @@
+package com.ob1tech.CsvFileSorter.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <pre>
+ * SegmentedContainer packs many small persisted objects (batches) into a few large files.
+ *
+ * Every write is appended to the active segment file, an append only data log.
+ * An in memory offset table maps each id to its segment, offset and length,
+ * so a read is a single positional read.
+ * When the active segment grows beyond {@link #maxSegmentSize} it is sealed and a new one is opened.
+ * Rewritten or removed entries leave dead bytes behind, once a sealed segment is mostly dead
+ * it is compacted on a background thread: its live entries are copied to the active segment
+ * and the segment file is deleted.
+ *
+ * Files layout:
+ * &lt;name&gt;.seg&lt;N&gt;	| data log segments. Entry: [long id][int length][bytes], length -1 is a removal mark
+ * &lt;name&gt;.tbl		| offset table, written on {@link #close()}
+ * </pre>
+ *
+ * @see #put(long, byte[])
+ * @see #get(long)
+ */
+public class SegmentedContainer implements ByteStore, Closeable {
+
+	/**
+	 * Segment file suffix
+	 */
+	public static final String SEGMENT_SUFFIX = ".seg";
+
+	/**
+	 * Offset table file suffix
+	 */
+	public static final String TABLE_SUFFIX = ".tbl";
+
+	/**
+	 * Default max segment size. 64MB
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 64l*1024*1024;
+
+	/**
+	 * A sealed segment is compacted when less then this part of it is live data
+	 */
+	private static final double COMPACTION_THRESHOLD = 0.5;
+
+	/**
+	 * Entry header size, id and length
+	 */
+	private static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+	/**
+	 * Removal mark, stored as the entry length
+	 */
+	private static final int REMOVED = -1;
+
+	private static final int TABLE_VERSION = 1;
+
+	/**
+	 * Location of an entry inside the segments
+	 */
+	private static class Location {
+		final int segment;
+		final long offset;
+		final int length;
+
+		Location(int segment, long offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private Logger logger = LogManager.getLogger(SegmentedContainer.class);
+
+	private final Path directory;
+	private final String name;
+	private final long maxSegmentSize;
+
+	/**
+	 * Offset table, keyed by id
+	 */
+	private final Map<Long, Location> table;
+
+	/**
+	 * Open segment channels, keyed by segment number
+	 */
+	private final Map<Integer, FileChannel> segments;
+
+	/**
+	 * Live bytes of every segment, used for compaction decisions
+	 */
+	private final Map<Integer, AtomicLong> liveBytes;
+
+	/**
+	 * Reads share the lock, appends, removals and segment deletion are exclusive.
+	 */
+	private final ReentrantReadWriteLock lock;
+
+	/**
+	 * Single background compaction thread
+	 */
+	private final ExecutorService compactor;
+
+	/**
+	 * Segments already sent for compaction
+	 */
+	private final Map<Integer, Boolean> compacting;
+
+	private int activeSegment;
+	private long activeSize;
+	private boolean closed;
+
+	/**
+	 * Constructor: a fresh container with the default segment size.
+	 * Leftovers of a previous container with the same name are deleted.
+	 * @param directory directory of the container files
+	 * @param name container name, used as the files prefix
+	 * @throws IOException
+	 */
+	public SegmentedContainer(Path directory, String name) throws IOException {
+		this(directory, name, DEFAULT_SEGMENT_SIZE, false);
+	}
+
+	/**
+	 * Constructor: Initialize the container files.
+	 * @param directory directory of the container files
+	 * @param name container name, used as the files prefix
+	 * @param maxSegmentSize max size of a segment before it is sealed
+	 * @param reuse when true an existing container is reopened from its offset table,
+	 * otherwise its files are deleted
+	 * @throws IOException
+	 */
+	public SegmentedContainer(Path directory, String name, long maxSegmentSize, boolean reuse) throws IOException {
+		this.directory = directory;
+		this.name = name;
+		this.maxSegmentSize = maxSegmentSize;
+		table = new ConcurrentHashMap<Long, Location>();
+		segments = new ConcurrentHashMap<Integer, FileChannel>();
+		liveBytes = new ConcurrentHashMap<Integer, AtomicLong>();
+		compacting = new ConcurrentHashMap<Integer, Boolean>();
+		lock = new ReentrantReadWriteLock();
+		compactor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable);
+			thread.setName("containerCompactor-" + name);
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		if(reuse) {
+			load();
+		}else {
+			deleteFiles();
+		}
+		openSegment(nextSegmentNumber());
+	}
+
+	/**
+	 * Append the data as the new value of the id.
+	 * @param id entry id
+	 * @param data serialized value
+	 * @throws IOException
+	 */
+	@Override
+	public void put(long id, byte[] data) throws IOException {
+		lock.writeLock().lock();
+		try {
+			notClosedOrThrow();
+			long offset = append(id, data, 0, data.length);
+			replace(id, new Location(activeSegment, offset, data.length));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Read the current value of the id.
+	 * @param id entry id
+	 * @return serialized value or null if the id is unknown
+	 * @throws IOException
+	 */
+	@Override
+	public byte[] get(long id) throws IOException {
+		lock.readLock().lock();
+		try {
+			notClosedOrThrow();
+			Location location = table.get(id);
+			if(location==null) {
+				return null;
+			}
+			return read(location);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if the id has a value
+	 * @param id entry id
+	 * @return true if the id is stored
+	 */
+	public boolean contains(long id) {
+		return table.containsKey(id);
+	}
+
+	/**
+	 * Remove the id. A removal mark is appended so the table can be rebuilt from the log.
+	 * @param id entry id
+	 * @return true if the id was stored
+	 * @throws IOException
+	 */
+	public boolean remove(long id) throws IOException {
+		lock.writeLock().lock();
+		try {
+			notClosedOrThrow();
+			if(!table.containsKey(id)) {
+				return false;
+			}
+			append(id, null, 0, REMOVED);
+			replace(id, null);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return number of stored entries
+	 */
+	public int size() {
+		return table.size();
+	}
+
+	/**
+	 * Compact all sealed segments that passed the compaction threshold.
+	 * Runs on the calling thread.
+	 * @throws IOException
+	 */
+	public void compact() throws IOException {
+		List<Integer> candidates = new ArrayList<Integer>(segments.keySet());
+		for(Integer segment : candidates) {
+			if(segment!=activeSegment && shouldCompact(segment)
+					&& compacting.putIfAbsent(segment, true)==null) {
+				compactSegment(segment);
+			}
+		}
+	}
+
+	/**
+	 * Stop compaction, write the offset table and close all segments.
+	 */
+	@Override
+	public void close() throws IOException {
+		compactor.shutdown();
+		try {
+			compactor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		lock.writeLock().lock();
+		try {
+			if(closed) {
+				return;
+			}
+			writeTable();
+			closeSegments();
+			closed = true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Close the container and delete all of its files.
+	 * @throws IOException
+	 */
+	public void delete() throws IOException {
+		close();
+		deleteFiles();
+	}
+
+	/* Helper functions */
+
+	/**
+	 * Write an entry at the end of the active segment, roll to a new segment when full.
+	 * Must be called under the write lock.
+	 * @return the offset of the entry data
+	 */
+	private long append(long id, byte[] data, int from, int length) throws IOException {
+		if(activeSize >= maxSegmentSize) {
+			openSegment(activeSegment+1);
+		}
+		int dataLength = Math.max(length, 0);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + dataLength);
+		buffer.putLong(id);
+		buffer.putInt(length);
+		if(dataLength>0) {
+			buffer.put(data, from, dataLength);
+		}
+		buffer.flip();
+
+		FileChannel channel = segments.get(activeSegment);
+		long position = activeSize;
+		while(buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		long offset = activeSize + HEADER_SIZE;
+		activeSize = position;
+		return offset;
+	}
+
+	/**
+	 * Point the id to its new location and account dead bytes of the old one.
+	 * Must be called under the write lock.
+	 */
+	private void replace(long id, Location location) {
+		Location old = location==null?table.remove(id):table.put(id, location);
+		if(location!=null) {
+			liveBytes.get(location.segment).addAndGet(location.length + HEADER_SIZE);
+		}
+		if(old!=null) {
+			AtomicLong live = liveBytes.get(old.segment);
+			if(live!=null) {
+				live.addAndGet(-(old.length + HEADER_SIZE));
+			}
+			if(old.segment!=activeSegment && shouldCompact(old.segment)
+					&& compacting.putIfAbsent(old.segment, true)==null) {
+				final int segment = old.segment;
+				compactor.execute(() -> {
+					try {
+						compactSegment(segment);
+					} catch (IOException e) {
+						logger.error("Error compacting segment "+segment+" of "+name, e);
+					}
+				});
+			}
+		}
+	}
+
+	private byte[] read(Location location) throws IOException {
+		byte[] data = new byte[location.length];
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		FileChannel channel = segments.get(location.segment);
+		long position = location.offset;
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if(read<0) {
+				throw new EOFException("Segment "+location.segment+" of "+name+" is truncated");
+			}
+			position += read;
+		}
+		return data;
+	}
+
+	private boolean shouldCompact(int segment) {
+		FileChannel channel = segments.get(segment);
+		AtomicLong live = liveBytes.get(segment);
+		if(channel==null || live==null) {
+			return false;
+		}
+		try {
+			long size = channel.size();
+			return size>0 && live.get() < size*COMPACTION_THRESHOLD;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Move live entries of a sealed segment to the active one and delete the segment.
+	 * Entries are moved one by one so readers are only blocked shortly.
+	 */
+	private void compactSegment(int segment) throws IOException {
+		long time = System.currentTimeMillis();
+		int moved = 0;
+		List<Long> ids = new ArrayList<Long>();
+		for(Map.Entry<Long, Location> entry : table.entrySet()) {
+			if(entry.getValue().segment==segment) {
+				ids.add(entry.getKey());
+			}
+		}
+		for(Long id : ids) {
+			lock.writeLock().lock();
+			try {
+				if(closed) {
+					return;
+				}
+				Location location = table.get(id);
+				//Rewritten or removed meanwhile
+				if(location==null || location.segment!=segment) {
+					continue;
+				}
+				byte[] data = read(location);
+				long offset = append(id, data, 0, data.length);
+				replace(id, new Location(activeSegment, offset, data.length));
+				moved++;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		lock.writeLock().lock();
+		try {
+			if(closed) {
+				return;
+			}
+			FileChannel channel = segments.remove(segment);
+			liveBytes.remove(segment);
+			compacting.remove(segment);
+			if(channel!=null) {
+				channel.close();
+			}
+			Files.deleteIfExists(segmentPath(segment));
+		} finally {
+			lock.writeLock().unlock();
+		}
+		logger.debug("Compacted segment "+segment+" of "+name+", moved "+moved+" entries "
+				+(System.currentTimeMillis()-time)+" msc");
+	}
+
+	private void openSegment(int segment) throws IOException {
+		FileChannel channel = FileChannel.open(segmentPath(segment),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segments.put(segment, channel);
+		liveBytes.putIfAbsent(segment, new AtomicLong());
+		activeSegment = segment;
+		activeSize = channel.size();
+	}
+
+	private int nextSegmentNumber() {
+		int next = 0;
+		for(Integer segment : segments.keySet()) {
+			next = Math.max(next, segment+1);
+		}
+		return next;
+	}
+
+	private Path segmentPath(int segment) {
+		return directory.resolve(name + SEGMENT_SUFFIX + segment);
+	}
+
+	private Path tablePath() {
+		return directory.resolve(name + TABLE_SUFFIX);
+	}
+
+	private void notClosedOrThrow() throws IOException {
+		if(closed) {
+			throw new IOException("Container "+name+" is closed");
+		}
+	}
+
+	private void closeSegments() throws IOException {
+		for(FileChannel channel : segments.values()) {
+			channel.close();
+		}
+		segments.clear();
+	}
+
+	/**
+	 * Persist the offset table
+	 */
+	private void writeTable() throws IOException {
+		try (OutputStream out = Files.newOutputStream(tablePath());
+				DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+			data.writeInt(TABLE_VERSION);
+			data.writeInt(table.size());
+			for(Map.Entry<Long, Location> entry : table.entrySet()) {
+				Location location = entry.getValue();
+				data.writeLong(entry.getKey());
+				data.writeInt(location.segment);
+				data.writeLong(location.offset);
+				data.writeInt(location.length);
+			}
+		}
+	}
+
+	/**
+	 * Reopen existing segments. The offset table is used when present,
+	 * otherwise it is rebuilt by scanning the segments in order.
+	 */
+	private void load() throws IOException {
+		for(Integer segment : listSegments()) {
+			FileChannel channel = FileChannel.open(segmentPath(segment),
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			segments.put(segment, channel);
+			liveBytes.put(segment, new AtomicLong());
+		}
+		Path tablePath = tablePath();
+		if(Files.exists(tablePath)) {
+			try (InputStream in = Files.newInputStream(tablePath);
+					DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+				int version = data.readInt();
+				if(version!=TABLE_VERSION) {
+					throw new IOException("Unknown container table version "+version);
+				}
+				int count = data.readInt();
+				for(int i=0; i<count; i++) {
+					long id = data.readLong();
+					Location location = new Location(data.readInt(), data.readLong(), data.readInt());
+					table.put(id, location);
+				}
+			}
+		}else {
+			for(Integer segment : segments.keySet()) {
+				scanSegment(segment);
+			}
+		}
+		for(Location location : table.values()) {
+			AtomicLong live = liveBytes.get(location.segment);
+			if(live==null) {
+				throw new IOException("Container "+name+" is missing segment "+location.segment);
+			}
+			live.addAndGet(location.length + HEADER_SIZE);
+		}
+	}
+
+	/**
+	 * Replay a segment log into the table, last write wins.
+	 */
+	private void scanSegment(int segment) throws IOException {
+		FileChannel channel = segments.get(segment);
+		long size = channel.size();
+		long position = 0;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while(position + HEADER_SIZE <= size) {
+			header.clear();
+			while(header.hasRemaining()) {
+				channel.read(header, position + header.position());
+			}
+			header.flip();
+			long id = header.getLong();
+			int length = header.getInt();
+			if(length==REMOVED) {
+				table.remove(id);
+				position += HEADER_SIZE;
+			}else {
+				if(position + HEADER_SIZE + length > size) {
+					//Partial last write
+					break;
+				}
+				table.put(id, new Location(segment, position + HEADER_SIZE, length));
+				position += HEADER_SIZE + length;
+			}
+		}
+	}
+
+	/**
+	 * @return existing segment numbers in log order
+	 */
+	private List<Integer> listSegments() throws IOException {
+		TreeMap<Integer, Path> found = new TreeMap<Integer, Path>();
+		String prefix = name + SEGMENT_SUFFIX;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix+"*")) {
+			for(Path path : stream) {
+				String suffix = path.getFileName().toString().substring(prefix.length());
+				try {
+					found.put(Integer.valueOf(suffix), path);
+				} catch (NumberFormatException e) {
+					//Not a segment of this container
+				}
+			}
+		}
+		return new ArrayList<Integer>(found.keySet());
+	}
+
+	private void deleteFiles() throws IOException {
+		for(Integer segment : listSegments()) {
+			Files.deleteIfExists(segmentPath(segment));
+		}
+		Files.deleteIfExists(tablePath());
+	}
+
+}
@@ -0,0 +1,266 @@
+package com.ob1tech.CsvFileSorter.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <pre>
+ * WriteBehindStore hands the writes of a store to a pool of writer threads, so the caller
+ * does not wait for the disk.
+ *
+ * put		| the value is queued and the caller returns, it only waits when the queue is full,
+ * 		| by number of values or by their bytes
+ * coalesce	| a value queued again before it was written replaces the queued one, written once
+ * get		| a queued value is served from the queue, otherwise from the store
+ * flush	| waits for the queue to drain, a failed write is thrown here or by the next put
+ *
+ * Values are serialized bytes, so a queued value is not changed by its caller.
+ * </pre>
+ * @see ByteStore
+ */
+public class WriteBehindStore implements ByteStore, Closeable {
+
+	/**
+	 * Default max number of queued values. 16
+	 */
+	public static final int DEFAULT_MAX_PENDING = 16;
+
+	/**
+	 * Default number of writer threads. 2
+	 */
+	public static final int DEFAULT_WRITERS = 2;
+
+	private Logger logger = LogManager.getLogger(WriteBehindStore.class);
+
+	private final ByteStore store;
+	private final String name;
+	private final int maxPending;
+
+	/**
+	 * Max bytes of the queued values, unbounded by default
+	 * @see #setMaxPendingBytes(long)
+	 */
+	private volatile long maxPendingBytes = Long.MAX_VALUE;
+
+	/**
+	 * Bytes of the queued values, guarded by this store
+	 */
+	private long pendingBytes;
+
+	/**
+	 * Queued values, by id. The latest value of an id replaces the queued one
+	 */
+	private final Map<Long, byte[]> pending = new ConcurrentHashMap<Long, byte[]>();
+
+	/**
+	 * A permit per queued id
+	 */
+	private final Semaphore slots;
+
+	private final ExecutorService writers;
+
+	/**
+	 * First failed write, thrown to the caller
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * Constructor: default queue size and writers
+	 * @param store the written store
+	 * @param name store name, used for the writer threads names
+	 */
+	public WriteBehindStore(ByteStore store, String name) {
+		this(store, name, DEFAULT_MAX_PENDING, DEFAULT_WRITERS);
+	}
+
+	/**
+	 * Constructor:
+	 * @param store the written store
+	 * @param name store name, used for the writer threads names
+	 * @param maxPending max number of queued values, a put waits beyond it
+	 * @param writerThreads number of writer threads
+	 */
+	public WriteBehindStore(ByteStore store, String name, int maxPending, int writerThreads) {
+		this.store = store;
+		this.name = name;
+		this.maxPending = Math.max(maxPending, 1);
+		this.slots = new Semaphore(this.maxPending);
+		AtomicInteger threadIndex = new AtomicInteger();
+		writers = Executors.newFixedThreadPool(Math.max(writerThreads, 1), runnable -> {
+			Thread thread = new Thread(runnable);
+			thread.setName("writeBehind-" + name + "-" + threadIndex.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queue the data as the new value of the id.
+	 * @throws IOException a previous write failed
+	 */
+	@Override
+	public void put(long id, byte[] data) throws IOException {
+		failedOrThrow();
+		if(pending.containsKey(id)) {
+			byte[] replaced = pending.replace(id, data);
+			if(replaced!=null) {
+				//Coalesced, its writer writes the latest value
+				release(replaced.length-data.length);
+				return;
+			}
+		}
+		try {
+			slots.acquire();
+			reserve(data.length);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while queuing entry "+id+" of "+name, e);
+		}
+		byte[] replaced = pending.put(id, data);
+		if(replaced!=null) {
+			//Queued meanwhile by another caller
+			release(replaced.length);
+			slots.release();
+			return;
+		}
+		writers.execute(() -> write(id));
+	}
+
+	/**
+	 * Read the queued value of the id, or the stored one
+	 */
+	@Override
+	public byte[] get(long id) throws IOException {
+		byte[] data = pending.get(id);
+		if(data!=null) {
+			return data;
+		}
+		//Not queued, or written before it was dequeued
+		return store.get(id);
+	}
+
+	/**
+	 * Wait until all the queued values are written
+	 * @throws IOException a write failed
+	 */
+	public void flush() throws IOException {
+		try {
+			slots.acquire(maxPending);
+			slots.release(maxPending);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while flushing "+name, e);
+		}
+		failedOrThrow();
+	}
+
+	/**
+	 * Flush and stop the writers. The store itself is not closed
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			writers.shutdown();
+			try {
+				writers.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return number of queued values
+	 */
+	public int size() {
+		return pending.size();
+	}
+
+	/**
+	 * @return bytes of the queued values
+	 */
+	public synchronized long getPendingBytes() {
+		return pendingBytes;
+	}
+
+	public long getMaxPendingBytes() {
+		return maxPendingBytes;
+	}
+
+	/**
+	 * @param maxPendingBytes max bytes of the queued values, a put waits beyond it.
+	 * A single value larger then the max is still queued, alone
+	 */
+	public synchronized void setMaxPendingBytes(long maxPendingBytes) {
+		this.maxPendingBytes = Math.max(maxPendingBytes, 1);
+		notifyAll();
+	}
+
+	/* Helper functions */
+
+	/**
+	 * Write the queued value of the id until it was not replaced meanwhile, then dequeue it
+	 */
+	private void write(long id) {
+		try {
+			byte[] data = pending.get(id);
+			while(data!=null) {
+				store.put(id, data);
+				if(pending.remove(id, data)) {
+					release(data.length);
+					break;
+				}
+				data = pending.get(id);
+			}
+		} catch (IOException e) {
+			logger.error("Error writing entry "+id+" of "+name, e);
+			if(failure==null) {
+				failure = e;
+			}
+			byte[] data = pending.remove(id);
+			if(data!=null) {
+				release(data.length);
+			}
+		} finally {
+			slots.release();
+		}
+	}
+
+	/**
+	 * Wait until the bytes fit the max, or nothing else is queued, and count them
+	 */
+	private synchronized void reserve(long bytes) throws InterruptedException {
+		while(pendingBytes>0 && pendingBytes+bytes>maxPendingBytes) {
+			wait();
+		}
+		pendingBytes += bytes;
+	}
+
+	/**
+	 * Uncount dequeued bytes, a negative count for a coalesced larger value
+	 */
+	private synchronized void release(long bytes) {
+		pendingBytes -= bytes;
+		notifyAll();
+	}
+
+	private void failedOrThrow() throws IOException {
+		IOException e = failure;
+		if(e!=null) {
+			failure = null;
+			throw new IOException("Write behind of "+name+" failed", e);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.ob1tech.CsvFileSorter.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that counts the bytes written through it
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+	private long count;
+
+	/**
+	 * Constructor:
+	 * @param out the underlying output stream
+	 */
+	public CountingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		count += len;
+	}
+
+	/**
+	 * @return number of bytes written so far
+	 */
+	public long getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,53 @@
+package com.ob1tech.CsvFileSorter.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used, cache.
+ * Access is synchronized so it can be shared by the async controllers.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LruCache<K, V> {
+
+	private final int maxEntries;
+	private final LinkedHashMap<K, V> entries;
+
+	/**
+	 * Constructor:
+	 * @param maxEntries max cached entries, the least recently used is evicted when passed
+	 */
+	public LruCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = -5163482817359044536L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > LruCache.this.maxEntries;
+			}
+		};
+	}
+
+	public synchronized V get(K key) {
+		return entries.get(key);
+	}
+
+	public synchronized void put(K key, V value) {
+		entries.put(key, value);
+	}
+
+	public synchronized V remove(K key) {
+		return entries.remove(key);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+}
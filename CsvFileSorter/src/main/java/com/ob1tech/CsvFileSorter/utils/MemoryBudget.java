@@ -0,0 +1,114 @@
+package com.ob1tech.CsvFileSorter.utils;
+
+/**
+ * <pre>
+ * MemoryBudget divides a client given amount of memory between the sorting structures.
+ * Batches are sized by the measured size of their records instead of a fixed record count.
+ *
+ * Share of the budget:
+ * read batch		| 25% the raw records of the batch being read
+ *			| later the read lines waiting for their batch at the finalize pass
+ * swapping		| 50% tow batches and their merged replacements at {@code doInnerSwap}
+ *			| half of it for the replacements queued to be written behind
+ *			| later the batches read ahead while the sorted file is written
+ * index cache		| 25% recently used index nodes of the sorting tree
+ *
+ * Not bounded: the record to batch positions keep an entry per record and the unread
+ * line counts of the finalize pass an entry per batch, so they grow with the file.
+ * </pre>
+ */
+public class MemoryBudget {
+
+	private static final long MEGABYTE = 1024l*1024;
+
+	private static final double BATCH_SHARE = 0.25;
+	private static final double SWAP_SHARE = 0.5;
+	private static final double INDEX_CACHE_SHARE = 0.25;
+
+	/**
+	 * Estimated object overheads, in bytes
+	 */
+	private static final int RECORD_OVERHEAD = 96;
+	private static final int LINE_OVERHEAD = 16;
+	private static final int INDEX_NODE_SIZE = 256;
+
+	/**
+	 * A batch is never smaller then this, the batch sorting heap requires at least 2
+	 */
+	public static final int MIN_BATCH_SIZE = 2;
+
+	private final long totalBytes;
+
+	/**
+	 * Constructor:
+	 * @param megabytes the memory budget in MB
+	 * @exception IllegalArgumentException
+	 */
+	public MemoryBudget(long megabytes) {
+		if(megabytes<=0) {
+			throw new IllegalArgumentException(megabytes+" <= 0. too low");
+		}
+		this.totalBytes = megabytes*MEGABYTE;
+	}
+
+	/**
+	 * @return total budget in bytes
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return max bytes a read batch may hold
+	 */
+	public long getBatchBytes() {
+		return (long) (totalBytes*BATCH_SHARE);
+	}
+
+	/**
+	 * @return max bytes of the batches queued to be written
+	 */
+	public long getWriteBehindBytes() {
+		return (long) (totalBytes*SWAP_SHARE/2);
+	}
+
+	/**
+	 * Batches are read up to the batch share, so the swapping share holds the written batch and the rest ahead
+	 * @return number of batches that may be read ahead while the sorted file is written, at least 1
+	 */
+	public int getPrefetchBatches() {
+		return Math.max((int) (SWAP_SHARE/BATCH_SHARE)-1, 1);
+	}
+
+	/**
+	 * @return number of index nodes that may be kept in memory
+	 */
+	public int getIndexCacheNodes() {
+		return (int) Math.min(Integer.MAX_VALUE, (long) (totalBytes*INDEX_CACHE_SHARE)/INDEX_NODE_SIZE);
+	}
+
+	/**
+	 * Estimate the heap size of a read line, its bytes and the record index
+	 * @param line the record UTF-8 line
+	 * @return estimated size in bytes
+	 */
+	public static long estimateLineSize(byte[] line) {
+		return RECORD_OVERHEAD + LINE_OVERHEAD + line.length;
+	}
+
+	/**
+	 * Estimate the heap size of read lines
+	 * @param lines number of lines
+	 * @param bytes total bytes of the lines
+	 * @return estimated size in bytes
+	 * @see #estimateLineSize(byte[])
+	 */
+	public static long estimateLinesSize(long lines, long bytes) {
+		return lines*(RECORD_OVERHEAD + LINE_OVERHEAD) + bytes;
+	}
+
+	@Override
+	public String toString() {
+		return (totalBytes/MEGABYTE)+"MB";
+	}
+}
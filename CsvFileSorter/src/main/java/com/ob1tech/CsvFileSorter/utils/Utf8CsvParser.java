@@ -0,0 +1,123 @@
+package com.ob1tech.CsvFileSorter.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.opencsv.CSVParser;
+
+/**
+ * <pre>
+ * Finds the columns of a UTF-8 line in its bytes, so only the needed column is decoded.
+ * Columns up to the needed one that have no quote or escape characters are split on the
+ * separator bytes. Other lines are decoded and parsed by the CSV parser.
+ * UTF-8 multi byte characters never hold ASCII bytes, so the separator bytes are exact.
+ * Not thread safe, the last found column is kept.
+ * </pre>
+ * @see Utf8LineReader
+ */
+public class Utf8CsvParser {
+
+	private final CSVParser parser;
+
+	private final byte separator;
+	private final byte quote;
+	private final byte escape;
+
+	/**
+	 * Bytes of the last found column
+	 */
+	private int columnStart;
+	private int columnEnd;
+
+	/**
+	 * Constructor:
+	 * @param parser parser of quoted or escaped lines, its characters must be ASCII
+	 */
+	public Utf8CsvParser(CSVParser parser) {
+		this.parser = parser;
+		this.separator = (byte) parser.getSeparator();
+		this.quote = (byte) parser.getQuotechar();
+		this.escape = (byte) parser.getEscape();
+	}
+
+	/**
+	 * Find a column in the line bytes
+	 * @param line UTF-8 line
+	 * @param index column index
+	 * @return true if found, false if the line has less columns or is quoted or escaped up to it
+	 */
+	public boolean find(byte[] line, int index) {
+		int start = 0;
+		for(int i=0; i<line.length; i++) {
+			byte b = line[i];
+			if(b==separator) {
+				if(index==0) {
+					return found(start, i);
+				}
+				index--;
+				start = i+1;
+			}else if(b==quote || b==escape) {
+				return false;
+			}
+		}
+		return index==0 && found(start, line.length);
+	}
+
+	private boolean found(int start, int end) {
+		columnStart = start;
+		columnEnd = end;
+		return true;
+	}
+
+	/**
+	 * Get a column text, only the column is decoded when it is found in the bytes
+	 * @param line UTF-8 line
+	 * @param index column index
+	 * @return the column text
+	 * @throws IOException when the line is not parsable
+	 * @throws ArrayIndexOutOfBoundsException when the line has less columns, as parsed lines
+	 */
+	public String column(byte[] line, int index) throws IOException {
+		if(find(line, index)) {
+			return new String(line, columnStart, columnEnd-columnStart, StandardCharsets.UTF_8);
+		}
+		return parseLine(line)[index];
+	}
+
+	/**
+	 * Parse the whole line by the CSV parser
+	 * @param line UTF-8 line
+	 * @return the line columns
+	 * @throws IOException when the line is not parsable
+	 */
+	public String[] parseLine(byte[] line) throws IOException {
+		return parser.parseLine(new String(line, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Read the last found column as a long, without decoding it
+	 * @param line the line of the column
+	 * @return the value, null if the column is not a plain signed number of up to 18 digits
+	 */
+	public Long longValue(byte[] line) {
+		int i = columnStart;
+		boolean negative = i<columnEnd && line[i]=='-';
+		if(negative || (i<columnEnd && line[i]=='+')) {
+			i++;
+		}
+		int digits = columnEnd-i;
+		if(digits==0 || digits>18) {
+			//Longer values may overflow, left to Long
+			return null;
+		}
+		long value = 0;
+		for(; i<columnEnd; i++) {
+			int digit = line[i]-'0';
+			if(digit<0 || digit>9) {
+				return null;
+			}
+			value = value*10+digit;
+		}
+		return negative?-value:value;
+	}
+}
@@ -0,0 +1,195 @@
+package com.ob1tech.CsvFileSorter.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.MalformedInputException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * Reads the lines of a UTF-8 input as bytes, the lines are never decoded to strings.
+ * Lines end like {@link java.io.BufferedReader#readLine()} lines, by \n, \r or \r\n.
+ * Lines are validated, malformed UTF-8 fails the read as the decoding readers do.
+ * </pre>
+ * @see Utf8CsvParser
+ */
+public class Utf8LineReader implements Closeable {
+
+	/**
+	 * Default buffer size. 65536
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1<<16;
+
+	private final InputStream in;
+
+	/**
+	 * Read bytes, the unread ones are between position and limit
+	 */
+	private byte[] buffer;
+	private int position;
+	private int limit;
+
+	/**
+	 * Indicator of a line ended by \r, a \n following it is a part of its end
+	 */
+	private boolean skipNewLine;
+
+	private long count;
+
+	/**
+	 * Constructor:
+	 * @param in the UTF-8 input, closed by {@link #close()}
+	 */
+	public Utf8LineReader(InputStream in) {
+		this.in = in;
+		this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+	}
+
+	/**
+	 * Constructor:
+	 * @param path a UTF-8 file
+	 * @throws IOException
+	 */
+	public Utf8LineReader(Path path) throws IOException {
+		this(Files.newInputStream(path));
+	}
+
+	/**
+	 * @return the next line without its end, null at the end of the input
+	 * @throws IOException
+	 * @throws MalformedInputException if the line is not valid UTF-8
+	 */
+	public byte[] readLine() throws IOException {
+		if(skipNewLine) {
+			skipNewLine = false;
+			if(position<limit || fill(position)) {
+				if(buffer[position]=='\n') {
+					position++;
+					count++;
+				}
+			}
+		}
+		int start = position;
+		int scan = position;
+		while(true) {
+			while(scan<limit) {
+				byte b = buffer[scan];
+				if(b=='\n' || b=='\r') {
+					skipNewLine = b=='\r';
+					return take(start, scan, 1);
+				}
+				scan++;
+			}
+			//Keep the line read so far
+			scan -= start;
+			boolean read = fill(start);
+			start = 0;
+			if(!read) {
+				return scan>0?take(0, scan, 0):null;
+			}
+		}
+	}
+
+	/**
+	 * Read more bytes, unread bytes from start on are moved to the buffer start
+	 * @param start first byte to keep
+	 * @return false at the end of the input
+	 * @throws IOException
+	 */
+	private boolean fill(int start) throws IOException {
+		int kept = limit-start;
+		if(start>0) {
+			System.arraycopy(buffer, start, buffer, 0, kept);
+		}else if(kept==buffer.length) {
+			//A line longer then the buffer
+			buffer = Arrays.copyOf(buffer, buffer.length*2);
+		}
+		position = 0;
+		limit = kept;
+		int read = in.read(buffer, limit, buffer.length-limit);
+		while(read==0) {
+			read = in.read(buffer, limit, buffer.length-limit);
+		}
+		if(read<0) {
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	/**
+	 * Copy a line out of the buffer and move past its end
+	 */
+	private byte[] take(int start, int end, int endLength) throws MalformedInputException {
+		validate(buffer, start, end);
+		byte[] line = Arrays.copyOfRange(buffer, start, end);
+		position = end+endLength;
+		count += end-start+endLength;
+		return line;
+	}
+
+	/**
+	 * Validate UTF-8 bytes, ASCII bytes are only scanned.
+	 * Overlong forms, surrogates and code points above U+10FFFF are malformed
+	 * @param bytes encoded text
+	 * @param start first byte
+	 * @param end byte after the last
+	 * @throws MalformedInputException
+	 */
+	public static void validate(byte[] bytes, int start, int end) throws MalformedInputException {
+		int i = start;
+		while(i<end) {
+			int b = bytes[i];
+			if(b>=0) {
+				i++;
+				continue;
+			}
+			int length;
+			int min;
+			int max = 0xbf;
+			if((b & 0xe0)==0xc0 && (b & 0xff)>=0xc2) {
+				length = 2;
+				min = 0x80;
+			}else if((b & 0xf0)==0xe0) {
+				length = 3;
+				//No overlong forms, no surrogates
+				min = (b & 0xff)==0xe0?0xa0:0x80;
+				max = (b & 0xff)==0xed?0x9f:0xbf;
+			}else if((b & 0xff)>=0xf0 && (b & 0xff)<=0xf4) {
+				length = 4;
+				min = (b & 0xff)==0xf0?0x90:0x80;
+				max = (b & 0xff)==0xf4?0x8f:0xbf;
+			}else {
+				throw new MalformedInputException(1);
+			}
+			if(i+length>end) {
+				throw new MalformedInputException(end-i);
+			}
+			int second = bytes[i+1] & 0xff;
+			if(second<min || second>max) {
+				throw new MalformedInputException(1);
+			}
+			for(int k=2; k<length; k++) {
+				if((bytes[i+k] & 0xc0)!=0x80) {
+					throw new MalformedInputException(k);
+				}
+			}
+			i += length;
+		}
+	}
+
+	/**
+	 * @return number of bytes of the lines read so far, with their ends
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
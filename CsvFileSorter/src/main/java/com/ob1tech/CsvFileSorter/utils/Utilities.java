@@ -1,14 +1,17 @@
 package com.ob1tech.CsvFileSorter.utils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -18,6 +21,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.ob1tech.CsvFileSorter.storage.ByteStore;
 
 /**
  * This class aims to centralize inner program utilities for extended use.
@@ -77,16 +83,42 @@ public class Utilities {
 		return directory.resolve(fileName);
 	}
 
-	public static Object getValueOf(Path filePath, ObjectMapper mapper, Class<?> clazz) {
+	/**
+	 * Shared mapper of the plain data models
+	 * @see #readerFor(Class)
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final Map<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<Class<?>, ObjectReader>();
+	private static final Map<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<Class<?>, ObjectWriter>();
+
+	/**
+	 * @param clazz plain data model type, without custom deserializers
+	 * @return a cached json reader of the type
+	 */
+	public static ObjectReader readerFor(Class<?> clazz) {
+		return READERS.computeIfAbsent(clazz, MAPPER::readerFor);
+	}
+
+	/**
+	 * @param clazz plain data model type
+	 * @return a cached json writer of the type
+	 */
+	public static ObjectWriter writerFor(Class<?> clazz) {
+		return WRITERS.computeIfAbsent(clazz, MAPPER::writerFor);
+	}
+
+	/**
+	 * Read an object from its file, streamed from the file bytes
+	 * @param filePath json file
+	 * @param reader json reader of the object type
+	 * @return the object, or null on error
+	 */
+	public static Object getValueOf(Path filePath, ObjectReader reader) {
 		Object value = null;
-		try {
-			//logger.info("Reading "+filePath.getFileName().toString());
-			List<String> readLines = Files.readAllLines(filePath);
-			if(!readLines.isEmpty()) {
-				String rawString = readLines.get(0);
-				value = mapper.readValue(rawString, clazz);
-			}else {
-				logger.error("Error reading file "+filePath.getFileName().getFileName());
+		try (InputStream input = new BufferedInputStream(Files.newInputStream(filePath))) {
+			value = reader.readValue(input);
+			if(value==null) {
+				logger.error("Error reading file "+filePath.getFileName());
 			}
 		} catch (FileNotFoundException e) {
 			logger.error("Error reading "+filePath.getFileName(),e);
@@ -98,25 +130,43 @@ public class Utilities {
 		return value;
 	}
 	
-	public static void save(Object obj, Path filePath, ObjectMapper mapper) {
-		File file = filePath.toFile();
-		FileOutputStream fileOut = null;
-		try {
-
-			fileOut = new FileOutputStream(file);
-			String serialized = mapper.writeValueAsString(obj);
-			fileOut.write(serialized.getBytes());
+	/**
+	 * Write an object to its file, streamed to the file bytes
+	 * @param obj the object
+	 * @param filePath json file, replaced
+	 * @param writer json writer of the object type
+	 */
+	public static void save(Object obj, Path filePath, ObjectWriter writer) {
+		try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(filePath))) {
+			writer.writeValue(output, obj);
 		} catch (Exception ex) {
 			logger.error("Error writing "+filePath.getFileName(),ex);
-		}finally {
-			try {
-				if(fileOut!=null) {
-					fileOut.close();
-				}
-			} catch (IOException e) {
-				logger.error("Error closing "+filePath.getFileName(),e);
+		}
+	}
+
+	public static Object getValueOf(ByteStore container, long id, ObjectReader reader) {
+		Object value = null;
+		try {
+			byte[] data = container.get(id);
+			if(data!=null) {
+				value = reader.readValue(data);
+			}else {
+				logger.error("Error reading entry "+id+", not found");
 			}
-		}		
+		} catch (IOException e) {
+			logger.error("Error reading entry "+id,e);
+		} catch (Exception e) {
+			logger.error("Error reading entry "+id,e);
+		}
+		return value;
+	}
+	
+	public static void save(Object obj, ByteStore container, long id, ObjectWriter writer) {
+		try {
+			container.put(id, writer.writeValueAsBytes(obj));
+		} catch (Exception ex) {
+			logger.error("Error writing entry "+id,ex);
+		}
 	}
 
 	public static String readLine(Path path) {
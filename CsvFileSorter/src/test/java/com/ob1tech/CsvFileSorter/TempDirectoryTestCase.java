@@ -0,0 +1,54 @@
+package com.ob1tech.CsvFileSorter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+/**
+ * Base of the tests that work on files, every test gets a fresh temp directory deleted after it
+ */
+public abstract class TempDirectoryTestCase extends TestCase {
+
+	/**
+	 * Temp directory of the running test
+	 */
+	protected Path directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory(getClass().getSimpleName());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	/**
+	 * Write lines to a file of the temp directory
+	 * @param name file name
+	 * @param lines file lines, UTF-8
+	 * @return the file path
+	 * @throws IOException
+	 */
+	protected Path write(String name, List<String> lines) throws IOException {
+		return Files.write(directory.resolve(name), lines, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param file a UTF-8 file
+	 * @return the file lines
+	 * @throws IOException
+	 */
+	protected static List<String> read(Path file) throws IOException {
+		return Files.readAllLines(file, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,94 @@
+package com.ob1tech.CsvFileSorter.aggregate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+import com.ob1tech.CsvFileSorter.controllers.ControllerBuilder;
+
+/**
+ * Unit test for {@link Aggregation} over a sorted file, against the values grouped by key
+ */
+public class AggregationTest extends TempDirectoryTestCase {
+
+	private static final int ROWS = 3000;
+
+	/**
+	 * Values by key, null for an empty value
+	 */
+	private Map<Long, List<Integer>> values;
+
+	private Path file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		//Few keys, so keys repeat within and across batches
+		Random random = new Random(31);
+		values = new TreeMap<Long, List<Integer>>();
+		List<String> lines = new ArrayList<String>();
+		lines.add("id,val");
+		for(int i=0; i<ROWS; i++) {
+			long key = random.nextInt(200)-100;
+			//Keys of empty values only too
+			Integer value = key%7==0 || random.nextInt(10)==0?null:random.nextInt(101)-50;
+			values.computeIfAbsent(key, k -> new ArrayList<Integer>()).add(value);
+			lines.add(key+","+(value==null?"":value));
+		}
+		file = write("aggregate.csv", lines);
+	}
+
+	public void testFunctions() throws IOException {
+		for(AggregateFunction function : AggregateFunction.values()) {
+			assertAggregation(function, false);
+		}
+	}
+
+	public void testPreAggregatedFunctions() throws IOException {
+		for(AggregateFunction function : AggregateFunction.values()) {
+			assertAggregation(function, true);
+		}
+	}
+
+	private void assertAggregation(AggregateFunction function, boolean preAggregate) throws IOException {
+		ControllerBuilder builder = new ControllerBuilder()
+				.withKeyType("long")
+				.withKeyIndex(0)
+				.withSkipHeader(true)
+				.withBatchSize(100)
+				.withAggregation(function, 1, preAggregate);
+		builder.setFilePath(file.toString());
+		builder.build().execute();
+
+		List<String> expected = new ArrayList<String>();
+		expected.add("id,"+function.name().toLowerCase()+(function.hasValue()?"(val)":""));
+		for(Map.Entry<Long, List<Integer>> entry : values.entrySet()) {
+			expected.add(entry.getKey()+","+aggregate(function, entry.getValue()));
+		}
+		Path aggregatedFile = file.resolveSibling(Aggregation.AGGREGATED_PREFIX+file.getFileName());
+		assertEquals(function+(preAggregate?" pre aggregated":""), expected, read(aggregatedFile));
+	}
+
+	private static String aggregate(AggregateFunction function, List<Integer> keyValues) {
+		long sum = 0;
+		Integer min = null, max = null;
+		for(Integer value : keyValues) {
+			if(value!=null) {
+				sum += value;
+				min = min==null?value:Math.min(min, value);
+				max = max==null?value:Math.max(max, value);
+			}
+		}
+		switch(function) {
+		case COUNT: return String.valueOf(keyValues.size());
+		case SUM: return String.valueOf(sum);
+		case MIN: return min==null?"":String.valueOf(min);
+		default: return max==null?"":String.valueOf(max);
+		}
+	}
+}
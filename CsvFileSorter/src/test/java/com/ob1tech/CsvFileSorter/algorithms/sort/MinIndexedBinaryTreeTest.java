@@ -0,0 +1,151 @@
+package com.ob1tech.CsvFileSorter.algorithms.sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.ob1tech.CsvFileSorter.dateModel.IndexNode;
+import com.ob1tech.CsvFileSorter.dateModel.SortKey;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the threaded iteration of {@link MinIndexedBinaryTree}
+ */
+public class MinIndexedBinaryTreeTest extends TestCase {
+
+	/**
+	 * Nodes are copied on save and read, like persisted nodes. Keys never mix
+	 */
+	private static class CopyingTree extends MinIndexedBinaryTree<Long> {
+		final Map<Long, IndexNode<Long>> nodes = new HashMap<Long, IndexNode<Long>>();
+		int reads;
+
+		@Override
+		protected void save(long nodeIndex, IndexNode<Long> value) {
+			nodes.put(nodeIndex, copy(value));
+		}
+
+		@Override
+		protected IndexNode<Long> getValueOf(long nodeIndex) {
+			reads++;
+			return copy(nodes.get(nodeIndex));
+		}
+
+		@Override
+		protected void doInnerSwap(IndexNode<Long> lowerLevelNode, IndexNode<Long> higherLevelNode) {
+			throw new UnsupportedOperationException();
+		}
+
+		static IndexNode<Long> copy(IndexNode<Long> node) {
+			IndexNode<Long> copy = new IndexNode<Long>(node.getId(), node.getKey(), node.getLeftNode(), node.getRightNode());
+			copy.setPrevNode(node.getPrevNode());
+			copy.setNextNode(node.getNextNode());
+			return copy;
+		}
+	}
+
+	private static CopyingTree build(List<Long> keys, boolean edgeAppend) {
+		CopyingTree tree = new CopyingTree();
+		tree.setEdgeAppend(edgeAppend);
+		for(Long key : keys) {
+			tree.add(new IndexNode<Long>(null, new SortKey<Long>(key, key)));
+		}
+		return tree;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Long> walk(MinIndexedBinaryTree<Long> tree) {
+		List<Long> keys = new ArrayList<Long>();
+		Iterator<IndexNode<Long>> iterator = tree.iterator();
+		while(iterator.hasNext()) {
+			keys.add((Long) iterator.next().getKey().getMinValue());
+		}
+		return keys;
+	}
+
+	private static List<Long> keys(int size, long seed) {
+		List<Long> keys = new ArrayList<Long>();
+		for(long i=0; i<size; i++) {
+			keys.add(i*3);
+		}
+		Collections.shuffle(keys, new Random(seed));
+		return keys;
+	}
+
+	public void testRandomInsertsIterateInOrder() {
+		for(boolean edgeAppend : new boolean[] {true, false}) {
+			List<Long> keys = keys(500, 7);
+			CopyingTree tree = build(keys, edgeAppend);
+			Collections.sort(keys);
+			tree.reads = 0;
+			assertEquals(keys, walk(tree));
+			//One read per node, the root is in memory
+			assertEquals(keys.size()-1, tree.reads);
+		}
+	}
+
+	public void testSortedRunsIterateInOrder() {
+		List<Long> keys = keys(200, 3);
+		Collections.sort(keys);
+		assertEquals(keys, walk(build(keys, true)));
+		List<Long> reversed = new ArrayList<Long>(keys);
+		Collections.reverse(reversed);
+		assertEquals(keys, walk(build(reversed, true)));
+	}
+
+	public void testSortedRunsAppendAtTheEdges() {
+		List<Long> keys = keys(200, 13);
+		Collections.sort(keys);
+		List<Long> reversed = new ArrayList<Long>(keys);
+		Collections.reverse(reversed);
+		for(List<Long> run : Arrays.asList(keys, reversed)) {
+			//Parked at the edge node, not passing the growing edge of the tree
+			CopyingTree tree = new CopyingTree();
+			for(Long key : run) {
+				tree.add(new IndexNode<Long>(null, new SortKey<Long>(key, key)));
+			}
+			assertTrue(tree.reads<=2*run.size());
+			CopyingTree passing = build(run, false);
+			//Every node passes the nodes before it, but the root in memory
+			assertEquals((run.size()-1)*(run.size()-2)/2, passing.reads);
+		}
+	}
+
+	public void testUnthreadedTreeIsThreadedOnRestore() {
+		List<Long> keys = keys(300, 11);
+		CopyingTree tree = build(keys, true);
+		for(IndexNode<Long> node : tree.nodes.values()) {
+			node.setPrevNode(null);
+			node.setNextNode(null);
+		}
+		CopyingTree restored = new CopyingTree();
+		restored.nodes.putAll(tree.nodes);
+		restored.restore(restored.getValueOf(0), keys.size());
+		Collections.sort(keys);
+		assertEquals(keys, walk(restored));
+	}
+
+	public void testEqualKeysAreOrderedByLine() {
+		//Batches of one repeated key never overlap, no swap
+		List<Long> lines = keys(300, 5);
+		CopyingTree tree = new CopyingTree();
+		for(Long line : lines) {
+			tree.add(new IndexNode<Long>(null, new SortKey<Long>(7L, line, 7L, line)));
+		}
+		Collections.sort(lines);
+		List<Long> walked = new ArrayList<Long>();
+		Iterator<IndexNode<Long>> iterator = tree.iterator();
+		while(iterator.hasNext()) {
+			walked.add(iterator.next().getKey().getMinLine());
+		}
+		assertEquals(lines, walked);
+		//Keys persisted without lines keep comparing equal
+		assertEquals(0, new SortKey<Long>(7L, 7L).compareTo(new SortKey<Long>(7L, 1L, 7L, 1L)));
+	}
+}
@@ -0,0 +1,74 @@
+package com.ob1tech.CsvFileSorter.algorithms.sort;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link RadixSort}
+ */
+public class RadixSortTest extends TestCase {
+
+	public void testSortsSignedLongs() {
+		Random random = new Random(7);
+		long[] values = new long[5000];
+		for(int i=0; i<values.length; i++) {
+			values[i] = random.nextLong();
+		}
+		values[0] = Long.MIN_VALUE;
+		values[1] = Long.MAX_VALUE;
+		values[2] = 0;
+		values[3] = -1;
+		assertSortedOrder(values);
+	}
+
+	public void testSortsSmallRangeStable() {
+		long[] values = new long[1000];
+		for(int i=0; i<values.length; i++) {
+			values[i] = (i*7)%13;
+		}
+		int[] order = RadixSort.sort(values.clone());
+		for(int i=1; i<order.length; i++) {
+			long previous = values[order[i-1]];
+			long current = values[order[i]];
+			assertTrue(previous<=current);
+			if(previous==current) {
+				//Equal keys keep their order
+				assertTrue(order[i-1]<order[i]);
+			}
+		}
+	}
+
+	public void testSortableBitsKeepDoubleOrder() {
+		double[] doubles = {3.5, -0.0, 0.0, -2.25, Double.NEGATIVE_INFINITY, 1e-300,
+				-1e300, Double.POSITIVE_INFINITY, Double.NaN, 42, -42};
+		long[] keys = new long[doubles.length];
+		for(int i=0; i<doubles.length; i++) {
+			keys[i] = RadixSort.sortableBits(doubles[i]);
+		}
+		int[] order = RadixSort.sort(keys);
+		Double[] expected = new Double[doubles.length];
+		for(int i=0; i<doubles.length; i++) {
+			expected[i] = doubles[i];
+		}
+		Arrays.sort(expected);
+		for(int i=0; i<order.length; i++) {
+			assertEquals(expected[i], Double.valueOf(doubles[order[i]]));
+		}
+	}
+
+	public void testEmptyAndSingle() {
+		assertEquals(0, RadixSort.sort(new long[0]).length);
+		assertEquals(0, RadixSort.sort(new long[] {5})[0]);
+	}
+
+	private static void assertSortedOrder(long[] values) {
+		int[] order = RadixSort.sort(values.clone());
+		long[] expected = values.clone();
+		Arrays.sort(expected);
+		for(int i=0; i<order.length; i++) {
+			assertEquals(expected[i], values[order[i]]);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+
+/**
+ * Unit test for the append mode of {@link Controller}, a sort and its appends against the full sort
+ */
+public class AppendTest extends TempDirectoryTestCase {
+
+	private static final String HEADER = "id,line";
+
+	private Random random = new Random(33);
+
+	private int line = 0;
+
+	public void testAppendsMatchFullSort() throws IOException {
+		List<String> all = rows(2000, 0, 500);
+		Path file = write("append.csv", withHeader(all));
+		sort(file, null);
+
+		//New keys among the previous ones
+		List<String> inner = rows(300, 0, 500);
+		all.addAll(inner);
+		sort(file, write("inner.csv", withHeader(inner)).toString());
+		assertEquals(sorted(all), read(BatchController.getSortedFilePath(file)));
+
+		//New keys after the last one, the previous batches are copied as they are
+		List<String> edge = rows(300, 1000, 1100);
+		all.addAll(edge);
+		sort(file, write("edge.csv", withHeader(edge)).toString());
+		assertEquals(sorted(all), read(BatchController.getSortedFilePath(file)));
+	}
+
+	public void testAppendWithoutPreviousSort() throws IOException {
+		Path file = write("append.csv", withHeader(rows(10, 0, 5)));
+		Path appended = write("inner.csv", withHeader(rows(10, 0, 5)));
+		try {
+			sort(file, appended.toString());
+			fail("There is no previous sort to append to");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("no previous sort"));
+		}
+	}
+
+	/**
+	 * Rows of keys in a range, equal keys are frequent
+	 */
+	private List<String> rows(int count, int fromKey, int toKey) {
+		List<String> rows = new ArrayList<String>();
+		for(int i=0; i<count; i++) {
+			rows.add((fromKey+random.nextInt(toKey-fromKey))+","+(line++));
+		}
+		return rows;
+	}
+
+	private static List<String> withHeader(List<String> rows) {
+		List<String> lines = new ArrayList<String>();
+		lines.add(HEADER);
+		lines.addAll(rows);
+		return lines;
+	}
+
+	/**
+	 * Stable, appended records come after the previous records of their key
+	 */
+	private static List<String> sorted(List<String> rows) {
+		List<String> sorted = new ArrayList<String>(rows);
+		sorted.sort(Comparator.comparingLong(row -> Long.parseLong(row.substring(0, row.indexOf(',')))));
+		return withHeader(sorted);
+	}
+
+	private static void sort(Path file, String appendFile) {
+		ControllerBuilder builder = new ControllerBuilder()
+				.withKeyType("long")
+				.withKeyIndex(0)
+				.withSkipHeader(true)
+				.withBatchSize(100)
+				.withAppendFile(appendFile);
+		builder.setFilePath(file.toString());
+		builder.build().execute();
+	}
+}
@@ -0,0 +1,94 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+import com.ob1tech.CsvFileSorter.dateModel.IndexNode;
+import com.ob1tech.CsvFileSorter.dateModel.RecordBatchNode;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link BatchPrefetcher}, nodes in order with their batches, read ahead by the depth only
+ */
+public class BatchPrefetcherTest extends TestCase {
+
+	private static final int NODES = 50;
+
+	private List<IndexNode<Long>> nodes;
+
+	/**
+	 * Batches asked from the loader so far
+	 */
+	private AtomicInteger loads;
+
+	@Override
+	protected void setUp() throws Exception {
+		nodes = new ArrayList<IndexNode<Long>>();
+		for(long id=0; id<NODES; id++) {
+			nodes.add(new IndexNode<Long>(id, null));
+		}
+		loads = new AtomicInteger();
+	}
+
+	private LongFunction<RecordBatchNode<Long>> loader() {
+		return id -> {
+			loads.incrementAndGet();
+			return new RecordBatchNode<Long>(id);
+		};
+	}
+
+	public void testDepths() {
+		for(int depth : new int[] {0, 1, 4, NODES+1}) {
+			loads.set(0);
+			assertPrefetch(depth);
+		}
+	}
+
+	private void assertPrefetch(int depth) {
+		//Odd nodes are copied without their batch
+		try (BatchPrefetcher<Long> prefetcher = new BatchPrefetcher<Long>(nodes.iterator(), loader(),
+				node -> node.getId()%2==0, depth)) {
+			int returned = 0;
+			while(prefetcher.hasNext()) {
+				IndexNode<Long> node = prefetcher.next();
+				returned++;
+				assertSame(nodes.get(returned-1), node);
+				//The next node and at most depth nodes after it are read
+				assertTrue("depth "+depth, loads.get()<=(returned+depth+1)/2);
+				RecordBatchNode<Long> batch = prefetcher.getBatch();
+				if(node.getId()%2==0) {
+					assertEquals(node.getId(), batch.getId());
+				}else {
+					assertNull(batch);
+				}
+			}
+			assertEquals(NODES, returned);
+			assertEquals(NODES/2, loads.get());
+		}
+	}
+
+	public void testLoaderFailure() {
+		LongFunction<RecordBatchNode<Long>> loader = id -> {
+			if(id==3) {
+				throw new IllegalStateException("batch "+id);
+			}
+			return new RecordBatchNode<Long>(id);
+		};
+		try (BatchPrefetcher<Long> prefetcher = new BatchPrefetcher<Long>(nodes.iterator(), loader, node -> true, 2)) {
+			for(int i=0; i<3; i++) {
+				prefetcher.next();
+				assertEquals(i, prefetcher.getBatch().getId().intValue());
+			}
+			prefetcher.next();
+			try {
+				prefetcher.getBatch();
+				fail("The batch read failed");
+			} catch (IllegalStateException e) {
+				assertEquals("batch 3", e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+
+/**
+ * Unit test for the distinct modes of {@link Controller}, against the records grouped by key
+ */
+public class DistinctTest extends TempDirectoryTestCase {
+
+	private static final int ROWS = 3000;
+
+	private List<String> rows;
+
+	private Path file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		//Few keys and values, so keys repeat across batches and rows repeat
+		Random random = new Random(30);
+		rows = new ArrayList<String>();
+		for(int i=0; i<ROWS; i++) {
+			rows.add(random.nextInt(300)+","+random.nextInt(4));
+		}
+		file = write("distinct.csv", rows);
+	}
+
+	public void testFirst() throws IOException {
+		List<String> expected = new ArrayList<String>();
+		for(List<String> keyRows : byKey().values()) {
+			expected.add(keyRows.get(0));
+		}
+		assertEquals(expected, distinct(DistinctPolicy.FIRST));
+	}
+
+	public void testLast() throws IOException {
+		List<String> expected = new ArrayList<String>();
+		for(List<String> keyRows : byKey().values()) {
+			expected.add(keyRows.get(keyRows.size()-1));
+		}
+		assertEquals(expected, distinct(DistinctPolicy.LAST));
+	}
+
+	public void testRow() throws IOException {
+		List<String> expected = new ArrayList<String>();
+		for(List<String> keyRows : byKey().values()) {
+			expected.addAll(new LinkedHashSet<String>(keyRows));
+		}
+		assertEquals(expected, distinct(DistinctPolicy.ROW));
+	}
+
+	/**
+	 * @return the rows of every key in read order, by key
+	 */
+	private Map<Long, List<String>> byKey() {
+		Map<Long, List<String>> byKey = new TreeMap<Long, List<String>>();
+		for(String row : rows) {
+			long key = Long.parseLong(row.substring(0, row.indexOf(',')));
+			byKey.computeIfAbsent(key, k -> new ArrayList<String>()).add(row);
+		}
+		return byKey;
+	}
+
+	private List<String> distinct(DistinctPolicy policy) throws IOException {
+		ControllerBuilder builder = new ControllerBuilder()
+				.withKeyType("long")
+				.withKeyIndex(0)
+				.withBatchSize(100)
+				.withDistinct(policy);
+		builder.setFilePath(file.toString());
+		builder.build().execute();
+		return read(BatchController.getSortedFilePath(file));
+	}
+}
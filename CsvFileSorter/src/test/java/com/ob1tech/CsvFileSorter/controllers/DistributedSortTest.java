@@ -0,0 +1,115 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.ob1tech.CsvFileSorter.SortWorker;
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+
+/**
+ * Unit test for {@link DistributedSortController}, a sort over workers against a full sort
+ */
+public class DistributedSortTest extends TempDirectoryTestCase {
+
+	private static final String HEADER = "id,line";
+
+	private static final int ROWS = 4000;
+
+	private List<SortWorker> workers = new ArrayList<SortWorker>();
+
+	@Override
+	protected void tearDown() throws Exception {
+		for(SortWorker worker : workers) {
+			worker.close();
+		}
+		super.tearDown();
+	}
+
+	public void testRunningWorkers() throws IOException {
+		List<String> addresses = new ArrayList<String>();
+		for(int i=0; i<3; i++) {
+			addresses.add("localhost:"+startWorker().getPort());
+		}
+		assertDistributedSort(new ControllerBuilder().withWorkers(0, addresses));
+	}
+
+	public void testSampleSortWorkers() throws IOException {
+		List<String> addresses = new ArrayList<String>();
+		for(int i=0; i<2; i++) {
+			addresses.add("localhost:"+startWorker().getPort());
+		}
+		assertDistributedSort(new ControllerBuilder().withWorkers(0, addresses).withSampleSort(2));
+	}
+
+	public void testLocalWorkerProcesses() throws IOException {
+		assertDistributedSort(new ControllerBuilder().withWorkers(2, null));
+	}
+
+	public void testUnreachableWorker() throws IOException {
+		SortWorker worker = startWorker();
+		String address = "localhost:"+worker.getPort();
+		worker.close();
+		Path file = write("unreachable.csv", Arrays.asList(HEADER, "2,0", "1,1"));
+		try {
+			sort(new ControllerBuilder().withWorkers(0, Arrays.asList(address)), file);
+			fail("The closed worker can not be connected");
+		} catch (UncheckedIOException e) {
+			assertFalse(Files.exists(BatchController.getSortedFilePath(file)));
+		}
+	}
+
+	/**
+	 * A worker serving on a thread of this JVM
+	 */
+	private SortWorker startWorker() throws IOException {
+		SortWorker worker = new SortWorker(0)
+				.withTempDirectory(Files.createDirectory(directory.resolve("worker"+workers.size())));
+		workers.add(worker);
+		Thread thread = new Thread(() -> {
+			try {
+				worker.serve();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return worker;
+	}
+
+	private void assertDistributedSort(ControllerBuilder builder) throws IOException {
+		Random random = new Random(40);
+		List<String> rows = new ArrayList<String>();
+		for(int i=0; i<ROWS; i++) {
+			rows.add((random.nextInt(1000)-500)+","+i);
+		}
+		List<String> lines = new ArrayList<String>();
+		lines.add(HEADER);
+		lines.addAll(rows);
+		Path file = write("distributed.csv", lines);
+		sort(builder, file);
+
+		//Stable, every partition is sorted in the read order
+		rows.sort(Comparator.comparingLong(row -> Long.parseLong(row.substring(0, row.indexOf(',')))));
+		List<String> expected = new ArrayList<String>();
+		expected.add(HEADER);
+		expected.addAll(rows);
+		assertEquals(expected, read(BatchController.getSortedFilePath(file)));
+	}
+
+	private static void sort(ControllerBuilder builder, Path file) {
+		builder.withKeyType("long")
+				.withKeyIndex(0)
+				.withSkipHeader(true)
+				.withBatchSize(200)
+				.setFilePath(file.toString());
+		builder.build().execute();
+	}
+}
@@ -0,0 +1,134 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+import com.ob1tech.CsvFileSorter.dateModel.IndexNode;
+import com.ob1tech.CsvFileSorter.dateModel.RecordBatchNode;
+import com.ob1tech.CsvFileSorter.dateModel.RecordIndex;
+
+/**
+ * Unit test for {@link IndexRecordController#doInnerSwap(IndexNode, IndexNode)},
+ * the linear merge into the batches lists against the previous full sorted list
+ */
+public class InnerSwapTest extends TempDirectoryTestCase {
+
+	private BatchController<Long> batchController;
+
+	private Map<Long, Long> recordToBatchMap;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		recordToBatchMap = new HashMap<Long, Long>();
+		batchController = new BatchController<Long>(directory.resolve("swap.csv"), 100,
+				Long.class.getTypeName(), recordToBatchMap);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		batchController.close();
+		super.tearDown();
+	}
+
+	public void testSwapMatchesFullSortedList() {
+		Random random = new Random(3);
+		long line = 0;
+		for(long trial=0; trial<200; trial++) {
+			//Few distinct keys, equal keys are ordered by line
+			int keys = 1+random.nextInt(50);
+			RecordBatchNode<Long> higher = batch(trial*2, 1+random.nextInt(100), keys, line, random);
+			line += higher.getRecords().size();
+			RecordBatchNode<Long> lower = batch(trial*2+1, 1+random.nextInt(100), keys, line, random);
+			line += lower.getRecords().size();
+
+			List<RecordIndex<Long>> sorted = previousSwap(higher.getRecords(), lower.getRecords());
+			List<RecordIndex<Long>> expectedHigher = sorted.subList(0, higher.getRecords().size());
+			List<RecordIndex<Long>> expectedLower = sorted.subList(higher.getRecords().size(), sorted.size());
+
+			//Read positions, only the moved records are updated
+			for(RecordBatchNode<Long> batch : Arrays.asList(higher, lower)) {
+				for(RecordIndex<Long> record : batch.getRecords()) {
+					recordToBatchMap.put(record.getRecordLine(), batch.getId());
+				}
+			}
+			batchController.save(higher.getId(), higher);
+			batchController.save(lower.getId(), lower);
+			batchController.getIndexRecordController().doInnerSwap(
+					new IndexNode<Long>(lower.getId(), lower.getKey()),
+					new IndexNode<Long>(higher.getId(), higher.getKey()));
+
+			assertBatch(expectedHigher, batchController.getValueOf(higher.getId()));
+			assertBatch(expectedLower, batchController.getValueOf(lower.getId()));
+		}
+	}
+
+	/**
+	 * A sorted batch of random keys, lines from the first line on
+	 */
+	private static RecordBatchNode<Long> batch(long id, int size, int keys, long firstLine, Random random) {
+		List<RecordIndex<Long>> records = new ArrayList<RecordIndex<Long>>();
+		for(int i=0; i<size; i++) {
+			records.add(new RecordIndex<Long>(firstLine+i, (long) random.nextInt(keys)));
+		}
+		Collections.sort(records);
+		RecordBatchNode<Long> batch = new RecordBatchNode<Long>(id, size);
+		for(RecordIndex<Long> record : records) {
+			batch.insert(record);
+		}
+		return batch;
+	}
+
+	/**
+	 * The full ordered list of both batches, as the swap built before the batches were merged linearly
+	 */
+	private static List<RecordIndex<Long>> previousSwap(List<RecordIndex<Long>> higherLevelNodeRecords,
+			List<RecordIndex<Long>> lowerLevelNodeRecords) {
+		int highrIndex = 0, lowerIndex = 0;
+		List<RecordIndex<Long>> sortedList = new LinkedList<RecordIndex<Long>>();
+		while(highrIndex < higherLevelNodeRecords.size()) {
+			RecordIndex<Long> record = higherLevelNodeRecords.get(highrIndex);
+			while(lowerIndex < lowerLevelNodeRecords.size()) {
+				RecordIndex<Long> recordLow = lowerLevelNodeRecords.get(lowerIndex);
+				if(recordLow.compareTo(record)<0) {
+					sortedList.add(recordLow);
+					lowerIndex++;
+				}else {
+					break;
+				}
+			}
+			sortedList.add(record);
+			highrIndex++;
+		}
+		while(lowerIndex < lowerLevelNodeRecords.size()) {
+			sortedList.add(lowerLevelNodeRecords.get(lowerIndex++));
+		}
+		return new ArrayList<RecordIndex<Long>>(sortedList);
+	}
+
+	/**
+	 * The batch holds the expected records in order, their min/max and their positions point to it
+	 */
+	private void assertBatch(List<RecordIndex<Long>> expected, RecordBatchNode<Long> batch) {
+		List<RecordIndex<Long>> records = batch.getRecords();
+		assertEquals(expected.size(), records.size());
+		for(int i=0; i<expected.size(); i++) {
+			assertEquals(expected.get(i).getRecordLine(), records.get(i).getRecordLine());
+			assertEquals(expected.get(i).getKey(), records.get(i).getKey());
+			assertEquals(batch.getId(), recordToBatchMap.get(records.get(i).getRecordLine()));
+		}
+		RecordIndex<Long> first = expected.get(0);
+		RecordIndex<Long> last = expected.get(expected.size()-1);
+		assertEquals(first.getKey(), batch.getKey().getMinValue());
+		assertEquals(first.getRecordLine(), batch.getKey().getMinLine().longValue());
+		assertEquals(last.getKey(), batch.getKey().getMaxValue());
+		assertEquals(last.getRecordLine(), batch.getKey().getMaxLine().longValue());
+	}
+}
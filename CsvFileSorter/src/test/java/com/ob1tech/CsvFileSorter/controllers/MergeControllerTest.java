@@ -0,0 +1,74 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+
+/**
+ * Unit test for {@link MergeController}, the k-way merge of sorted files
+ */
+public class MergeControllerTest extends TempDirectoryTestCase {
+
+	public void testEqualKeysKeepTheFilesOrder() throws IOException {
+		Path first = write("first.csv", Arrays.asList("id,file", "1,a", "2,a", "2,a", "5,a"));
+		Path second = write("second.csv", Arrays.asList("id,file", "1,b", "2,b", "3,b", "5,b"));
+		Path third = write("third.csv", Arrays.asList("id,file", "0,c", "2,c", "5,c"));
+
+		merge(first, second, third);
+
+		assertEquals(Arrays.asList("id,file", "0,c", "1,a", "1,b", "2,a", "2,a", "2,b", "2,c", "3,b",
+				"5,a", "5,b", "5,c"), read(BatchController.getSortedFilePath(first)));
+	}
+
+	public void testUnsortedInputLeavesNoSortedFile() throws IOException {
+		Path first = write("first.csv", Arrays.asList("id,file", "1,a", "3,a"));
+		Path second = write("second.csv", Arrays.asList("id,file", "1,b", "4,b", "2,b", "5,b"));
+		Path sortedFile = BatchController.getSortedFilePath(first);
+		List<String> previous = Collections.singletonList("previous");
+		write(sortedFile.getFileName().toString(), previous);
+
+		try {
+			merge(first, second);
+			fail("The unsorted input must stop the merge");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("record 3"));
+		}
+		//The previous sorted file is kept, nothing partial is left
+		assertEquals(previous, read(sortedFile));
+		try (Stream<Path> files = Files.list(directory)) {
+			assertEquals(3, files.count());
+		}
+	}
+
+	public void testMissingInputLeavesNoSortedFile() throws IOException {
+		Path first = write("first.csv", Arrays.asList("id,file", "1,a", "3,a"));
+
+		try {
+			merge(first, directory.resolve("missing.csv"));
+			fail("The missing input must stop the merge");
+		} catch (UncheckedIOException e) {
+			assertFalse(Files.exists(BatchController.getSortedFilePath(first)));
+		}
+	}
+
+	private static void merge(Path first, Path... others) throws IOException {
+		String[] mergeFiles = new String[others.length];
+		for(int i=0; i<others.length; i++) {
+			mergeFiles[i] = others[i].toString();
+		}
+		ControllerBuilder builder = new ControllerBuilder()
+				.withKeyType("long")
+				.withKeyIndex(0)
+				.withSkipHeader(true)
+				.withMergeFiles(Arrays.asList(mergeFiles));
+		builder.setFilePath(first.toString());
+		builder.build().execute();
+	}
+}
@@ -0,0 +1,99 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+import com.ob1tech.CsvFileSorter.dateModel.RecordIndex;
+
+/**
+ * Unit test for the natural runs of {@link Controller}, ascending and descending batches and input
+ */
+public class NaturalRunTest extends TempDirectoryTestCase {
+
+	private static final int ROWS = 3000;
+
+	public void testRunOrder() {
+		Controller<Long> controller = new Controller<Long>();
+		assertEquals(1, controller.runOrder(records()));
+		assertEquals(1, controller.runOrder(records(7)));
+		assertEquals(1, controller.runOrder(records(1, 2, 2, 3)));
+		assertEquals(-1, controller.runOrder(records(3, 2, 1)));
+		//Equal keys are ordered by line, reversing them would not be stable
+		assertEquals(0, controller.runOrder(records(3, 2, 2, 1)));
+		assertEquals(0, controller.runOrder(records(1, 3, 2)));
+	}
+
+	public void testAscendingInput() throws IOException {
+		List<String> rows = new ArrayList<String>();
+		Random random = new Random(35);
+		int key = 0;
+		for(int i=0; i<ROWS; i++) {
+			key += random.nextInt(3);
+			rows.add(key+","+i);
+		}
+		Controller<?> controller = assertSorted(rows);
+		//Copied as it is, a copy has no manifest to append to
+		assertFalse(Files.exists(controller.getManifestFilePath()));
+	}
+
+	public void testDescendingInput() throws IOException {
+		List<String> rows = new ArrayList<String>();
+		for(int i=0; i<ROWS; i++) {
+			rows.add((ROWS-i)+","+i);
+		}
+		Controller<?> controller = assertSorted(rows);
+		assertTrue(Files.exists(controller.getManifestFilePath()));
+	}
+
+	public void testDescendingInputWithEqualKeys() throws IOException {
+		List<String> rows = new ArrayList<String>();
+		for(int i=0; i<ROWS; i++) {
+			rows.add((ROWS-i)/3+","+i);
+		}
+		assertSorted(rows);
+	}
+
+	public void testNearlySortedInput() throws IOException {
+		List<String> rows = new ArrayList<String>();
+		Random random = new Random(350);
+		for(int i=0; i<ROWS; i++) {
+			rows.add((random.nextInt(20)==0?random.nextInt(ROWS):i)+","+i);
+		}
+		assertSorted(rows);
+	}
+
+	/**
+	 * Sort by batches of whole and partial runs, equal keys must keep the read order
+	 * @return the sorting controller
+	 */
+	private Controller<?> assertSorted(List<String> rows) throws IOException {
+		Path file = write("runs.csv", rows);
+		ControllerBuilder builder = new ControllerBuilder()
+				.withKeyType("long")
+				.withKeyIndex(0)
+				.withBatchSize(128);
+		builder.setFilePath(file.toString());
+		Controller<?> controller = builder.build();
+		controller.execute();
+
+		List<String> expected = new ArrayList<String>(rows);
+		expected.sort(Comparator.comparingLong(row -> Long.parseLong(row.substring(0, row.indexOf(',')))));
+		assertEquals(expected, read(BatchController.getSortedFilePath(file)));
+		return controller;
+	}
+
+	private static List<RecordIndex<Long>> records(long... keys) {
+		List<RecordIndex<Long>> records = new ArrayList<RecordIndex<Long>>();
+		for(int i=0; i<keys.length; i++) {
+			records.add(new RecordIndex<Long>(i+1, keys[i]));
+		}
+		return Collections.unmodifiableList(records);
+	}
+}
@@ -0,0 +1,72 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+
+/**
+ * Unit test for the parallel batch sort of {@link Controller}, batches at the parallel threshold
+ * are sorted on the batch sorter thread while the next one is read
+ */
+public class ParallelBatchSortTest extends TempDirectoryTestCase {
+
+	private static final int ROWS = 20000;
+
+	public void testStringKeysSortedAndStable() throws IOException {
+		assertParallelSort("string", index -> String.format("k%03d", index));
+	}
+
+	public void testLongKeysSortedAndStable() throws IOException {
+		assertParallelSort("long", index -> String.valueOf(index-50));
+	}
+
+	private interface KeyText {
+		String of(int index);
+	}
+
+	/**
+	 * Sort rows of few distinct keys, key,line number, by batches all over the parallel threshold.
+	 * The rows must come out by key, equal keys in the line order
+	 */
+	private void assertParallelSort(String keyType, KeyText keyText) throws IOException {
+		Random random = new Random(11);
+		int[] keys = new int[ROWS];
+		List<String> lines = new ArrayList<String>();
+		for(int i=0; i<ROWS; i++) {
+			keys[i] = random.nextInt(100);
+			lines.add(keyText.of(keys[i])+","+i);
+		}
+		Path file = write(keyType+".csv", lines);
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ControllerBuilder builder = new ControllerBuilder()
+				.withKeyType(keyType)
+				.withKeyIndex(0)
+				.withBatchSize(4000)
+				.withOutput(output);
+		builder.setFilePath(file.toString());
+		Controller<?> controller = builder.build();
+		controller.setParallelThreshold(1000);
+		controller.execute();
+
+		Integer[] expected = new Integer[ROWS];
+		for(int i=0; i<ROWS; i++) {
+			expected[i] = i;
+		}
+		//Stable, equal keys keep the line order
+		Arrays.sort(expected, Comparator.comparingInt(line -> keys[line]));
+		String[] sorted = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\\R");
+		assertEquals(ROWS, sorted.length);
+		for(int i=0; i<ROWS; i++) {
+			assertEquals(lines.get(expected[i]), sorted[i]);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+
+/**
+ * Unit test for {@link QueryController}, key ranges by the sparse index against a scan of the sorted rows
+ */
+public class QueryControllerTest extends TempDirectoryTestCase {
+
+	private static final String HEADER = "id,line";
+
+	private static final int ROWS = 12000;
+
+	private static final int KEYS = 3000;
+
+	/**
+	 * A key of many rows, its rows span several kept keys of the sparse index
+	 */
+	private static final int HEAVY_KEY = 1500;
+
+	private List<String> rows;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(34);
+		rows = new ArrayList<String>();
+		for(int i=0; i<ROWS; i++) {
+			int key = random.nextInt(5)==0?HEAVY_KEY:random.nextInt(KEYS);
+			rows.add(key+","+i);
+		}
+	}
+
+	public void testIndexTreeSort() throws IOException {
+		Path file = write("tree.csv", withHeader(rows));
+		sort(new ControllerBuilder().withBatchSize(300), file);
+		assertQueries(file);
+	}
+
+	public void testSampleSort() throws IOException {
+		Path file = write("sample.csv", withHeader(rows));
+		sort(new ControllerBuilder().withSampleSort(4), file);
+		assertQueries(file);
+	}
+
+	public void testSortedInput() throws IOException {
+		rows = sorted(rows);
+		Path file = write("sorted.csv", withHeader(rows));
+		sort(new ControllerBuilder().withBatchSize(300), file);
+		assertQueries(file);
+	}
+
+	public void testChangedSortedFile() throws IOException {
+		Path file = write("changed.csv", withHeader(rows));
+		sort(new ControllerBuilder().withBatchSize(300), file);
+		write(BatchController.getSortedFilePath(file).getFileName().toString(), Arrays.asList(HEADER, "1,1"));
+		try {
+			query(file, null, null);
+			fail("The sparse index is of the previous sorted file");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("was changed"));
+		}
+	}
+
+	private void assertQueries(Path file) throws IOException {
+		List<String> sorted = sorted(rows);
+		Random random = new Random(340);
+		List<Long[]> ranges = new ArrayList<Long[]>();
+		ranges.add(new Long[] {null, null});
+		ranges.add(new Long[] {(long) HEAVY_KEY, (long) HEAVY_KEY});
+		ranges.add(new Long[] {(long) HEAVY_KEY-1, (long) HEAVY_KEY+1});
+		ranges.add(new Long[] {-10l, -1l});
+		ranges.add(new Long[] {(long) KEYS, null});
+		ranges.add(new Long[] {null, 0l});
+		ranges.add(new Long[] {20l, 10l});
+		for(int i=0; i<30; i++) {
+			long from = random.nextInt(KEYS);
+			ranges.add(new Long[] {from, from+random.nextInt(200)});
+		}
+		for(Long[] range : ranges) {
+			List<String> expected = new ArrayList<String>();
+			expected.add(HEADER);
+			for(String row : sorted) {
+				long key = key(row);
+				if((range[0]==null || key>=range[0]) && (range[1]==null || key<=range[1])) {
+					expected.add(row);
+				}
+			}
+			assertEquals(range[0]+".."+range[1], expected, query(file, range[0], range[1]));
+		}
+	}
+
+	private static List<String> query(Path file, Long from, Long to) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ControllerBuilder builder = new ControllerBuilder()
+				.withKeyType("long")
+				.withKeyIndex(0)
+				.withSkipHeader(true)
+				.withOutput(output)
+				.withQuery(from!=null?from.toString():null, to!=null?to.toString():null);
+		builder.setFilePath(file.toString());
+		builder.build().execute();
+		return Arrays.asList(new String(output.toByteArray(), StandardCharsets.UTF_8).split("\\R"));
+	}
+
+	private static void sort(ControllerBuilder builder, Path file) {
+		builder.withKeyType("long")
+				.withKeyIndex(0)
+				.withSkipHeader(true)
+				.setFilePath(file.toString());
+		builder.build().execute();
+	}
+
+	private static List<String> withHeader(List<String> rows) {
+		List<String> lines = new ArrayList<String>();
+		lines.add(HEADER);
+		lines.addAll(rows);
+		return lines;
+	}
+
+	private static List<String> sorted(List<String> rows) {
+		List<String> sorted = new ArrayList<String>(rows);
+		sorted.sort(Comparator.comparingLong(QueryControllerTest::key));
+		return sorted;
+	}
+
+	private static long key(String row) {
+		return Long.parseLong(row.substring(0, row.indexOf(',')));
+	}
+}
@@ -0,0 +1,85 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+
+/**
+ * Unit test for {@link SampleSortController}, the key range partitions against a full sort
+ */
+public class SampleSortTest extends TempDirectoryTestCase {
+
+	private static final String HEADER = "id,line,text";
+
+	public void testPartsMatchFullSort() throws IOException {
+		List<String> rows = rows(5000, 2000, 10);
+		for(int parts : new int[] {1, 2, 7, 64}) {
+			assertSampleSort(rows, new ControllerBuilder().withSampleSort(parts), "long");
+		}
+	}
+
+	public void testStringKeys() throws IOException {
+		List<String> rows = new ArrayList<String>();
+		for(String row : rows(5000, 300, 10)) {
+			rows.add("k"+row);
+		}
+		assertSampleSort(rows, new ControllerBuilder().withSampleSort(5), "string");
+	}
+
+	public void testFewKeys() throws IOException {
+		//Splitters of equal keys, most partitions are empty
+		assertSampleSort(rows(3000, 3, 10), new ControllerBuilder().withSampleSort(8), "long");
+	}
+
+	public void testPartitionsOverTheMemoryBudget() throws IOException {
+		//Partitions over the budget share are sorted by the index tree
+		assertSampleSort(rows(4000, 2000, 400),
+				new ControllerBuilder().withSampleSort(2).withMemoryBudget(1), "long");
+	}
+
+	private List<String> rows(int count, int keys, int textLength) {
+		Random random = new Random(39);
+		StringBuilder text = new StringBuilder();
+		for(int i=0; i<textLength; i++) {
+			text.append((char) ('a'+i%26));
+		}
+		List<String> rows = new ArrayList<String>();
+		for(int i=0; i<count; i++) {
+			rows.add(random.nextInt(keys)+","+i+","+text);
+		}
+		return rows;
+	}
+
+	private void assertSampleSort(List<String> rows, ControllerBuilder builder, String keyType) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		lines.add(HEADER);
+		lines.addAll(rows);
+		Path file = write("sample.csv", lines);
+		builder.withKeyType(keyType)
+				.withKeyIndex(0)
+				.withSkipHeader(true)
+				.withBatchSize(200)
+				.setFilePath(file.toString());
+		builder.build().execute();
+
+		List<String> sorted = new ArrayList<String>(rows);
+		Comparator<String> byKey = "long".equals(keyType)
+				?Comparator.comparingLong(row -> Long.parseLong(key(row)))
+				:Comparator.comparing(SampleSortTest::key);
+		//Stable, equal keys in read order
+		sorted.sort(byKey);
+		List<String> expected = new ArrayList<String>();
+		expected.add(HEADER);
+		expected.addAll(sorted);
+		assertEquals(expected, read(BatchController.getSortedFilePath(file)));
+	}
+
+	private static String key(String row) {
+		return row.substring(0, row.indexOf(','));
+	}
+}
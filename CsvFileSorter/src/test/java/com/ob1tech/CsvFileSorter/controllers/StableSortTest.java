@@ -0,0 +1,75 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+
+/**
+ * Unit test for the stable sort of {@link Controller}, heavy duplicate keys over many batches
+ * are written in the read order
+ */
+public class StableSortTest extends TempDirectoryTestCase {
+
+	private static final int ROWS = 4000;
+
+	private interface KeyText {
+		String of(int key, Random random);
+	}
+
+	public void testLongKeys() throws IOException {
+		assertStable("long", (key, random) -> String.valueOf(key-10), Comparator.comparingLong(Long::parseLong));
+	}
+
+	public void testDoubleKeys() throws IOException {
+		assertStable("double", (key, random) -> (key-10)/4.0+"", Comparator.comparingDouble(Double::parseDouble));
+	}
+
+	public void testStringKeys() throws IOException {
+		assertStable("string", (key, random) -> "k"+(char) ('a'+key), Comparator.naturalOrder());
+	}
+
+	public void testCaseInsensitiveKeys() throws IOException {
+		//Equal keys of different text
+		assertStable("string:ci", (key, random) -> {
+			String text = "k"+(char) ('a'+key);
+			return random.nextBoolean()?text:text.toUpperCase();
+		}, String.CASE_INSENSITIVE_ORDER);
+	}
+
+	public void testMemoryBudget() throws IOException {
+		ControllerBuilder builder = new ControllerBuilder().withMemoryBudget(1);
+		assertStable(builder, "long", (key, random) -> String.valueOf(key), Comparator.comparingLong(Long::parseLong));
+	}
+
+	private void assertStable(String keyType, KeyText keyText, Comparator<String> keyOrder) throws IOException {
+		assertStable(new ControllerBuilder().withBatchSize(64), keyType, keyText, keyOrder);
+	}
+
+	/**
+	 * Sort rows of 20 keys, key,line number, and compare to a stable sort of the rows
+	 */
+	private void assertStable(ControllerBuilder builder, String keyType, KeyText keyText,
+			Comparator<String> keyOrder) throws IOException {
+		Random random = new Random(47);
+		List<String> rows = new ArrayList<String>();
+		for(int i=0; i<ROWS; i++) {
+			//Runs of a key across batches
+			int key = i%500<100?7:random.nextInt(20);
+			rows.add(keyText.of(key, random)+","+i);
+		}
+		Path file = write(keyType.replace(':', '_')+".csv", rows);
+		builder.withKeyType(keyType)
+				.withKeyIndex(0)
+				.setFilePath(file.toString());
+		builder.build().execute();
+
+		List<String> expected = new ArrayList<String>(rows);
+		expected.sort(Comparator.comparing(row -> row.substring(0, row.indexOf(',')), keyOrder));
+		assertEquals(expected, read(BatchController.getSortedFilePath(file)));
+	}
+}
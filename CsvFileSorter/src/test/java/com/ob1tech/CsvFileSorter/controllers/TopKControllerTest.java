@@ -0,0 +1,73 @@
+package com.ob1tech.CsvFileSorter.controllers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+
+/**
+ * Unit test for {@link TopKController}, the bounded heap records against the full sort
+ */
+public class TopKControllerTest extends TempDirectoryTestCase {
+
+	private static final int ROWS = 5000;
+
+	private List<String> rows;
+
+	private Path file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		//Few distinct keys, the kept records of equal keys are checked too
+		Random random = new Random(29);
+		rows = new ArrayList<String>();
+		for(int i=0; i<ROWS; i++) {
+			rows.add((random.nextInt(400)-200)+","+i);
+		}
+		List<String> lines = new ArrayList<String>();
+		lines.add("id,line");
+		lines.addAll(rows);
+		file = write("top.csv", lines);
+	}
+
+	public void testSmallestMatchFullSort() throws IOException {
+		for(int topK : new int[] {1, 2, 37, 1000, ROWS, ROWS+10}) {
+			List<String> expected = new ArrayList<String>(rows);
+			//Stable, equal keys in read order
+			expected.sort(Comparator.comparingLong(TopKControllerTest::key));
+			assertTop(expected, topK, false);
+		}
+	}
+
+	public void testLargestMatchFullSort() throws IOException {
+		for(int topK : new int[] {1, 2, 37, 1000, ROWS, ROWS+10}) {
+			List<String> expected = new ArrayList<String>(rows);
+			expected.sort(Comparator.comparingLong(TopKControllerTest::key).reversed());
+			assertTop(expected, topK, true);
+		}
+	}
+
+	private void assertTop(List<String> sorted, int topK, boolean largest) throws IOException {
+		ControllerBuilder builder = new ControllerBuilder()
+				.withKeyType("long")
+				.withKeyIndex(0)
+				.withSkipHeader(true)
+				.withTopK(topK, largest);
+		builder.setFilePath(file.toString());
+		builder.build().execute();
+
+		List<String> expected = new ArrayList<String>();
+		expected.add("id,line");
+		expected.addAll(sorted.subList(0, Math.min(topK, sorted.size())));
+		assertEquals("top "+topK, expected, read(BatchController.getSortedFilePath(file)));
+	}
+
+	private static long key(String row) {
+		return Long.parseLong(row.substring(0, row.indexOf(',')));
+	}
+}
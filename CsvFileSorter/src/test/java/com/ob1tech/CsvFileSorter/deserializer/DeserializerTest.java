@@ -0,0 +1,114 @@
+package com.ob1tech.CsvFileSorter.deserializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.ob1tech.CsvFileSorter.dateModel.IndexNode;
+import com.ob1tech.CsvFileSorter.dateModel.RecordBatchNode;
+import com.ob1tech.CsvFileSorter.dateModel.RecordIndex;
+import com.ob1tech.CsvFileSorter.dateModel.SortKey;
+import com.ob1tech.CsvFileSorter.keys.ByteKey;
+import com.ob1tech.CsvFileSorter.keys.KeyParser;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link RecordsNodeCustomDeserializer} and {@link IndexNodeCustomDeserializer},
+ * nodes written as json are read back equal, from bytes and from text
+ */
+public class DeserializerTest extends TestCase {
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ObjectMapper mapper(String keyType) {
+		SimpleModule module = new SimpleModule("deserializer");
+		module.addDeserializer(RecordBatchNode.class, new RecordsNodeCustomDeserializer(RecordBatchNode.class, keyType));
+		module.addDeserializer(IndexNode.class, new IndexNodeCustomDeserializer(IndexNode.class, keyType));
+		return new ObjectMapper().registerModule(module);
+	}
+
+	public void testLongKeys() throws IOException {
+		assertRoundTrip(Long.class.getTypeName(), Arrays.asList(-7l, 0l, Long.MAX_VALUE));
+	}
+
+	public void testStringKeys() throws IOException {
+		assertRoundTrip(String.class.getTypeName(), Arrays.asList("", "a \"quoted\", key", "日本語"));
+	}
+
+	public void testDoubleKeys() throws IOException {
+		assertRoundTrip(Double.class.getTypeName(), Arrays.asList(-0.5, 1e-300, 3.0));
+	}
+
+	public void testCollatedKeys() throws IOException {
+		KeyParser parser = new KeyParser(KeyParser.CASE_INSENSITIVE);
+		List<ByteKey> keys = Arrays.asList(parser.parse("apple"), parser.parse("Émile"), parser.parse("zoo"));
+		assertRoundTrip(KeyParser.dataTypeOf(KeyParser.STRING_PREFIX+KeyParser.CASE_INSENSITIVE), keys);
+		RecordBatchNode<ByteKey> batch = readBatch(KeyParser.dataTypeOf(KeyParser.STRING_PREFIX+KeyParser.CASE_INSENSITIVE),
+				new ObjectMapper().writeValueAsBytes(batch(keys)));
+		//The persisted sort bytes are kept with the text
+		assertEquals("Émile", batch.getRecords().get(1).getKey().getText());
+	}
+
+	private <T extends Comparable<T>> void assertRoundTrip(String keyType, List<T> keys) throws IOException {
+		ObjectMapper writer = mapper(keyType);
+		RecordBatchNode<T> batch = batch(keys);
+		assertBatch(batch, readBatch(keyType, writer.writeValueAsBytes(batch)));
+		assertBatch(batch, mapper(keyType).readValue(writer.writeValueAsString(batch), RecordBatchNode.class));
+
+		IndexNode<T> node = new IndexNode<T>(5l, batch.getKey(), 2l, null);
+		node.setPrevNode(4l);
+		node.setNextNode(6l);
+		IndexNode<T> read = readNode(keyType, writer.writeValueAsBytes(node));
+		assertEquals(node.getId(), read.getId());
+		assertEquals(node.getLeftNode(), read.getLeftNode());
+		assertNull(read.getRightNode());
+		assertEquals(node.getPrevNode(), read.getPrevNode());
+		assertEquals(node.getNextNode(), read.getNextNode());
+		assertKey(node.getKey(), read.getKey());
+	}
+
+	/**
+	 * A batch of the keys in order, records of non ASCII text too
+	 */
+	private static <T extends Comparable<T>> RecordBatchNode<T> batch(List<T> keys) {
+		RecordBatchNode<T> batch = new RecordBatchNode<T>(3l, keys.size());
+		for(int i=0; i<keys.size(); i++) {
+			String record = keys.get(i)+",\"quoted, \\ text\",Émile 日本語 "+i;
+			batch.insert(new RecordIndex<T>(i+10, keys.get(i), record.getBytes(StandardCharsets.UTF_8)));
+		}
+		return batch;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Comparable<T>> RecordBatchNode<T> readBatch(String keyType, byte[] json) throws IOException {
+		return mapper(keyType).readerFor(RecordBatchNode.class).readValue(json);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Comparable<T>> IndexNode<T> readNode(String keyType, byte[] json) throws IOException {
+		return mapper(keyType).readerFor(IndexNode.class).readValue(json);
+	}
+
+	private static <T extends Comparable<T>> void assertBatch(RecordBatchNode<T> expected, RecordBatchNode<?> batch) {
+		assertEquals(expected.getId(), batch.getId());
+		assertKey(expected.getKey(), batch.getKey());
+		assertEquals(expected.getRecords().size(), batch.getRecords().size());
+		for(int i=0; i<expected.getRecords().size(); i++) {
+			RecordIndex<T> record = expected.getRecords().get(i);
+			RecordIndex<?> read = batch.getRecords().get(i);
+			assertEquals(record.getRecordLine(), read.getRecordLine());
+			assertEquals(record.getKey(), read.getKey());
+			assertTrue(Arrays.equals(record.getRecordBytes(), read.getRecordBytes()));
+		}
+	}
+
+	private static void assertKey(SortKey<?> expected, SortKey<?> key) {
+		assertEquals(expected.getMinValue(), key.getMinValue());
+		assertEquals(expected.getMinLine(), key.getMinLine());
+		assertEquals(expected.getMaxValue(), key.getMaxValue());
+		assertEquals(expected.getMaxLine(), key.getMaxLine());
+	}
+}
@@ -0,0 +1,110 @@
+package com.ob1tech.CsvFileSorter.events;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+import com.ob1tech.CsvFileSorter.controllers.ControllerBuilder;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Unit test for the flight recorder events of a sort, recorded by a recording of this JVM
+ */
+public class SortEventsTest extends TempDirectoryTestCase {
+
+	private static final List<String> EVENTS = Arrays.asList("SortPhase", "BatchRead", "BatchSort",
+			"BatchSave", "BatchLoad", "TreeInsert", "InnerSwap", "OutputWrite");
+
+	private static final int ROWS = 2000;
+
+	private static final int BATCH_SIZE = 50;
+
+	public void testRandomInput() throws IOException {
+		Random random = new Random(49);
+		List<String> rows = new ArrayList<String>();
+		for(int i=0; i<ROWS; i++) {
+			rows.add(random.nextInt(10000)+","+i);
+		}
+		Map<String, List<RecordedEvent>> events = record(rows);
+
+		assertEquals(new HashSet<String>(EVENTS), events.keySet());
+		//The last read finds the end of the input
+		assertEquals(ROWS/BATCH_SIZE+1, events.get("BatchRead").size());
+		assertEquals(ROWS/BATCH_SIZE, events.get("BatchSort").size());
+		assertEquals(ROWS/BATCH_SIZE, events.get("TreeInsert").size());
+		long records = 0;
+		for(RecordedEvent event : events.get("OutputWrite")) {
+			records += event.getInt("records");
+		}
+		assertEquals(ROWS, records);
+		Set<String> phases = new HashSet<String>();
+		for(RecordedEvent event : events.get("SortPhase")) {
+			phases.add(event.getString("phase"));
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("READ", "FINALIZE", "WRITE")), phases);
+	}
+
+	public void testSortedInput() throws IOException {
+		List<String> rows = new ArrayList<String>();
+		for(int i=0; i<ROWS; i++) {
+			rows.add(i+","+i);
+		}
+		Map<String, List<RecordedEvent>> events = record(rows);
+
+		//Runs are not sorted again and are parked at the tree edge, without swaps
+		for(RecordedEvent event : events.get("BatchSort")) {
+			assertEquals("run", event.getString("algorithm"));
+		}
+		List<RecordedEvent> inserts = events.get("TreeInsert");
+		assertEquals(ROWS/BATCH_SIZE, inserts.size());
+		for(RecordedEvent event : inserts) {
+			assertEquals(event.getLong("nodeId")>0, event.getBoolean("edge"));
+			assertEquals(0, event.getInt("swaps"));
+		}
+		assertNull(events.get("InnerSwap"));
+	}
+
+	/**
+	 * Sort the rows while recording the sorter events
+	 * @return the recorded events by name, without the prefix
+	 */
+	private Map<String, List<RecordedEvent>> record(List<String> rows) throws IOException {
+		Path file = write("events.csv", rows);
+		Path dump = directory.resolve("sort.jfr");
+		try (Recording recording = new Recording()) {
+			for(String name : EVENTS) {
+				recording.enable(SortEvents.PREFIX+name).withThreshold(Duration.ZERO);
+			}
+			recording.start();
+			ControllerBuilder builder = new ControllerBuilder()
+					.withKeyType("long")
+					.withKeyIndex(0)
+					.withBatchSize(BATCH_SIZE);
+			builder.setFilePath(file.toString());
+			builder.build().execute();
+			recording.stop();
+			recording.dump(dump);
+		}
+		Map<String, List<RecordedEvent>> events = new HashMap<String, List<RecordedEvent>>();
+		for(RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+			String name = event.getEventType().getName();
+			if(name.startsWith(SortEvents.PREFIX)) {
+				events.computeIfAbsent(name.substring(SortEvents.PREFIX.length()), key -> new ArrayList<RecordedEvent>())
+						.add(event);
+			}
+		}
+		return events;
+	}
+}
@@ -0,0 +1,103 @@
+package com.ob1tech.CsvFileSorter.keys;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link EpochParser}
+ */
+public class EpochParserTest extends TestCase {
+
+	private static long nanos(Instant instant) {
+		return instant.getEpochSecond()*1000_000_000L+instant.getNano();
+	}
+
+	public void testTimestamp() {
+		EpochParser parser = new EpochParser(EpochParser.TIMESTAMP);
+		assertEquals(0L, parser.parse("1970-01-01").longValue());
+		assertEquals(nanos(Instant.parse("2024-03-01T08:15:30.500Z")), parser.parse("2024-03-01T10:15:30.5+02:00").longValue());
+		assertEquals(nanos(Instant.parse("2024-02-29T23:59:00Z")), parser.parse("2024-02-29 23:59").longValue());
+		assertEquals(nanos(Instant.parse("1969-12-31T23:59:59.999999999Z")), parser.parse("1969-12-31t23:59:59.999999999z").longValue());
+		//Formatter layouts
+		assertEquals(nanos(Instant.parse("2024-03-01T09:15:30Z")), parser.parse("2024-03-01T10:15:30+0100").longValue());
+		assertEquals(nanos(Instant.parse("2024-07-01T08:00:00Z")), parser.parse("2024-07-01T10:00:00+02:00[Europe/Paris]").longValue());
+	}
+
+	public void testTimestampMatchesIsoParsing() {
+		EpochParser parser = new EpochParser(EpochParser.TIMESTAMP);
+		Random random = new Random(5);
+		for(int i=0; i<2000; i++) {
+			long second = (random.nextLong()>>>1)%(400L*365*24*3600)-(200L*365*24*3600);
+			LocalDateTime time = LocalDateTime.ofEpochSecond(second, random.nextInt(1000_000_000), ZoneOffset.UTC);
+			ZoneOffset offset = ZoneOffset.ofTotalSeconds((random.nextInt(37)-18)*1800);
+			OffsetDateTime local = time.atOffset(offset);
+			assertEquals(local.toString(), nanos(local.toInstant()), parser.parse(local.toString()).longValue());
+		}
+	}
+
+	public void testDatePattern() {
+		EpochParser parser = new EpochParser("date:dd/MMM/yyyy:HH:mm:ss Z");
+		long millis = parser.parse("10/Oct/2000:13:55:36 -0700");
+		assertEquals(Instant.parse("2000-10-10T20:55:36Z").toEpochMilli(), millis);
+		EpochParser day = new EpochParser("date:dd.MM.yyyy");
+		assertTrue(day.parse("02.01.2024")>day.parse("31.12.2023"));
+		assertEquals("02.01.2024", day.format(day.parse("02.01.2024")));
+	}
+
+	public void testDatePatternWithoutDay() {
+		EpochParser month = new EpochParser("date:yyyy-MM");
+		assertEquals(Instant.parse("2024-03-01T00:00:00Z").toEpochMilli(), month.parse("2024-03").longValue());
+		assertTrue(month.parse("2024-03")>month.parse("2024-02"));
+		assertEquals("2024-03", month.format(month.parse("2024-03")));
+		EpochParser year = new EpochParser("date:yyyy");
+		assertEquals(Instant.parse("2023-01-01T00:00:00Z").toEpochMilli(), year.parse("2023").longValue());
+		EpochParser dayOfYear = new EpochParser("date:yyyy-DDD");
+		assertEquals(Instant.parse("2024-02-03T00:00:00Z").toEpochMilli(), dayOfYear.parse("2024-034").longValue());
+		EpochParser time = new EpochParser("date:HH:mm");
+		assertTrue(time.parse("10:15")>time.parse("09:59"));
+	}
+
+	public void testUnresolvedDatePattern() {
+		for(String keyType : new String[] {"date:MM-dd", "date:YYYY-ww"}) {
+			try {
+				new EpochParser(keyType);
+				fail("Accepted "+keyType);
+			} catch (IllegalArgumentException e) {
+				//Expected
+			}
+		}
+	}
+
+	public void testFormat() {
+		EpochParser parser = new EpochParser(EpochParser.TIMESTAMP);
+		assertEquals("2024-03-01T08:15:30.500Z", parser.format(parser.parse("2024-03-01T10:15:30.5+02:00")));
+		assertEquals("1969-12-31T23:59:59.999999999Z", parser.format(-1));
+	}
+
+	public void testInvalid() {
+		EpochParser parser = new EpochParser(EpochParser.TIMESTAMP);
+		for(String text : new String[] {"2023-02-29", "2024-13-01", "2024-03-01T24:00", "2024-03-01T10:15:3", "yesterday"}) {
+			try {
+				parser.parse(text);
+				fail("Parsed "+text);
+			} catch (DateTimeParseException e) {
+				//Expected
+			}
+		}
+	}
+
+	public void testDataType() {
+		assertTrue(EpochParser.isEpoch("date:yyyy"));
+		assertTrue(EpochParser.isEpoch(EpochParser.TIMESTAMP));
+		assertFalse(EpochParser.isEpoch("long"));
+		String dataType = EpochParser.dataTypeOf("date:yyyy-MM-dd HH:mm");
+		assertEquals("date:yyyy-MM-dd HH:mm", EpochParser.forDataType(dataType).getKeyType());
+		assertNull(EpochParser.forDataType(Long.class.getTypeName()));
+	}
+}
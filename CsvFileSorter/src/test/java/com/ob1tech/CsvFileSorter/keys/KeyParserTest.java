@@ -0,0 +1,64 @@
+package com.ob1tech.CsvFileSorter.keys;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link KeyParser} and {@link ByteKey}
+ */
+public class KeyParserTest extends TestCase {
+
+	private static List<String> sorted(String collation, String... texts) {
+		KeyParser parser = new KeyParser(collation);
+		List<ByteKey> keys = new ArrayList<ByteKey>();
+		for(String text : texts) {
+			keys.add(parser.parse(text));
+		}
+		Collections.sort(keys);
+		List<String> sorted = new ArrayList<String>();
+		for(ByteKey key : keys) {
+			sorted.add(key.toString());
+		}
+		return sorted;
+	}
+
+	public void testCaseInsensitive() {
+		KeyParser parser = new KeyParser(KeyParser.CASE_INSENSITIVE);
+		assertEquals(parser.parse("Apple"), parser.parse("aPPLE"));
+		assertEquals(0, parser.parse("Apple").compareTo(parser.parse("APPLE")));
+		assertEquals(Arrays.asList("apple", "Banana", "cherry"), sorted(KeyParser.CASE_INSENSITIVE, "cherry", "Banana", "apple"));
+	}
+
+	public void testNatural() {
+		assertEquals(Arrays.asList("a-1", "a1", "a2", "a10", "a10b2", "a10b10", "b"),
+				sorted(KeyParser.NATURAL, "a10", "b", "a10b10", "a2", "a1", "a10b2", "a-1"));
+		KeyParser parser = new KeyParser(KeyParser.NATURAL);
+		assertEquals(0, parser.parse("file007").compareTo(parser.parse("file7")));
+	}
+
+	public void testLocale() {
+		//German collation puts umlauts next to their base letter, String.compareTo puts them last
+		assertEquals(Arrays.asList("Apfel", "Äpfel", "Zebra"), sorted("de-DE", "Zebra", "Äpfel", "Apfel"));
+	}
+
+	public void testDataType() {
+		assertTrue(KeyParser.isCollated("string:ci"));
+		assertFalse(KeyParser.isCollated("string"));
+		String dataType = KeyParser.dataTypeOf("string:natural");
+		assertEquals(KeyParser.NATURAL, KeyParser.forDataType(dataType).getCollation());
+		assertNull(KeyParser.forDataType(String.class.getTypeName()));
+	}
+
+	public void testUnknownLocale() {
+		try {
+			new KeyParser("");
+			fail("Unknown collation was accepted");
+		} catch (IllegalArgumentException e) {
+			//Expected
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.ob1tech.CsvFileSorter.progress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ob1tech.CsvFileSorter.progress.SortProgress.Phase;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link ProgressTracker} and {@link ConsoleProgressReporter}
+ */
+public class ProgressTrackerTest extends TestCase {
+
+	public void testSnapshots() {
+		ProgressTracker tracker = new ProgressTracker(0);
+		List<SortProgress> snapshots = new ArrayList<SortProgress>();
+		tracker.addListener(snapshots::add);
+		assertNull(tracker.getProgress());
+		tracker.start(Phase.READ, -1, 1000);
+		//The clock is not read yet
+		tracker.update(512, 400);
+		assertEquals(1, snapshots.size());
+		tracker.update(2048, 800);
+		SortProgress progress = tracker.getProgress();
+		assertEquals(2048, progress.getRows());
+		assertEquals(0.8, progress.getFraction(), 1e-9);
+		assertTrue(progress.getEtaMillis()>=0);
+		tracker.start(Phase.WRITE, 4096, -1);
+		tracker.update(1024, 0);
+		assertEquals(0.25, tracker.getProgress().getFraction(), 1e-9);
+		tracker.finish();
+		List<Phase> phases = new ArrayList<Phase>();
+		for(SortProgress snapshot : snapshots) {
+			phases.add(snapshot.getPhase());
+		}
+		assertEquals(Arrays.asList(Phase.READ, Phase.READ, Phase.READ, Phase.WRITE, Phase.WRITE, Phase.WRITE, Phase.DONE), phases);
+		assertEquals(1, tracker.getProgress().getFraction(), 0);
+	}
+
+	public void testFailingListener() {
+		ProgressTracker tracker = new ProgressTracker(0);
+		List<SortProgress> snapshots = new ArrayList<SortProgress>();
+		tracker.addListener(progress -> {
+			throw new IllegalStateException("listener");
+		});
+		tracker.addListener(snapshots::add);
+		tracker.start(Phase.READ, 10, -1);
+		tracker.finish();
+		assertEquals(3, snapshots.size());
+	}
+
+	public void testConsoleReporter() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProgressTracker tracker = new ProgressTracker(0);
+		tracker.addListener(new ConsoleProgressReporter(new PrintStream(out, true), 3600));
+		tracker.start(Phase.READ, -1, 100);
+		tracker.update(2000, 100);
+		tracker.finish();
+		String[] lines = out.toString().split("\\R");
+		assertEquals(3, lines.length);
+		assertEquals(Phase.READ.getDescription()+"...", lines[0]);
+		//The phase last line is printed though the period did not pass
+		assertTrue(lines[1], lines[1].startsWith("READ 100.0% 2,000 rows 100 bytes"));
+		assertTrue(lines[2], lines[2].startsWith("Sort done in "));
+	}
+}
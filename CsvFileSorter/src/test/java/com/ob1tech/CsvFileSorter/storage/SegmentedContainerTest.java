@@ -0,0 +1,82 @@
+package com.ob1tech.CsvFileSorter.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+
+/**
+ * Unit test for {@link SegmentedContainer}
+ */
+public class SegmentedContainerTest extends TempDirectoryTestCase {
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(byte[] value) {
+		return value==null?null:new String(value, StandardCharsets.UTF_8);
+	}
+
+	public void testPutGetRemove() throws IOException {
+		SegmentedContainer container = new SegmentedContainer(directory, "test");
+		container.put(1, bytes("one"));
+		container.put(2, bytes("two"));
+		container.put(1, bytes("uno"));
+		assertEquals("uno", string(container.get(1)));
+		assertEquals("two", string(container.get(2)));
+		assertTrue(container.remove(2));
+		assertFalse(container.contains(2));
+		assertNull(container.get(2));
+		assertEquals(1, container.size());
+		container.delete();
+	}
+
+	public void testReopenFromTable() throws IOException {
+		SegmentedContainer container = new SegmentedContainer(directory, "test", 64, false);
+		for(long id=0; id<20; id++) {
+			container.put(id, bytes("value"+id));
+		}
+		container.put(3, bytes("changed"));
+		container.close();
+
+		container = new SegmentedContainer(directory, "test", 64, true);
+		assertEquals(20, container.size());
+		assertEquals("changed", string(container.get(3)));
+		assertEquals("value19", string(container.get(19)));
+		container.delete();
+	}
+
+	public void testRebuildWithoutTable() throws IOException {
+		SegmentedContainer container = new SegmentedContainer(directory, "test", 64, false);
+		container.put(1, bytes("one"));
+		container.put(2, bytes("two"));
+		container.remove(1);
+		container.close();
+		Files.delete(directory.resolve("test"+SegmentedContainer.TABLE_SUFFIX));
+
+		container = new SegmentedContainer(directory, "test", 64, true);
+		assertFalse(container.contains(1));
+		assertEquals("two", string(container.get(2)));
+		container.delete();
+	}
+
+	public void testCompactionKeepsLiveEntries() throws IOException {
+		SegmentedContainer container = new SegmentedContainer(directory, "test", 128, false);
+		for(int round=0; round<10; round++) {
+			for(long id=0; id<10; id++) {
+				container.put(id, bytes("round"+round+"-"+id));
+			}
+		}
+		container.compact();
+		for(long id=0; id<10; id++) {
+			assertEquals("round9-"+id, string(container.get(id)));
+		}
+		container.close();
+		long segments = Files.list(directory)
+				.filter(path -> path.getFileName().toString().startsWith("test"+SegmentedContainer.SEGMENT_SUFFIX))
+				.count();
+		assertTrue("segments left "+segments, segments < 10);
+	}
+}
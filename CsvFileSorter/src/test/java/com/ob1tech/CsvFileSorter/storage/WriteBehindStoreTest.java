@@ -0,0 +1,129 @@
+package com.ob1tech.CsvFileSorter.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link WriteBehindStore}
+ */
+public class WriteBehindStoreTest extends TestCase {
+
+	/**
+	 * In memory store, writes wait for the gate to open
+	 */
+	private static class GatedStore implements ByteStore {
+		final Map<Long, byte[]> values = new ConcurrentHashMap<Long, byte[]>();
+		final AtomicInteger writes = new AtomicInteger();
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		@Override
+		public void put(long id, byte[] data) throws IOException {
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			writes.incrementAndGet();
+			values.put(id, data);
+		}
+
+		@Override
+		public byte[] get(long id) {
+			return values.get(id);
+		}
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(byte[] value) {
+		return value==null?null:new String(value, StandardCharsets.UTF_8);
+	}
+
+	public void testQueuedValuesAreReadAndWritten() throws IOException {
+		GatedStore store = new GatedStore();
+		WriteBehindStore writeBehind = new WriteBehindStore(store, "test", 4, 1);
+		writeBehind.put(1, bytes("one"));
+		writeBehind.put(2, bytes("two"));
+		assertEquals("one", string(writeBehind.get(1)));
+		assertEquals("two", string(writeBehind.get(2)));
+		assertNull(store.get(1));
+		store.gate.countDown();
+		writeBehind.close();
+		assertEquals(0, writeBehind.size());
+		assertEquals("one", string(store.get(1)));
+		assertEquals("two", string(store.get(2)));
+	}
+
+	public void testRewritesAreCoalesced() throws IOException {
+		GatedStore store = new GatedStore();
+		WriteBehindStore writeBehind = new WriteBehindStore(store, "test", 4, 1);
+		//The writer waits on the first id, the second is still queued
+		writeBehind.put(1, bytes("one"));
+		for(int i=0; i<10; i++) {
+			writeBehind.put(2, bytes("two"+i));
+		}
+		assertEquals("two9", string(writeBehind.get(2)));
+		store.gate.countDown();
+		writeBehind.close();
+		assertEquals("two9", string(store.get(2)));
+		assertTrue(store.writes.get()<=3);
+	}
+
+	public void testPutWaitsForQueuedBytes() throws Exception {
+		GatedStore store = new GatedStore();
+		WriteBehindStore writeBehind = new WriteBehindStore(store, "test", 4, 1);
+		writeBehind.setMaxPendingBytes(6);
+		writeBehind.put(1, bytes("one"));
+		writeBehind.put(2, bytes("two"));
+		assertEquals(6, writeBehind.getPendingBytes());
+		Thread third = new Thread(() -> {
+			try {
+				writeBehind.put(3, bytes("three"));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		third.start();
+		third.join(200);
+		//Over the bytes, though a queue slot is free
+		assertTrue(third.isAlive());
+		assertEquals(2, writeBehind.size());
+		store.gate.countDown();
+		third.join();
+		writeBehind.close();
+		assertEquals(0, writeBehind.getPendingBytes());
+		assertEquals("three", string(store.get(3)));
+	}
+
+	public void testFailedWriteIsThrown() throws IOException {
+		ByteStore failing = new ByteStore() {
+			@Override
+			public void put(long id, byte[] data) throws IOException {
+				throw new IOException("disk full");
+			}
+
+			@Override
+			public byte[] get(long id) {
+				return null;
+			}
+		};
+		WriteBehindStore writeBehind = new WriteBehindStore(failing, "test");
+		writeBehind.put(1, bytes("one"));
+		try {
+			writeBehind.flush();
+			fail("Write failure was not thrown");
+		} catch (IOException e) {
+			assertEquals("disk full", e.getCause().getMessage());
+		}
+		writeBehind.close();
+	}
+}
@@ -0,0 +1,30 @@
+package com.ob1tech.CsvFileSorter.utils;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link LruCache}, the least recently used entry is evicted
+ */
+public class LruCacheTest extends TestCase {
+
+	public void testEvictsLeastRecentlyUsed() {
+		LruCache<Long, String> cache = new LruCache<Long, String>(3);
+		cache.put(1l, "a");
+		cache.put(2l, "b");
+		cache.put(3l, "c");
+		//Read, 2 is now the least recently used
+		assertEquals("a", cache.get(1l));
+		cache.put(4l, "d");
+		assertEquals(3, cache.size());
+		assertNull(cache.get(2l));
+		assertEquals("a", cache.get(1l));
+		assertEquals("c", cache.get(3l));
+		assertEquals("d", cache.get(4l));
+
+		//Replaced, not added
+		cache.put(3l, "e");
+		assertEquals(3, cache.size());
+		assertEquals("e", cache.remove(3l));
+		assertEquals(2, cache.size());
+	}
+}
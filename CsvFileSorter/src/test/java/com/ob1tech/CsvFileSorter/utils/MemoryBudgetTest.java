@@ -0,0 +1,71 @@
+package com.ob1tech.CsvFileSorter.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.ob1tech.CsvFileSorter.TempDirectoryTestCase;
+import com.ob1tech.CsvFileSorter.controllers.BatchController;
+import com.ob1tech.CsvFileSorter.controllers.Controller;
+import com.ob1tech.CsvFileSorter.controllers.ControllerBuilder;
+
+/**
+ * Unit test for {@link MemoryBudget}, its shares and the batches sized by it
+ */
+public class MemoryBudgetTest extends TempDirectoryTestCase {
+
+	public void testShares() {
+		MemoryBudget budget = new MemoryBudget(8);
+		assertEquals(8l*1024*1024, budget.getTotalBytes());
+		assertEquals(budget.getTotalBytes()/4, budget.getBatchBytes());
+		assertEquals(budget.getTotalBytes()/4, budget.getWriteBehindBytes());
+		assertEquals(1, budget.getPrefetchBatches());
+		assertEquals(budget.getTotalBytes()/4/256, budget.getIndexCacheNodes());
+		try {
+			new MemoryBudget(0);
+			fail("A budget must be positive");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testBatchesSizedByRecords() throws IOException {
+		MemoryBudget budget = new MemoryBudget(1);
+		Random random = new Random(27);
+		List<String> rows = new ArrayList<String>();
+		int batches = 0;
+		long batchBytes = 0;
+		for(int i=0; i<3000; i++) {
+			//Rows of very different widths
+			StringBuilder row = new StringBuilder().append(random.nextInt(1000)).append(',').append(i).append(',');
+			int width = i<1500?10:random.nextInt(2000);
+			for(int c=0; c<width; c++) {
+				row.append('x');
+			}
+			rows.add(row.toString());
+			if(batchBytes==0) {
+				batches++;
+			}
+			batchBytes += MemoryBudget.estimateLineSize(row.toString().getBytes(StandardCharsets.UTF_8));
+			if(batchBytes>=budget.getBatchBytes()) {
+				batchBytes = 0;
+			}
+		}
+		Path file = write("budget.csv", rows);
+		ControllerBuilder builder = new ControllerBuilder()
+				.withKeyType("long")
+				.withKeyIndex(0)
+				.withMemoryBudget(1);
+		builder.setFilePath(file.toString());
+		Controller<?> controller = builder.build();
+		controller.execute();
+
+		//A batch is closed once its records reach the batch share, not by a record count
+		assertEquals(batches, controller.getBatchController().getIndexRecordController().size());
+		rows.sort(Comparator.comparingLong(row -> Long.parseLong(row.substring(0, row.indexOf(',')))));
+		assertEquals(rows, read(BatchController.getSortedFilePath(file)));
+	}
+}
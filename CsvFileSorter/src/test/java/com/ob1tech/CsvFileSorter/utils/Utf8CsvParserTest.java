@@ -0,0 +1,92 @@
+package com.ob1tech.CsvFileSorter.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link Utf8CsvParser} and {@link Utf8LineReader}
+ */
+public class Utf8CsvParserTest extends TestCase {
+
+	public void testLineEnds() throws IOException {
+		String text = "a,1\r\nb,2\rc,3\n\nd,שלום";
+		//One byte reads end lines at every buffer edge
+		InputStream oneByte = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		};
+		try (Utf8LineReader reader = new Utf8LineReader(oneByte)) {
+			List<String> lines = new ArrayList<String>();
+			for(byte[] line = reader.readLine(); line!=null; line = reader.readLine()) {
+				lines.add(new String(line, StandardCharsets.UTF_8));
+			}
+			assertEquals(Arrays.asList("a,1", "b,2", "c,3", "", "d,שלום"), lines);
+			assertEquals(text.getBytes(StandardCharsets.UTF_8).length, reader.getCount());
+		}
+	}
+
+	public void testMalformed() throws IOException {
+		byte[] overlong = {'a', (byte) 0xc0, (byte) 0xaf, '\n'};
+		try (Utf8LineReader reader = new Utf8LineReader(new ByteArrayInputStream(overlong))) {
+			reader.readLine();
+			fail("Malformed line was read");
+		} catch (MalformedInputException e) {
+			//Expected
+		}
+		//Surrogates are not UTF-8
+		byte[] surrogate = {(byte) 0xed, (byte) 0xa0, (byte) 0x80};
+		try {
+			Utf8LineReader.validate(surrogate, 0, surrogate.length);
+			fail("Surrogate was validated");
+		} catch (MalformedInputException e) {
+			//Expected
+		}
+		byte[] valid = "é€😀".getBytes(StandardCharsets.UTF_8);
+		Utf8LineReader.validate(valid, 0, valid.length);
+	}
+
+	public void testColumnsAsParsed() throws IOException {
+		CSVParser csvParser = new CSVParserBuilder().withSeparator(',').build();
+		Utf8CsvParser parser = new Utf8CsvParser(csvParser);
+		String[] lines = {"1,été,x", " 2 ,b", "3,\"a,b\",c", "4,a\\,b", "\"5\",b", ",,"};
+		for(String line : lines) {
+			byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+			String[] columns = csvParser.parseLine(line);
+			for(int i=0; i<columns.length; i++) {
+				assertEquals(line, columns[i], parser.column(bytes, i));
+			}
+		}
+		assertFalse(parser.find("1,2".getBytes(StandardCharsets.UTF_8), 2));
+		//Quotes after the column are not parsed
+		assertEquals("b", parser.column("6,b,\"c".getBytes(StandardCharsets.UTF_8), 1));
+	}
+
+	public void testLongValue() {
+		Utf8CsvParser parser = new Utf8CsvParser(new CSVParserBuilder().build());
+		String[] values = {"42", "-7", "+3", "000", "123456789012345678"};
+		for(String value : values) {
+			byte[] line = ("x,"+value).getBytes(StandardCharsets.UTF_8);
+			assertTrue(parser.find(line, 1));
+			assertEquals(value, Long.valueOf(value), parser.longValue(line));
+		}
+		String[] notPlain = {"", "-", "1.5", "1e3", " 1", "1234567890123456789"};
+		for(String value : notPlain) {
+			byte[] line = ("x,"+value).getBytes(StandardCharsets.UTF_8);
+			assertTrue(parser.find(line, 1));
+			assertNull(value, parser.longValue(line));
+		}
+	}
+}